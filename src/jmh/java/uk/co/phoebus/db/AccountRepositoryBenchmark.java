@@ -0,0 +1,33 @@
+package uk.co.phoebus.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import uk.co.phoebus.model.Account;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class AccountRepositoryBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Benchmark
+    public List<Account> findByExampleAccountNumber(SeededDatabase db) {
+        Account searchModel = Account.builder()
+                .accountNumber(ThreadLocalRandom.current().nextInt(db.customers))
+                .build();
+        return db.accountRepository.findByExample(searchModel, null, PAGE_SIZE);
+    }
+
+    /**
+     * Same search, but through the CUSTOMER_ACCOUNT join
+     */
+    @Benchmark
+    public List<Account> findByExampleCustomerId(SeededDatabase db) {
+        Account searchModel = Account.builder()
+                .customerIds(Collections.singletonList(db.customerIds[ThreadLocalRandom.current().nextInt(db.customers)]))
+                .build();
+        return db.accountRepository.findByExample(searchModel, null, PAGE_SIZE);
+    }
+
+}
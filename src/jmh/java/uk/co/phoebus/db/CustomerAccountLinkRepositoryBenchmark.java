@@ -0,0 +1,51 @@
+package uk.co.phoebus.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import uk.co.phoebus.model.CustomerAccountLink;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+@State(Scope.Benchmark)
+public class CustomerAccountLinkRepositoryBenchmark {
+
+    /**
+     * Shared across threads so every save links a pair that isn't linked yet
+     */
+    private AtomicLong nextPair;
+
+    @Setup
+    public void setUp() {
+        nextPair = new AtomicLong();
+    }
+
+    /**
+     * Pair k links customer (k mod n) with the account 1..n-1 places along from its seeded one, so the
+     * first n(n-1) pairs are all distinct and none collide with the seeded links
+     */
+    @Benchmark
+    public CustomerAccountLink save(SeededDatabase db) {
+        long pair = nextPair.getAndIncrement();
+        int customer = (int) (pair % db.customers);
+        int offset = 1 + (int) ((pair / db.customers) % (db.customers - 1));
+        return db.linkRepository.save(CustomerAccountLink.builder()
+                .customerId(db.customerIds[customer])
+                .accountId(db.accountIds[(customer + offset) % db.customers])
+                .build());
+    }
+
+    @Benchmark
+    public List<CustomerAccountLink> findByCustomerId(SeededDatabase db) {
+        return db.linkRepository.findByCustomerId(db.customerIds[ThreadLocalRandom.current().nextInt(db.customers)]);
+    }
+
+    @Benchmark
+    public List<CustomerAccountLink> findByAccountId(SeededDatabase db) {
+        return db.linkRepository.findByAccountId(db.accountIds[ThreadLocalRandom.current().nextInt(db.customers)]);
+    }
+
+}
@@ -0,0 +1,42 @@
+package uk.co.phoebus.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerSearch;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+@State(Scope.Thread)
+public class CustomerRepositoryBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    private int next;
+
+    @Benchmark
+    public Customer save(SeededDatabase db) {
+        return db.customerRepository.save(SeededDatabase.aCustomer(next++));
+    }
+
+    @Benchmark
+    public Optional<Customer> findById(SeededDatabase db) {
+        return db.customerRepository.findById(db.customerIds[ThreadLocalRandom.current().nextInt(db.customers)]);
+    }
+
+    @Benchmark
+    public List<Customer> findByExampleSurname(SeededDatabase db) {
+        String surname = SeededDatabase.SURNAMES[ThreadLocalRandom.current().nextInt(SeededDatabase.SURNAMES.length)];
+        return db.customerRepository.findBySearch(CustomerSearch.builder().surname(surname).build(), null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Customer> findByExampleForename(SeededDatabase db) {
+        String forename = "Forename" + ThreadLocalRandom.current().nextInt(db.customers);
+        return db.customerRepository.findBySearch(CustomerSearch.builder().forename(forename).build(), null, PAGE_SIZE);
+    }
+
+}
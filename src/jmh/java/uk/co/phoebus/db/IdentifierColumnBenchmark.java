@@ -0,0 +1,149 @@
+package uk.co.phoebus.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The CUSTOMER and CUSTOMER_ACCOUNT keys and indexes with {@code VARCHAR(36)} ids (as before V5-V7) and with
+ * {@code UUID} ids, in a file H2 database so that setup can print the space each table (rows and indexes) takes.
+ * Ids are bound as the application binds them - strings for VARCHAR, and {@link UuidStringConverter}'d for UUID.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IdentifierColumnBenchmark {
+
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    @Param({"VARCHAR(36)", "UUID"})
+    public String idType;
+
+    @Param({"200000"})
+    public int customers;
+
+    private final UuidStringConverter converter = new UuidStringConverter();
+    private Path directory;
+    private Connection connection;
+    private PreparedStatement customerById;
+    private PreparedStatement linksOfCustomer;
+    private PreparedStatement linksOfAccount;
+    private String[] customerIds;
+    private String[] accountIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("identifier-column-benchmark");
+        connection = DriverManager.getConnection("jdbc:h2:" + directory.resolve("db"), "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE CUSTOMER (CUSTOMER_ID " + idType + " NOT NULL, DATE_OF_BIRTH DATE NOT NULL,"
+                    + " FORENAME VARCHAR(100) NOT NULL, SURNAME VARCHAR(100) NOT NULL, PRIMARY KEY (CUSTOMER_ID))");
+            statement.execute("CREATE TABLE CUSTOMER_ACCOUNT (CUSTOMER_ID " + idType + " NOT NULL, ACCOUNT_ID " + idType
+                    + " NOT NULL, PRIMARY KEY (CUSTOMER_ID, ACCOUNT_ID))");
+            statement.execute("CREATE INDEX IDX_CUSTOMER_ACCOUNT_ACCOUNT_ID ON CUSTOMER_ACCOUNT (ACCOUNT_ID)");
+        }
+        seed();
+        try (Statement statement = connection.createStatement()) {
+            System.out.printf("%n%s ids, %d customers: CUSTOMER %d bytes, CUSTOMER_ACCOUNT %d bytes%n", idType,
+                    customers, spaceUsed(statement, "CUSTOMER"), spaceUsed(statement, "CUSTOMER_ACCOUNT"));
+        }
+        customerById = connection.prepareStatement("SELECT * FROM CUSTOMER WHERE CUSTOMER_ID = ?");
+        linksOfCustomer = connection.prepareStatement("SELECT * FROM CUSTOMER_ACCOUNT WHERE CUSTOMER_ID = ?");
+        linksOfAccount = connection.prepareStatement("SELECT * FROM CUSTOMER_ACCOUNT WHERE ACCOUNT_ID = ?");
+    }
+
+    private void seed() throws SQLException {
+        customerIds = new String[customers];
+        accountIds = new String[customers];
+        try (PreparedStatement customer = connection.prepareStatement(
+                "INSERT INTO CUSTOMER VALUES (?, DATE '1980-01-01', 'Forename', 'Surname')");
+             PreparedStatement link = connection.prepareStatement("INSERT INTO CUSTOMER_ACCOUNT VALUES (?, ?)")) {
+            for (int i = 0; i < customers; i++) {
+                customerIds[i] = UUID.randomUUID().toString();
+                accountIds[i] = UUID.randomUUID().toString();
+                bind(customer, 1, customerIds[i]);
+                customer.addBatch();
+                bind(link, 1, customerIds[i]);
+                bind(link, 2, accountIds[i]);
+                link.addBatch();
+                if ((i + 1) % SEED_BATCH_SIZE == 0) {
+                    customer.executeBatch();
+                    link.executeBatch();
+                }
+            }
+            customer.executeBatch();
+            link.executeBatch();
+        }
+    }
+
+    private static long spaceUsed(Statement statement, String table) throws SQLException {
+        try (ResultSet result = statement.executeQuery("CALL DISK_SPACE_USED('" + table + "')")) {
+            result.next();
+            return result.getLong(1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connection.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void bind(PreparedStatement statement, int index, String id) throws SQLException {
+        if (idType.equals("UUID")) {
+            statement.setObject(index, converter.to(id));
+        } else {
+            statement.setString(index, id);
+        }
+    }
+
+    @Benchmark
+    public int customerById() throws SQLException {
+        return count(customerById, customerIds);
+    }
+
+    @Benchmark
+    public int linksOfCustomer() throws SQLException {
+        return count(linksOfCustomer, customerIds);
+    }
+
+    @Benchmark
+    public int linksOfAccount() throws SQLException {
+        return count(linksOfAccount, accountIds);
+    }
+
+    private int count(PreparedStatement query, String[] ids) throws SQLException {
+        bind(query, 1, ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+        int rows = 0;
+        try (ResultSet result = query.executeQuery()) {
+            while (result.next()) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+}
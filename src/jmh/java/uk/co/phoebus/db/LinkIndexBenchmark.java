@@ -0,0 +1,82 @@
+package uk.co.phoebus.db;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import uk.co.phoebus.event.CustomerAccountLinkCreatedEvent;
+import uk.co.phoebus.model.CustomerAccountLink;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Link lookups against a {@link LinkIndex} of {@code links} links between as many customers and half as many accounts
+ * (so accounts average two customers each) - no database involved. Setup prints the heap the index was measured to
+ * take alongside its own estimate; run with {@code -prof gc} for allocation per lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LinkIndexBenchmark {
+
+    @Param({"1000000"})
+    public int links;
+
+    private LinkIndex index;
+    private String[] customerIds;
+    private String[] accountIds;
+
+    @Setup
+    public void setUp() {
+        customerIds = new String[links];
+        accountIds = new String[links / 2];
+        for (int i = 0; i < customerIds.length; i++) {
+            customerIds[i] = UUID.randomUUID().toString();
+        }
+        for (int i = 0; i < accountIds.length; i++) {
+            accountIds[i] = UUID.randomUUID().toString();
+        }
+
+        long before = usedHeap();
+        index = new LinkIndex(new SimpleMeterRegistry());
+        Random random = new Random(42);
+        for (String customerId : customerIds) {
+            index.linkCreated(new CustomerAccountLinkCreatedEvent(
+                    new CustomerAccountLink(customerId, accountIds[random.nextInt(accountIds.length)])));
+        }
+        // the id strings are shared with the arrays above, so are counted by the estimate but not the measurement
+        long measured = usedHeap() - before;
+        long estimated = index.estimatedBytes();
+        System.out.printf("%n%d links: %d bytes measured excluding id strings (%d per link), %d estimated including "
+                        + "them (%d per link)%n", index.size(), measured, measured / index.size(), estimated,
+                estimated / index.size());
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Benchmark
+    public List<String> accountIdsOf() {
+        return index.accountIdsOf(customerIds[ThreadLocalRandom.current().nextInt(customerIds.length)]);
+    }
+
+    @Benchmark
+    public List<String> customerIdsOf() {
+        return index.customerIdsOf(accountIds[ThreadLocalRandom.current().nextInt(accountIds.length)]);
+    }
+
+}
@@ -0,0 +1,59 @@
+package uk.co.phoebus.db;
+
+import nu.studer.sample.public_.tables.records.AccountRecord;
+import nu.studer.sample.public_.tables.records.CustomerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import uk.co.phoebus.model.Account;
+import uk.co.phoebus.model.Customer;
+
+import java.util.UUID;
+
+/**
+ * The record mappers in isolation - no database involved
+ */
+@State(Scope.Thread)
+public class RecordMapperBenchmark {
+
+    private final CustomerRepository customerRepository = new CustomerRepository();
+    private final AccountRepository accountRepository = new AccountRepository();
+
+    private Customer customer;
+    private CustomerRecord customerRecord;
+    private Account account;
+    private AccountRecord accountRecord;
+
+    @Setup
+    public void setUp() {
+        customer = SeededDatabase.aCustomer(1);
+        customerRecord = customerRepository.toDb(customer);
+        account = Account.builder()
+                .accountId(UUID.randomUUID().toString())
+                .accountNumber(12345678)
+                .build();
+        accountRecord = accountRepository.toDb(account);
+    }
+
+    @Benchmark
+    public Customer customerFromDb() {
+        return customerRepository.fromDb().map(customerRecord);
+    }
+
+    @Benchmark
+    public CustomerRecord customerToDb() {
+        return customerRepository.toDb(customer);
+    }
+
+    @Benchmark
+    public Account accountFromDb() {
+        return accountRepository.fromDb().map(accountRecord);
+    }
+
+    @Benchmark
+    public AccountRecord accountToDb() {
+        return accountRepository.toDb(account);
+    }
+
+}
@@ -0,0 +1,108 @@
+package uk.co.phoebus.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import uk.co.phoebus.model.Account;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerSearch;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.jooq.impl.DSL.condition;
+import static uk.co.phoebus.db.AccountRepository.TABLE;
+
+/**
+ * The repository lookups and searches that run SQL rendered once straight through JDBC (see {@link RenderedQueries})
+ * against the same queries built, rendered and run by jOOQ on every call, as they used to be. With the gc profiler,
+ * {@code gc.alloc.rate.norm} is the bytes allocated per call; {@code *Render} is the cost of building and rendering the
+ * query alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RenderedQueryBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Benchmark
+    public Optional<Customer> customerByIdRendered(SeededDatabase db) {
+        return db.customerRepository.findById(aCustomerId(db));
+    }
+
+    @Benchmark
+    public List<Customer> customerByIdBuilt(SeededDatabase db) {
+        return db.dsl.selectFrom(CustomerRepository.TABLE)
+                .where(CustomerRepository.TABLE.CUSTOMER_ID.eq(aCustomerId(db)))
+                .fetch()
+                .map(db.customerRepository.fromDb());
+    }
+
+    @Benchmark
+    public String customerByIdRender(SeededDatabase db) {
+        return db.dsl.render(db.dsl.selectFrom(CustomerRepository.TABLE)
+                .where(CustomerRepository.TABLE.CUSTOMER_ID.eq(aCustomerId(db))));
+    }
+
+    @Benchmark
+    public List<Customer> customerBySearchRendered(SeededDatabase db) {
+        return db.customerRepository.findBySearch(aSearch(), null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Customer> customerBySearchBuilt(SeededDatabase db) {
+        return db.customerRepository.selectPageBySearch(aSearch(), null, PAGE_SIZE)
+                .fetch()
+                .map(a -> db.customerRepository.fromDb().map(a.into(CustomerRepository.TABLE)));
+    }
+
+    @Benchmark
+    public String customerBySearchRender(SeededDatabase db) {
+        return db.dsl.render(db.customerRepository.selectPageBySearch(aSearch(), null, PAGE_SIZE));
+    }
+
+    @Benchmark
+    public List<Account> accountByExampleRendered(SeededDatabase db) {
+        return db.accountRepository.findByExample(anExample(db), null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Account> accountByExampleBuilt(SeededDatabase db) {
+        return db.dsl.select(TABLE.fields())
+                .from(TABLE)
+                .where(condition(db.accountRepository.toDb(anExample(db))))
+                .orderBy(TABLE.ACCOUNT_ID)
+                .limit(PAGE_SIZE)
+                .fetch()
+                .map(a -> db.accountRepository.fromDb().map(a.into(TABLE)));
+    }
+
+    @Benchmark
+    public String accountByExampleRender(SeededDatabase db) {
+        return db.dsl.render(db.dsl.select(TABLE.fields())
+                .from(TABLE)
+                .where(condition(db.accountRepository.toDb(anExample(db))))
+                .orderBy(TABLE.ACCOUNT_ID)
+                .limit(PAGE_SIZE));
+    }
+
+    private static String aCustomerId(SeededDatabase db) {
+        return db.customerIds[ThreadLocalRandom.current().nextInt(db.customers)];
+    }
+
+    private static CustomerSearch aSearch() {
+        return CustomerSearch.builder()
+                .surname(SeededDatabase.SURNAMES[ThreadLocalRandom.current().nextInt(SeededDatabase.SURNAMES.length)])
+                .build();
+    }
+
+    private static Account anExample(SeededDatabase db) {
+        return Account.builder()
+                .accountNumber(ThreadLocalRandom.current().nextInt(db.customers))
+                .build();
+    }
+
+}
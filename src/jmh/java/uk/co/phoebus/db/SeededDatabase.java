@@ -0,0 +1,97 @@
+package uk.co.phoebus.db;
+
+import org.jooq.DSLContext;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import uk.co.phoebus.Application;
+import uk.co.phoebus.model.Account;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerAccountLink;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Boots the application context (without the web tier) against its in-memory H2 database and seeds it with
+ * {@code customers} customers, the same number of accounts, and one link between each customer/account pair.
+ */
+@State(Scope.Benchmark)
+public class SeededDatabase {
+
+    static final String[] SURNAMES = {"Parker", "Smith", "Jones", "Taylor", "Brown", "Williams", "Wilson", "Evans"};
+
+    private static final int SEED_CHUNK_SIZE = 1000;
+
+    @Param({"10000"})
+    public int customers;
+
+    ConfigurableApplicationContext context;
+    DSLContext dsl;
+    CustomerRepository customerRepository;
+    AccountRepository accountRepository;
+    CustomerAccountLinkRepository linkRepository;
+
+    String[] customerIds;
+    String[] accountIds;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .properties("logging.level.org.jooq=INFO", "spring.main.banner-mode=off",
+                        "spring.datasource.generate-unique-name=true")
+                .run();
+        dsl = context.getBean(DSLContext.class);
+        customerRepository = context.getBean(CustomerRepository.class);
+        accountRepository = context.getBean(AccountRepository.class);
+        linkRepository = context.getBean(CustomerAccountLinkRepository.class);
+
+        customerIds = new String[customers];
+        accountIds = new String[customers];
+        List<Customer> chunk = new ArrayList<>(SEED_CHUNK_SIZE);
+        for (int i = 0; i < customers; i++) {
+            Customer customer = aCustomer(i);
+            customerIds[i] = customer.getCustomerId();
+            chunk.add(customer);
+            if (chunk.size() == SEED_CHUNK_SIZE || i == customers - 1) {
+                customerRepository.saveAll(chunk);
+                chunk.clear();
+            }
+        }
+        for (int i = 0; i < customers; i++) {
+            Account account = accountRepository.save(Account.builder()
+                    .accountId(UUID.randomUUID().toString())
+                    .accountNumber(i)
+                    .build());
+            accountIds[i] = account.getAccountId();
+            linkRepository.save(CustomerAccountLink.builder()
+                    .customerId(customerIds[i])
+                    .accountId(accountIds[i])
+                    .build());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        context.close();
+    }
+
+    static Customer aCustomer(int i) {
+        return Customer.builder()
+                .customerId(UUID.randomUUID().toString())
+                .forename("Forename" + i)
+                .surname(SURNAMES[i % SURNAMES.length])
+                .dateOfBirth(LocalDate.of(1950, 1, 1).plusDays(i % 20000))
+                .build();
+    }
+
+}
@@ -0,0 +1,46 @@
+package uk.co.phoebus.id;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of generating an id with each generator, from one thread and from eight contending threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IdGeneratorBenchmark {
+
+    private final IdGenerator timeOrdered = new TimeOrderedIdGenerator();
+    private final IdGenerator random = new RandomIdGenerator();
+
+    @Benchmark
+    public String timeOrdered() {
+        return timeOrdered.newId();
+    }
+
+    @Benchmark
+    public String random() {
+        return random.newId();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String timeOrderedContended() {
+        return timeOrdered.newId();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String randomContended() {
+        return random.newId();
+    }
+
+}
@@ -0,0 +1,113 @@
+package uk.co.phoebus.id;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import uk.co.phoebus.db.UuidStringConverter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Inserts into a file H2 table keyed, like CUSTOMER, by a UUID primary key, with ids from each generator. Setup seeds
+ * {@code rows} rows, printing the insert rate as the table grows and the space it ends up taking; the benchmark then
+ * times committing a further batch of {@code batchSize}.
+ * <p>
+ * Seeding 10M rows takes several minutes per generator - pass e.g. {@code -p rows=1000000} for a quicker run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IdInsertBenchmark {
+
+    private static final int SEED_BATCH_SIZE = 10_000;
+    private static final int SEED_REPORT_INTERVAL = 1_000_000;
+
+    @Param({"time-ordered", "random"})
+    public String generator;
+
+    @Param({"10000000"})
+    public int rows;
+
+    @Param({"1000"})
+    public int batchSize;
+
+    private final UuidStringConverter converter = new UuidStringConverter();
+    private IdGenerator ids;
+    private Path directory;
+    private Connection connection;
+    private PreparedStatement insert;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ids = generator.equals("random") ? new RandomIdGenerator() : new TimeOrderedIdGenerator();
+        directory = Files.createTempDirectory("id-insert-benchmark");
+        connection = DriverManager.getConnection("jdbc:h2:" + directory.resolve("db"), "sa", "");
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE CUSTOMER (CUSTOMER_ID UUID NOT NULL, DATE_OF_BIRTH DATE NOT NULL,"
+                    + " FORENAME VARCHAR(100) NOT NULL, SURNAME VARCHAR(100) NOT NULL, PRIMARY KEY (CUSTOMER_ID))");
+        }
+        insert = connection.prepareStatement("INSERT INTO CUSTOMER VALUES (?, DATE '1980-01-01', 'Forename', 'Surname')");
+
+        long start = System.nanoTime();
+        long intervalStart = start;
+        for (int seeded = 0; seeded < rows; ) {
+            int batch = Math.min(SEED_BATCH_SIZE, rows - seeded);
+            insertBatch(batch);
+            seeded += batch;
+            if (seeded % SEED_REPORT_INTERVAL == 0 || seeded == rows) {
+                long now = System.nanoTime();
+                System.out.printf("%n%s: %d rows, %.0f inserts/s over the last interval", generator, seeded,
+                        (seeded % SEED_REPORT_INTERVAL == 0 ? SEED_REPORT_INTERVAL : seeded % SEED_REPORT_INTERVAL)
+                                / ((now - intervalStart) / 1e9));
+                intervalStart = now;
+            }
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet spaceUsed = statement.executeQuery("CALL DISK_SPACE_USED('CUSTOMER')")) {
+            spaceUsed.next();
+            System.out.printf("%n%s: seeded %d rows in %d s, CUSTOMER takes %d bytes%n", generator, rows,
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), spaceUsed.getLong(1));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connection.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void insertBatch() throws SQLException {
+        insertBatch(batchSize);
+    }
+
+    private void insertBatch(int size) throws SQLException {
+        for (int i = 0; i < size; i++) {
+            insert.setObject(1, converter.to(ids.newId()));
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        connection.commit();
+    }
+
+}
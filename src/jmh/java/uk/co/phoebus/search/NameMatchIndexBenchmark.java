@@ -0,0 +1,93 @@
+package uk.co.phoebus.search;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.co.phoebus.event.CustomersCreatedEvent;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.MatchMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name index lookups over {@code customers} synthetic customers - no database involved. Surnames are built from
+ * random syllables, so there are tens of thousands of distinct ones, shared by many customers each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NameMatchIndexBenchmark {
+
+    private static final String[] SYLLABLES = {"smi", "th", "jo", "nes", "tay", "lor", "bro", "wn", "wil", "son",
+            "ev", "ans", "ro", "ber", "ts", "wal", "ker", "wri", "ght", "tho", "mp", "ha", "rri", "mar", "tin", "ja",
+            "ck", "cla", "rke", "gre", "en", "ho", "ll", "lee", "kin", "gs", "war", "dy", "mo", "re"};
+    private static final String[] FORENAMES = {"Peter", "Mary", "John", "Sarah", "David", "Emma", "James", "Olivia",
+            "Robert", "Sophie", "Michael", "Grace", "William", "Chloe", "Thomas", "Lucy", "Daniel", "Ella", "Joseph",
+            "Amelia"};
+    private static final int CHUNK_SIZE = 10000;
+
+    @Param({"1000000"})
+    public int customers;
+
+    private NameMatchIndex index;
+
+    @Setup
+    public void setUp() {
+        index = new NameMatchIndex(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(index, "maxEdits", 2);
+        Random random = new Random(42);
+        List<Customer> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (int i = 0; i < customers; i++) {
+            chunk.add(Customer.builder()
+                    .customerId(Integer.toString(i))
+                    .forename(FORENAMES[random.nextInt(FORENAMES.length)])
+                    .surname(surname(random))
+                    .build());
+            if (chunk.size() == CHUNK_SIZE) {
+                index.customersCreated(new CustomersCreatedEvent(chunk));
+                chunk = new ArrayList<>(CHUNK_SIZE);
+            }
+        }
+        index.customersCreated(new CustomersCreatedEvent(chunk));
+    }
+
+    private static String surname(Random random) {
+        StringBuilder surname = new StringBuilder();
+        int syllables = 2 + random.nextInt(2);
+        for (int i = 0; i < syllables; i++) {
+            surname.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return surname.toString();
+    }
+
+    @Benchmark
+    public List<String> fuzzySurname() {
+        return index.match(null, "Smythjones", MatchMode.FUZZY, 100);
+    }
+
+    @Benchmark
+    public List<String> fuzzyShortSurname() {
+        return index.match(null, "Smyth", MatchMode.FUZZY, 100);
+    }
+
+    @Benchmark
+    public List<String> fuzzyForenameAndSurname() {
+        return index.match("Petra", "Wilsonharris", MatchMode.FUZZY, 100);
+    }
+
+    @Benchmark
+    public List<String> prefixSurname() {
+        return index.match(null, "Thomp", MatchMode.PREFIX, 100);
+    }
+
+}
@@ -0,0 +1,314 @@
+package uk.co.phoebus;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import uk.co.phoebus.db.AccountRepository;
+import uk.co.phoebus.db.CustomerAccountLinkRepository;
+import uk.co.phoebus.db.CustomerRepository;
+import uk.co.phoebus.model.Account;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerAccountLink;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+/**
+ * End-to-end load test: seeds the database, then drives a weighted mix of calls against every KYC endpoint from
+ * many concurrent clients and writes per-endpoint latency percentiles and throughput to a JSON report.
+ * <p>
+ * Configured through {@code loadTest.*} system properties, e.g.
+ * {@code ./gradlew loadTest -DloadTest.clients=64 -DloadTest.durationSeconds=120 -DloadTest.mix=getCustomer=80,createLink=20}
+ */
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = "logging.level.org.jooq=INFO")
+@Slf4j
+class KycLoadTest {
+
+    private static final String DEFAULT_MIX = "createCustomer=10,getCustomer=30,searchCustomers=15,"
+            + "createAccount=10,getAccount=15,searchAccounts=10,createLink=10";
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final String[] SURNAMES = {"Parker", "Smith", "Jones", "Taylor", "Brown", "Williams", "Wilson", "Evans"};
+
+    private final int seedCustomers = Integer.getInteger("loadTest.customers", 1000);
+    private final int clients = Integer.getInteger("loadTest.clients", 32);
+    private final int warmupSeconds = Integer.getInteger("loadTest.warmupSeconds", 5);
+    private final int durationSeconds = Integer.getInteger("loadTest.durationSeconds", 30);
+    private final double maxErrorRate = Double.parseDouble(System.getProperty("loadTest.maxErrorRate", "0.01"));
+    private final String mix = System.getProperty("loadTest.mix", DEFAULT_MIX);
+    private final File report = new File(System.getProperty("loadTest.report", "build/reports/load-test/load-test.json"));
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private CustomerRepository customerRepository;
+    @Autowired
+    private AccountRepository accountRepository;
+    @Autowired
+    private CustomerAccountLinkRepository linkRepository;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(Executors.newCachedThreadPool())
+            .build();
+
+    private String baseUrl;
+    private String[] customerIds;
+    private String[] accountIds;
+    private final AtomicInteger nextAccountNumber = new AtomicInteger();
+    private final AtomicLong nextLinkPair = new AtomicLong();
+
+    @Test
+    public void endpointsUnderLoad() throws Exception {
+        baseUrl = String.format("http://localhost:%s/", port);
+        seed();
+
+        List<Operation> operations = operations();
+        run(operations, Duration.ofSeconds(warmupSeconds));
+        operations.forEach(Operation::reset);
+        long elapsedNanos = run(operations, Duration.ofSeconds(durationSeconds));
+
+        writeReport(operations, elapsedNanos);
+        for (Operation operation : operations) {
+            long count = operation.latencyMicros.getTotalCount();
+            assertTrue(count == 0 || operation.errors.sum() <= count * maxErrorRate,
+                    operation.name + " had " + operation.errors.sum() + " errors in " + count + " calls");
+        }
+    }
+
+    private void seed() {
+        customerRepository.deleteAll();
+        accountRepository.deleteAll();
+        linkRepository.deleteAll();
+
+        customerIds = new String[seedCustomers];
+        accountIds = new String[seedCustomers];
+        List<Customer> customers = new ArrayList<>(seedCustomers);
+        for (int i = 0; i < seedCustomers; i++) {
+            Customer customer = aCustomer().toBuilder().customerId(UUID.randomUUID().toString()).build();
+            customerIds[i] = customer.getCustomerId();
+            customers.add(customer);
+        }
+        customerRepository.saveAll(customers);
+        for (int i = 0; i < seedCustomers; i++) {
+            accountIds[i] = accountRepository.save(Account.builder()
+                    .accountId(UUID.randomUUID().toString())
+                    .accountNumber(nextAccountNumber.getAndIncrement())
+                    .build()).getAccountId();
+            linkRepository.save(CustomerAccountLink.builder()
+                    .customerId(customerIds[i])
+                    .accountId(accountIds[i])
+                    .build());
+        }
+        log.info("Seeded {} customers, accounts and links", seedCustomers);
+    }
+
+    private List<Operation> operations() {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] nameAndWeight = entry.trim().split("=");
+            weights.put(nameAndWeight[0], Integer.parseInt(nameAndWeight[1]));
+        }
+        List<Operation> operations = new ArrayList<>();
+        weights.forEach((name, weight) -> operations.add(new Operation(name, weight, request(name))));
+        return operations;
+    }
+
+    private RequestFactory request(String name) {
+        switch (name) {
+            case "createCustomer":
+                return () -> post("customers", aCustomer());
+            case "getCustomer":
+                return () -> get("customers/" + randomOf(customerIds));
+            case "searchCustomers":
+                return () -> post("customer-searches", Customer.builder().surname(randomOf(SURNAMES)).build());
+            case "createAccount":
+                return () -> post("accounts", Account.builder().accountNumber(nextAccountNumber.getAndIncrement()).build());
+            case "getAccount":
+                return () -> get("accounts/" + randomOf(accountIds));
+            case "searchAccounts":
+                return () -> post("account-searches", Account.builder().customerIds(List.of(randomOf(customerIds))).build());
+            case "createLink":
+                return () -> post("customer-account-links", aNewLink());
+            default:
+                throw new IllegalArgumentException("Unknown operation in loadTest.mix: " + name);
+        }
+    }
+
+    /**
+     * Links each seeded customer to the accounts 1..n-1 places along from its own, so no pair is linked twice
+     */
+    private CustomerAccountLink aNewLink() {
+        long pair = nextLinkPair.getAndIncrement();
+        int customer = (int) (pair % seedCustomers);
+        int offset = 1 + (int) ((pair / seedCustomers) % (seedCustomers - 1));
+        return CustomerAccountLink.builder()
+                .customerId(customerIds[customer])
+                .accountId(accountIds[(customer + offset) % seedCustomers])
+                .build();
+    }
+
+    private long run(List<Operation> operations, Duration duration) throws InterruptedException {
+        int totalWeight = operations.stream().mapToInt(o -> o.weight).sum();
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+        ExecutorService workers = Executors.newFixedThreadPool(clients);
+        for (int i = 0; i < clients; i++) {
+            workers.execute(() -> {
+                while (System.nanoTime() < deadline) {
+                    pick(operations, totalWeight).call(httpClient);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(duration.getSeconds() + 60, TimeUnit.SECONDS);
+        return System.nanoTime() - start;
+    }
+
+    private Operation pick(List<Operation> operations, int totalWeight) {
+        int roll = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Operation operation : operations) {
+            roll -= operation.weight;
+            if (roll < 0) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private void writeReport(List<Operation> operations, long elapsedNanos) throws IOException {
+        double elapsedSeconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        for (Operation operation : operations) {
+            Histogram latency = operation.latencyMicros;
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("requests", latency.getTotalCount());
+            stats.put("errors", operation.errors.sum());
+            stats.put("requestsPerSecond", latency.getTotalCount() / elapsedSeconds);
+            stats.put("meanMillis", latency.getMean() / 1000);
+            stats.put("p50Millis", latency.getValueAtPercentile(50) / 1000.0);
+            stats.put("p99Millis", latency.getValueAtPercentile(99) / 1000.0);
+            stats.put("p999Millis", latency.getValueAtPercentile(99.9) / 1000.0);
+            stats.put("maxMillis", latency.getMaxValue() / 1000.0);
+            endpoints.put(operation.name, stats);
+            log.info("{}: {}", operation.name, stats);
+        }
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("customers", seedCustomers);
+        config.put("clients", clients);
+        config.put("warmupSeconds", warmupSeconds);
+        config.put("durationSeconds", durationSeconds);
+        config.put("mix", mix);
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("timestamp", Instant.now().toString());
+        body.put("config", config);
+        body.put("elapsedSeconds", elapsedSeconds);
+        body.put("endpoints", endpoints);
+
+        report.getParentFile().mkdirs();
+        objectMapper.writer().with(SerializationFeature.INDENT_OUTPUT).writeValue(report, body);
+        log.info("Load test report written to {}", report.getAbsolutePath());
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+    }
+
+    private HttpRequest post(String path, Object body) {
+        try {
+            return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Customer aCustomer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return Customer.builder()
+                .forename("Forename" + random.nextInt(100_000))
+                .surname(randomOf(SURNAMES))
+                .dateOfBirth(LocalDate.of(1950, 1, 1).plusDays(random.nextInt(20_000)))
+                .build();
+    }
+
+    private static <T> T randomOf(T[] values) {
+        return values[ThreadLocalRandom.current().nextInt(values.length)];
+    }
+
+    private interface RequestFactory {
+        HttpRequest create();
+    }
+
+    private static class Operation {
+
+        private final String name;
+        private final int weight;
+        private final RequestFactory requests;
+        private final Histogram latencyMicros = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private final LongAdder errors = new LongAdder();
+
+        private Operation(String name, int weight, RequestFactory requests) {
+            this.name = name;
+            this.weight = weight;
+            this.requests = requests;
+        }
+
+        private void call(HttpClient httpClient) {
+            HttpRequest request = requests.create();
+            long start = System.nanoTime();
+            try {
+                HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() >= 400) {
+                    errors.increment();
+                }
+            } catch (IOException e) {
+                errors.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            latencyMicros.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), HIGHEST_TRACKABLE_MICROS));
+        }
+
+        private void reset() {
+            latencyMicros.reset();
+            errors.reset();
+        }
+
+    }
+
+}
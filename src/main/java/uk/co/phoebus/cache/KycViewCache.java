@@ -0,0 +1,75 @@
+package uk.co.phoebus.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import uk.co.phoebus.db.LinkIndex;
+import uk.co.phoebus.event.CustomerAccountLinkCreatedEvent;
+import uk.co.phoebus.model.Account;
+import uk.co.phoebus.model.Customer;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static uk.co.phoebus.db.UuidStringConverter.canonical;
+
+/**
+ * Bounded read-through cache of the enriched (link-populated) customer and account views.
+ * <p>
+ * Customers and accounts are immutable once created, so the only thing that can make an entry stale is a new link -
+ * entries for both sides are invalidated when one is created. Misses (unknown ids) are never cached. Entries are keyed
+ * by the id as the database returns it, so an id given in upper case reads and invalidates the same entry.
+ */
+@Component
+public class KycViewCache {
+
+    private final Cache<String, Customer> customers;
+    private final Cache<String, Account> accounts;
+
+    @Autowired
+    public KycViewCache(MeterRegistry meterRegistry,
+                        @Value("${kyc.cache.maximum-size:100000}") long maximumSize,
+                        @Value("${kyc.cache.expire-after-write-seconds:600}") long expireAfterWriteSeconds) {
+        Duration expireAfterWrite = Duration.ofSeconds(expireAfterWriteSeconds);
+        this.customers = newCache(maximumSize, expireAfterWrite);
+        this.accounts = newCache(maximumSize, expireAfterWrite);
+        CaffeineCacheMetrics.monitor(meterRegistry, customers, "customerView");
+        CaffeineCacheMetrics.monitor(meterRegistry, accounts, "accountView");
+    }
+
+    public Optional<Customer> getCustomer(String customerId, Function<String, Optional<Customer>> loader) {
+        return Optional.ofNullable(customers.get(canonical(customerId), id -> loader.apply(id).orElse(null)));
+    }
+
+    public Optional<Account> getAccount(String accountId, Function<String, Optional<Account>> loader) {
+        return Optional.ofNullable(accounts.get(canonical(accountId), id -> loader.apply(id).orElse(null)));
+    }
+
+    /**
+     * Invalidation waits for any load of the same key that is already in flight, so a view read before the link
+     * was written cannot outlive it. Links written in a transaction are only invalidated once it commits, and after the
+     * {@link LinkIndex} has been updated, so a view loaded after the invalidation reads the link from it.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(LinkIndex.ORDER + 1)
+    public void linkCreated(CustomerAccountLinkCreatedEvent event) {
+        customers.invalidate(canonical(event.getLink().getCustomerId()));
+        accounts.invalidate(canonical(event.getLink().getAccountId()));
+    }
+
+    private static <V> Cache<String, V> newCache(long maximumSize, Duration expireAfterWrite) {
+        return Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+    }
+
+}
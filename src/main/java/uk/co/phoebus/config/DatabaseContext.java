@@ -1,17 +1,32 @@
 package uk.co.phoebus.config;
 
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.jooq.ConnectionProvider;
 import org.jooq.ExecuteContext;
 import org.jooq.SQLDialect;
+import org.jooq.conf.Settings;
 import org.jooq.impl.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
 import org.springframework.jdbc.support.SQLExceptionTranslator;
 import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
+import org.springframework.transaction.PlatformTransactionManager;
+import uk.co.phoebus.db.ReplicaReads;
+import uk.co.phoebus.db.Shards;
 
 import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 public class DatabaseContext {
@@ -19,10 +34,128 @@ public class DatabaseContext {
     @Autowired
     private DataSource dataSource;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ReplicaReads replicaReads;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${kyc.jooq.slow-query-threshold-ms:100}")
+    private long slowQueryThresholdMs;
+
+    @Value("${kyc.replicas.urls:}")
+    private List<String> replicaUrls;
+
+    @Value("${kyc.replicas.username:sa}")
+    private String replicaUsername;
+
+    @Value("${kyc.replicas.password:}")
+    private String replicaPassword;
+
+    @Value("${kyc.replicas.maximum-pool-size:10}")
+    private int replicaMaximumPoolSize;
+
+    @Value("${kyc.replicas.connection-timeout-ms:1000}")
+    private long replicaConnectionTimeoutMs;
+
+    @Value("${kyc.replicas.max-lag-changes:1000}")
+    private long replicaMaxLagChanges;
+
+    @Value("${kyc.replicas.health-check-interval-ms:1000}")
+    private long replicaHealthCheckIntervalMs;
+
+    @Value("${kyc.changes.instance-expiry-ms:30000}")
+    private long changesInstanceExpiryMs;
+
+    @Value("${kyc.shards.urls:}")
+    private List<String> shardUrls;
+
+    @Value("${kyc.shards.username:sa}")
+    private String shardUsername;
+
+    @Value("${kyc.shards.password:}")
+    private String shardPassword;
+
+    @Value("${kyc.shards.maximum-pool-size:10}")
+    private int shardMaximumPoolSize;
+
+    @Value("${kyc.shards.connection-timeout-ms:1000}")
+    private long shardConnectionTimeoutMs;
+
+    @Value("${kyc.shards.fan-out-threads:8}")
+    private int shardFanOutThreads;
+
+    @Value("${kyc.virtual-threads.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    @Value("${spring.flyway.locations:classpath:db/migration}")
+    private String[] migrationLocations;
+
+    @Bean
+    public ReplicaRoutingConnectionProvider connectionProvider() {
+        return new ReplicaRoutingConnectionProvider(new TransactionAwareDataSourceProxy(dataSource), replicas(),
+                replicaReads, meterRegistry, replicaMaxLagChanges, replicaHealthCheckIntervalMs,
+                changesInstanceExpiryMs);
+    }
+
+    /**
+     * A pool per {@code kyc.replicas.urls} entry, connecting lazily so a replica that is down doesn't stop startup
+     */
+    private List<ReplicaRoutingConnectionProvider.Replica> replicas() {
+        List<ReplicaRoutingConnectionProvider.Replica> replicas = new ArrayList<>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("kyc-replica-" + i);
+            replica.setJdbcUrl(replicaUrls.get(i));
+            replica.setUsername(replicaUsername);
+            replica.setPassword(replicaPassword);
+            replica.setMaximumPoolSize(replicaMaximumPoolSize);
+            replica.setConnectionTimeout(replicaConnectionTimeoutMs);
+            replica.setReadOnly(true);
+            replicas.add(new ReplicaRoutingConnectionProvider.Replica(replica.getPoolName(), bounded(replica)));
+        }
+        return replicas;
+    }
+
+    /**
+     * Shard 0 is the application's own data source (with its replicas), then a pool per {@code kyc.shards.urls} entry,
+     * migrated with the same migrations before it is used
+     */
     @Bean
-    public DataSourceConnectionProvider connectionProvider() {
-        return new DataSourceConnectionProvider
-                (new TransactionAwareDataSourceProxy(dataSource));
+    public Shards shards() {
+        List<Shards.Shard> shards = new ArrayList<>();
+        shards.add(new Shards.Shard(dsl(), transactionManager, null));
+        for (int i = 0; i < shardUrls.size(); i++) {
+            HikariDataSource shard = new HikariDataSource();
+            shard.setPoolName("kyc-shard-" + (i + 1));
+            shard.setJdbcUrl(shardUrls.get(i));
+            shard.setUsername(shardUsername);
+            shard.setPassword(shardPassword);
+            shard.setMaximumPoolSize(shardMaximumPoolSize);
+            shard.setConnectionTimeout(shardConnectionTimeoutMs);
+            Flyway.configure().dataSource(shard).locations(migrationLocations).load().migrate();
+            DataSource bounded = bounded(shard);
+            DefaultDSLContext dsl = new DefaultDSLContext(
+                    configuration(new DataSourceConnectionProvider(new TransactionAwareDataSourceProxy(bounded))));
+            shards.add(new Shards.Shard(dsl, new DataSourceTransactionManager(bounded), shard));
+        }
+        return new Shards(shards, shardFanOutThreads);
+    }
+
+    /**
+     * With virtual threads there is no thread limit in front of the pool, so like the application's own data source
+     * (see {@link VirtualThreadsContext}) it is wrapped to allow at most its pool size of connections out at once
+     */
+    private DataSource bounded(HikariDataSource pool) {
+        if (!virtualThreadsEnabled) {
+            return pool;
+        }
+        BoundedDataSource bounded = new BoundedDataSource(pool, pool.getMaximumPoolSize(), pool.getConnectionTimeout());
+        bounded.registerMetrics(meterRegistry, pool.getPoolName());
+        return bounded;
     }
 
     @Bean
@@ -31,10 +164,21 @@ public class DatabaseContext {
     }
 
     public DefaultConfiguration configuration() {
+        return configuration(connectionProvider());
+    }
+
+    /**
+     * IN lists are padded to the next power of two (repeating the last value), so lookups of a varying number of ids
+     * render a handful of distinct statements that H2's statement cache can reuse, rather than one per list size
+     */
+    private DefaultConfiguration configuration(ConnectionProvider connectionProvider) {
         DefaultConfiguration jooqConfiguration = new DefaultConfiguration();
-        jooqConfiguration.set(connectionProvider());
+        jooqConfiguration.set(connectionProvider);
+        jooqConfiguration.set(new Settings().withInListPadding(true));
         jooqConfiguration
-                .set(new DefaultExecuteListenerProvider(new JOOQToSpringExceptionTransformer()));
+                .set(new DefaultExecuteListenerProvider(new JOOQToSpringExceptionTransformer()),
+                        new DefaultExecuteListenerProvider(
+                                new QueryMetricsListener(meterRegistry, Duration.ofMillis(slowQueryThresholdMs))));
 
         return jooqConfiguration;
     }
@@ -42,16 +186,42 @@ public class DatabaseContext {
 
     public static class JOOQToSpringExceptionTransformer extends DefaultExecuteListener {
 
+        /**
+         * Failing to acquire a connection (e.g. the pool timing out) doesn't set {@link ExecuteContext#sqlException()},
+         * the {@link SQLException} is the cause of the exception jOOQ raises instead
+         */
         @Override
         public void exception(ExecuteContext ctx) {
-            SQLDialect dialect = ctx.configuration().dialect();
+            SQLException sqlException = ctx.sqlException() != null ? ctx.sqlException() : sqlException(ctx.exception());
+            if (sqlException == null) {
+                return;
+            }
+            ctx.exception(translate(ctx.configuration().dialect(), ctx.sql(), sqlException));
+        }
+
+        /**
+         * The Spring exception for a failed statement - also used for statements run through JDBC directly, which the
+         * listener doesn't see
+         */
+        public static DataAccessException translate(SQLDialect dialect, String sql, SQLException sqlException) {
             SQLExceptionTranslator translator = (dialect != null)
                     ? new SQLErrorCodeSQLExceptionTranslator(dialect.name())
                     : new SQLStateSQLExceptionTranslator();
 
-            ctx.exception(translator.translate("jOOQ", ctx.sql(), ctx.sqlException()));
+            return translator.translate("jOOQ", sql, sqlException);
+        }
+
+        /**
+         * The first {@link SQLException} in the exception's causes, if any
+         */
+        public static SQLException sqlException(Throwable exception) {
+            for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+                if (cause instanceof SQLException) {
+                    return (SQLException) cause;
+                }
+            }
+            return null;
         }
     }
 
 }
-
@@ -0,0 +1,36 @@
+package uk.co.phoebus.config;
+
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Supplier;
+
+/**
+ * Builds its delegate on the first request
+ */
+class LazyHttpHandler implements HttpHandler {
+
+    private final Supplier<HttpHandler> factory;
+    private volatile HttpHandler delegate;
+
+    LazyHttpHandler(Supplier<HttpHandler> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Mono<Void> handle(ServerHttpRequest request, ServerHttpResponse response) {
+        HttpHandler handler = delegate;
+        if (handler == null) {
+            synchronized (this) {
+                if (delegate == null) {
+                    delegate = factory.get();
+                }
+                handler = delegate;
+            }
+        }
+        return handler.handle(request, response);
+    }
+
+}
@@ -0,0 +1,140 @@
+package uk.co.phoebus.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteType;
+import org.jooq.Query;
+import org.jooq.impl.DefaultExecuteListener;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Records the execution time and row count of every statement as Micrometer metrics, tagged with a normalised SQL
+ * fingerprint, and logs statements (with their bind values) that take longer than the slow query threshold.
+ * <p>
+ * One instance is shared by all executions, so per-execution state is kept in {@link ExecuteContext#data()}.
+ * <p>
+ * Most statements are run again and again with the same SQL, so fingerprints are remembered by SQL, for up to
+ * {@value #MAX_FINGERPRINTS} distinct statements.
+ */
+@Slf4j
+public class QueryMetricsListener extends DefaultExecuteListener {
+
+    public static final String QUERY_TIMER = "jooq.query";
+    public static final String QUERY_ROWS = "jooq.query.rows";
+
+    private static final String START_NANOS = QueryMetricsListener.class.getName() + ".startNanos";
+    private static final String ROWS_FETCHED = QueryMetricsListener.class.getName() + ".rowsFetched";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bin \\((?:\\?, )*\\?\\)");
+    private static final Pattern MULTI_ROW_VALUES = Pattern.compile("(\\((?:\\?, )*\\?\\))(?:, \\((?:\\?, )*\\?\\))+");
+
+    static final int MAX_FINGERPRINTS = 1000;
+
+    private final MeterRegistry meterRegistry;
+    private final Duration slowQueryThreshold;
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+
+    public QueryMetricsListener(MeterRegistry meterRegistry, Duration slowQueryThreshold) {
+        this.meterRegistry = meterRegistry;
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    @Override
+    public void executeStart(ExecuteContext ctx) {
+        ctx.data(START_NANOS, System.nanoTime());
+        ctx.data(ROWS_FETCHED, new long[1]);
+    }
+
+    @Override
+    public void recordEnd(ExecuteContext ctx) {
+        long[] rowsFetched = (long[]) ctx.data(ROWS_FETCHED);
+        if (rowsFetched != null) {
+            rowsFetched[0]++;
+        }
+    }
+
+    /**
+     * Called once the statement is finished with - for lazy fetches that's when the cursor is closed, so the time
+     * includes fetching
+     */
+    @Override
+    public void end(ExecuteContext ctx) {
+        Long startNanos = (Long) ctx.data(START_NANOS);
+        if (startNanos == null) {
+            return;
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long rows = ctx.type() == ExecuteType.READ ? ((long[]) ctx.data(ROWS_FETCHED))[0] : Math.max(ctx.rows(), 0);
+        record(sql(ctx), ctx.type(), elapsedNanos, rows, ctx.exception() != null, bindValues(ctx));
+    }
+
+    /**
+     * Records a statement's execution - called with those run through JDBC directly too, which listeners don't see
+     */
+    public void record(String sql, ExecuteType executeType, long elapsedNanos, long rows, boolean failed,
+                       List<Object> bindValues) {
+        String fingerprint = fingerprints.get(sql);
+        if (fingerprint == null) {
+            fingerprint = fingerprint(sql);
+            if (fingerprints.size() < MAX_FINGERPRINTS) {
+                fingerprints.put(sql, fingerprint);
+            }
+        }
+        String type = executeType.name().toLowerCase();
+
+        Timer.builder(QUERY_TIMER)
+                .tag("statement", fingerprint)
+                .tag("type", type)
+                .tag("outcome", failed ? "error" : "success")
+                .register(meterRegistry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder(QUERY_ROWS)
+                .tag("statement", fingerprint)
+                .tag("type", type)
+                .register(meterRegistry)
+                .record(rows);
+
+        if (elapsedNanos > slowQueryThreshold.toNanos()) {
+            log.warn("Slow query took {} ms, {} rows: {} with bind values {}",
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), rows, sql, bindValues);
+        }
+    }
+
+    /**
+     * Collapses whitespace, IN lists and multi-row VALUES lists so statements that only differ in the number of bind
+     * values share a fingerprint
+     */
+    static String fingerprint(String sql) {
+        String normalised = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+        normalised = MULTI_ROW_VALUES.matcher(normalised).replaceAll("$1, ...");
+        return IN_LIST.matcher(normalised).replaceAll("in (?, ...)");
+    }
+
+    private static String sql(ExecuteContext ctx) {
+        if (ctx.sql() != null) {
+            return ctx.sql();
+        }
+        String[] batchSql = ctx.batchSQL();
+        return batchSql.length > 0 && batchSql[0] != null ? batchSql[0] : "unknown";
+    }
+
+    /**
+     * Batches have a set of bind values per row, so those aren't logged
+     */
+    private static List<Object> bindValues(ExecuteContext ctx) {
+        Query query = ctx.query();
+        return query != null ? query.getBindValues() : Collections.emptyList();
+    }
+
+}
@@ -0,0 +1,78 @@
+package uk.co.phoebus.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ServletHttpHandlerAdapter;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import uk.co.phoebus.web.KycMediaTypes;
+
+import java.util.Arrays;
+
+/**
+ * Serves the WebFlux routes under {@code /reactive/*} from the same Tomcat as the servlet stack, through Servlet 3.1
+ * non-blocking I/O - a response only asks its publisher for more once the client has read what was already written,
+ * and no thread waits on a slow client in between.
+ * <p>
+ * Functional routes are used because annotated WebFlux controllers can't be enabled alongside Spring MVC.
+ */
+@Configuration
+public class ReactiveContext {
+
+    public static final String REACTIVE_PATH = "/reactive";
+
+    /**
+     * JDBC blocks, so reactive queries run here - one thread per pooled connection, so a burst of subscribers queues
+     * for a thread rather than for a connection
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler jdbcScheduler(@Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                                   @Value("${kyc.reactive.max-queued-queries:100000}") int maxQueuedQueries) {
+        return Schedulers.newBoundedElastic(poolSize, maxQueuedQueries, "kyc-jdbc");
+    }
+
+    /**
+     * The servlet is registered as Tomcat starts, before the routes' beans exist, so the handler is built on the first
+     * request
+     */
+    @Bean
+    public ServletRegistrationBean<ServletHttpHandlerAdapter> reactiveServlet(
+            ObjectProvider<RouterFunction<ServerResponse>> routerFunction, ObjectProvider<ObjectMapper> objectMapper) {
+        HttpHandler httpHandler = new LazyHttpHandler(() -> RouterFunctions.toHttpHandler(routerFunction.getObject(),
+                handlerStrategies(objectMapper.getObject())));
+        ServletRegistrationBean<ServletHttpHandlerAdapter> registration = new ServletRegistrationBean<>(
+                new ServletHttpHandlerAdapter(httpHandler), REACTIVE_PATH + "/*");
+        registration.setName("reactive");
+        registration.setAsyncSupported(true);
+        return registration;
+    }
+
+    /**
+     * Shares the servlet stack's ObjectMapper, and writes NDJSON a line per element as each is emitted
+     */
+    private static HandlerStrategies handlerStrategies(ObjectMapper objectMapper) {
+        MediaType[] mediaTypes = {MediaType.APPLICATION_JSON, MediaType.APPLICATION_STREAM_JSON,
+                KycMediaTypes.APPLICATION_NDJSON};
+        Jackson2JsonEncoder encoder = new Jackson2JsonEncoder(objectMapper, mediaTypes);
+        encoder.setStreamingMediaTypes(Arrays.asList(MediaType.APPLICATION_STREAM_JSON, KycMediaTypes.APPLICATION_NDJSON));
+        return HandlerStrategies.builder()
+                .codecs(configurer -> {
+                    configurer.defaultCodecs().jackson2JsonEncoder(encoder);
+                    configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper, mediaTypes));
+                })
+                .build();
+    }
+
+}
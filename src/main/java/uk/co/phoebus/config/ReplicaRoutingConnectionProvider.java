@@ -0,0 +1,208 @@
+package uk.co.phoebus.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.ConnectionProvider;
+import org.jooq.DSLContext;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DataSourceConnectionProvider;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.co.phoebus.db.ChangeEventRepository;
+import uk.co.phoebus.db.ReplicaReads;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.jooq.impl.DSL.coalesce;
+import static org.jooq.impl.DSL.max;
+import static org.jooq.impl.DSL.val;
+import static uk.co.phoebus.db.ChangeEventRepository.TABLE;
+
+/**
+ * Sends the reads marked by {@link ReplicaReads} to a read replica, round robin, and everything else - writes, and any
+ * read inside a transaction - to the primary.
+ * <p>
+ * Every {@code kyc.replicas.health-check-interval-ms} each replica is asked how far its change log has got. A replica
+ * is used while that succeeds and it is at most {@code kyc.replicas.max-lag-changes} changes behind the primary, and a
+ * read of a recently written id only goes to a replica that has replicated the id's change, so a client reads back
+ * what it has just written. If no replica qualifies, or getting a connection from the chosen one fails, the read goes
+ * to the primary.
+ * <p>
+ * Offsets are handed out before their transactions commit, so a replica with a later change may still be missing an
+ * earlier one. What a replica has replicated is therefore taken from the change log watermarks it has (see
+ * {@link ChangeEventRepository#watermark}), which are only written once every change up to them has committed; its
+ * latest offset is only used to measure its lag.
+ */
+@Slf4j
+public class ReplicaRoutingConnectionProvider implements ConnectionProvider {
+
+    private final DataSource primaryDataSource;
+    private final DataSourceConnectionProvider primary;
+    private final List<Replica> replicas;
+    private final ReplicaReads replicaReads;
+    private final long maxLagChanges;
+    private final long healthCheckIntervalMs;
+    private final long instanceExpiryMs;
+    private final AtomicInteger next = new AtomicInteger();
+    private ScheduledExecutorService healthChecks;
+
+    public ReplicaRoutingConnectionProvider(DataSource primaryDataSource, List<Replica> replicas,
+                                            ReplicaReads replicaReads, MeterRegistry meterRegistry,
+                                            long maxLagChanges, long healthCheckIntervalMs, long instanceExpiryMs) {
+        this.primaryDataSource = primaryDataSource;
+        this.primary = new DataSourceConnectionProvider(primaryDataSource);
+        this.replicas = replicas;
+        this.replicaReads = replicaReads;
+        this.maxLagChanges = maxLagChanges;
+        this.healthCheckIntervalMs = healthCheckIntervalMs;
+        this.instanceExpiryMs = instanceExpiryMs;
+        replicaReads.setTracking(!replicas.isEmpty());
+        for (Replica replica : replicas) {
+            Gauge.builder("kyc.replicas.lag", replica, r -> r.lag).tag("replica", replica.name).register(meterRegistry);
+            Gauge.builder("kyc.replicas.healthy", replica, r -> r.healthy ? 1 : 0).tag("replica", replica.name)
+                    .register(meterRegistry);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (replicas.isEmpty()) {
+            return;
+        }
+        healthChecks = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the first check waits an interval, for the schema to have been migrated
+        healthChecks.scheduleWithFixedDelay(this::checkReplicas, healthCheckIntervalMs, healthCheckIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (healthChecks != null) {
+            healthChecks.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) replica.dataSource).close();
+                } catch (Exception e) {
+                    log.warn("Could not close replica {}", replica.name, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Connection acquire() {
+        Long requiredOffset = replicaReads.requiredOffset();
+        if (requiredOffset != null && !replicas.isEmpty()
+                && !TransactionSynchronizationManager.isActualTransactionActive()) {
+            int first = next.getAndIncrement();
+            for (int i = 0; i < replicas.size(); i++) {
+                Replica replica = replicas.get(Math.floorMod(first + i, replicas.size()));
+                if (replica.canServe(requiredOffset, maxLagChanges)) {
+                    try {
+                        return replica.dataSource.getConnection();
+                    } catch (SQLException e) {
+                        replica.failed(e);
+                    }
+                }
+            }
+        }
+        return primary.acquire();
+    }
+
+    /**
+     * Replica and primary connections alike are returned to their pools by closing them
+     */
+    @Override
+    public void release(Connection connection) {
+        primary.release(connection);
+    }
+
+    /**
+     * Reads each replica's change log position and lag behind the primary, then forgets the written ids every replica
+     * has caught up with - one that couldn't be checked counted at its position at its last check, as it may come back
+     * with no more than that
+     */
+    public void checkReplicas() {
+        long primaryOffset;
+        try (Connection connection = primaryDataSource.getConnection()) {
+            primaryOffset = latestOffset(DSL.using(connection));
+        } catch (SQLException | DataAccessException e) {
+            log.warn("Could not read the primary's change log position: {}", e.getMessage());
+            return;
+        }
+        long replicatedUpTo = Long.MAX_VALUE;
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection()) {
+                DSLContext dsl = DSL.using(connection);
+                replica.checked(ChangeEventRepository.watermark(dsl, instanceExpiryMs), latestOffset(dsl), primaryOffset);
+            } catch (SQLException | DataAccessException e) {
+                replica.failed(e);
+            }
+            replicatedUpTo = Math.min(replicatedUpTo, replica.offset);
+        }
+        if (replicatedUpTo != Long.MAX_VALUE) {
+            replicaReads.replicatedUpTo(replicatedUpTo);
+        }
+    }
+
+    private static long latestOffset(DSLContext dsl) {
+        return dsl.select(coalesce(max(TABLE.EVENT_ID), val(0L)))
+                .from(TABLE)
+                .fetchOne()
+                .value1();
+    }
+
+    public static class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean healthy;
+        // the offset the replica had every change up to, and how many changes its latest was behind the primary's, at
+        // the last successful check (nothing, until there has been one)
+        private volatile long offset = -1;
+        private volatile long lag;
+
+        public Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        boolean canServe(long requiredOffset, long maxLagChanges) {
+            return healthy && lag <= maxLagChanges && offset >= requiredOffset;
+        }
+
+        void checked(long offset, long latestOffset, long primaryOffset) {
+            this.offset = offset;
+            this.lag = Math.max(0, primaryOffset - latestOffset);
+            if (!healthy) {
+                log.info("Replica {} is available, {} changes behind the primary", name, lag);
+            }
+            healthy = true;
+        }
+
+        void failed(Exception e) {
+            if (healthy) {
+                log.warn("Replica {} is unavailable, reading from the primary: {}", name, e.getMessage());
+            }
+            healthy = false;
+        }
+
+    }
+
+}
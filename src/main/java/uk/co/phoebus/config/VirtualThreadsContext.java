@@ -0,0 +1,94 @@
+package uk.co.phoebus.config;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.sql.DataSource;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Opt-in ({@code kyc.virtual-threads.enabled=true}, Java 21+) mode that runs every request, and the async dispatches
+ * used for streamed responses, on its own virtual thread. A request blocked on JDBC then costs a small heap-allocated
+ * stack rather than one of Tomcat's fixed pool of platform threads, so in-flight requests are bounded by
+ * {@code server.tomcat.max-connections} instead of {@code server.tomcat.max-threads}.
+ * <p>
+ * With no thread limit left in front of the database, the {@link DataSource} is wrapped in a {@link BoundedDataSource}
+ * allowing at most {@code kyc.virtual-threads.max-concurrent-db-access} (default: the pool size) connections out. The
+ * shard and replica pools {@link DatabaseContext} creates are bounded the same way, each to its own pool size.
+ * <p>
+ * The build still targets Java 11, so virtual threads are created reflectively.
+ */
+@Configuration
+@ConditionalOnProperty("kyc.virtual-threads.enabled")
+@Slf4j
+public class VirtualThreadsContext {
+
+    @Bean
+    public ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("kyc.virtual-threads.enabled requires Java 21+, running on "
+                    + Runtime.version(), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create virtual thread executor", e);
+        }
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer(ExecutorService virtualThreadExecutor) {
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+    }
+
+    @Bean
+    public WebMvcConfigurer virtualThreadAsyncSupport(ExecutorService virtualThreadExecutor) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                configurer.setTaskExecutor(new TaskExecutorAdapter(virtualThreadExecutor));
+            }
+        };
+    }
+
+    /**
+     * Static so the post processor is registered before the data source it wraps is created
+     */
+    @Bean
+    public static BeanPostProcessor boundedDataSourcePostProcessor(Environment environment) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof DataSource) || bean instanceof BoundedDataSource) {
+                    return bean;
+                }
+                int poolSize = environment.getProperty("spring.datasource.hikari.maximum-pool-size", Integer.class, 10);
+                int maxConcurrent = environment.getProperty("kyc.virtual-threads.max-concurrent-db-access",
+                        Integer.class, poolSize);
+                long acquireTimeoutMillis = environment.getProperty("spring.datasource.hikari.connection-timeout",
+                        Long.class, 30000L);
+                log.info("Bounding concurrent database access to {} connections", maxConcurrent);
+                return new BoundedDataSource((DataSource) bean, maxConcurrent, acquireTimeoutMillis);
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder boundedDataSourceMetrics(DataSource dataSource) {
+        return registry -> {
+            if (dataSource instanceof BoundedDataSource) {
+                ((BoundedDataSource) dataSource).registerMetrics(registry, "primary");
+            }
+        };
+    }
+
+}
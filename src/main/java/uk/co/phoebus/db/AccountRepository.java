@@ -2,16 +2,30 @@ package uk.co.phoebus.db;
 
 import nu.studer.sample.public_.tables.CustomerAccount;
 import nu.studer.sample.public_.tables.records.AccountRecord;
+import org.jooq.Condition;
 import org.jooq.DSLContext;
+import org.jooq.Record;
 import org.jooq.RecordMapper;
+import org.jooq.Select;
+import org.jooq.SelectConditionStep;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Repository;
 import uk.co.phoebus.model.Account;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.jooq.impl.DSL.condition;
+import static org.jooq.impl.DSL.noCondition;
+import static org.jooq.impl.DSL.param;
+import static org.jooq.impl.DSL.select;
+import static org.jooq.impl.DSL.selectFrom;
+import static org.jooq.impl.DSL.val;
 import static org.springframework.util.CollectionUtils.isEmpty;
 
 @Repository
@@ -20,54 +34,179 @@ public class AccountRepository {
     public static final nu.studer.sample.public_.tables.Account TABLE = nu.studer.sample.public_.tables.Account.ACCOUNT;
     public static final nu.studer.sample.public_.tables.CustomerAccount JOIN_TABLE = CustomerAccount.CUSTOMER_ACCOUNT;
 
+    // the findByExample shapes, a bit for each criterion given
+    private static final int BY_ACCOUNT_ID = 1;
+    private static final int BY_ACCOUNT_NUMBER = 2;
+    private static final int AFTER_ACCOUNT_ID = 4;
+
+    @Autowired
+    private Shards shards;
+
     @Autowired
-    private DSLContext dsl;
+    private ChangeEventRepository changeEventRepository;
+
+    @Autowired
+    private ReplicaReads replicaReads;
+
+    private final RenderedQueries<AccountRecord> byId = new RenderedQueries<>(TABLE, 1, shape -> selectFrom(TABLE)
+            .where(TABLE.ACCOUNT_ID.eq(param("accountId", TABLE.ACCOUNT_ID))));
+
+    private final RenderedQueries<AccountRecord> byExample = new RenderedQueries<>(TABLE, 8, shape -> select(TABLE.fields())
+            .from(TABLE)
+            .where((shape & BY_ACCOUNT_ID) == 0 ? noCondition() : TABLE.ACCOUNT_ID.eq(param("accountId", TABLE.ACCOUNT_ID)))
+            .and((shape & BY_ACCOUNT_NUMBER) == 0 ? noCondition()
+                    : TABLE.ACCOUNT_NUMBER.eq(param("accountNumber", TABLE.ACCOUNT_NUMBER)))
+            .and((shape & AFTER_ACCOUNT_ID) == 0 ? noCondition()
+                    : TABLE.ACCOUNT_ID.gt(param("afterAccountId", TABLE.ACCOUNT_ID)))
+            .orderBy(TABLE.ACCOUNT_ID)
+            .limit(param("limit", Integer.class)));
 
+    /**
+     * Inserts the account and its change event, committed together.
+     * <p>
+     * Account numbers are unique, but when sharded IDX_ACCOUNT_ACCOUNT_NUMBER only enforces that within the account's
+     * shard, so every shard is checked for the number first. Two accounts with the same number created at the same time
+     * on different shards can still both be saved.
+     *
+     * @throws DataIntegrityViolationException if the account number is already taken
+     */
     public Account save(Account account) {
-        dsl.insertInto(TABLE)
-                .set(TABLE.ACCOUNT_ID, account.getAccountId())
-                .set(TABLE.ACCOUNT_NUMBER, account.getAccountNumber())
-                .execute();
-        return account;
+        if (shards.isSharded() && shards.scatter(dsl -> dsl.fetchExists(TABLE,
+                TABLE.ACCOUNT_NUMBER.eq(account.getAccountNumber()))).contains(true)) {
+            throw new DataIntegrityViolationException("Account number " + account.getAccountNumber() + " already exists");
+        }
+        return shards.inTransaction(account.getAccountId(), dsl -> {
+            dsl.insertInto(TABLE)
+                    .set(TABLE.ACCOUNT_ID, account.getAccountId())
+                    .set(TABLE.ACCOUNT_NUMBER, account.getAccountNumber())
+                    .execute();
+            changeEventRepository.accountCreated(account);
+            return account;
+        });
     }
 
+    /**
+     * Served by a read replica, if there is one that has the account's latest write. The query is only rendered once
+     * (see {@link RenderedQueries}).
+     */
     public Optional<Account> findById(String accountId) {
-        List<Account> map = dsl.selectFrom(TABLE)
-                .where(TABLE.ACCOUNT_ID.eq(accountId))
-                .fetch()
+        List<Account> map = replicaReads.readOf(accountId, () -> byId.fetch(shards.dsl(accountId), 0,
+                val(accountId, TABLE.ACCOUNT_ID)))
                 .map(fromDb());
         return map.stream().findFirst();
     }
 
-    public List<Account> findByExample(Account searchModel) {
+    /**
+     * The accounts with the given ids, fetched with a single query per shard, in no particular order
+     */
+    public List<Account> findByIds(Collection<String> accountIds) {
+        List<Account> accounts = new ArrayList<>(accountIds.size());
+        shards.scatter(accountIds, (dsl, ids) -> dsl.selectFrom(TABLE)
+                .where(TABLE.ACCOUNT_ID.in(ids))
+                .fetch()
+                .map(fromDb()))
+                .forEach(accounts::addAll);
+        return accounts;
+    }
+
+    /**
+     * A page of accounts matching the example, in ACCOUNT_ID order, starting after the given id (if any) - when
+     * sharded, the first {@code limit} of every shard's page. Served by a read replica if there is one within the
+     * allowed lag, so recent writes may not be found yet.
+     * <p>
+     * Without {@code customerIds} the query is one of a few fixed shapes, each only rendered once (see
+     * {@link RenderedQueries}).
+     */
+    public List<Account> findByExample(Account searchModel, String afterAccountId, int limit) {
         if (isEmpty(searchModel.getCustomerIds())) {
+            return findByExampleShape(searchModel, afterAccountId, limit);
+        }
+        Condition linked = linkedToCustomers(searchModel.getCustomerIds());
+        return Shards.mergeById(shards.scatter(dsl -> replicaReads.read(() -> selectPageByExample(dsl, searchModel,
+                linked, afterAccountId, limit).fetch())
+                .map(a -> fromDb().map(a.into(TABLE)))), Account::getAccountId, limit);
+    }
+
+    private List<Account> findByExampleShape(Account searchModel, String afterAccountId, int limit) {
+        int shape = 0;
+        List<Object> bindValues = new ArrayList<>(4);
+        if (searchModel.getAccountId() != null) {
+            shape |= BY_ACCOUNT_ID;
+            bindValues.add(val(searchModel.getAccountId(), TABLE.ACCOUNT_ID));
+        }
+        if (searchModel.getAccountNumber() != null) {
+            shape |= BY_ACCOUNT_NUMBER;
+            bindValues.add(searchModel.getAccountNumber());
+        }
+        if (afterAccountId != null) {
+            shape |= AFTER_ACCOUNT_ID;
+            bindValues.add(val(afterAccountId, TABLE.ACCOUNT_ID));
+        }
+        bindValues.add(limit);
+        int shapeOfExample = shape;
+        Object[] binds = bindValues.toArray();
+        return Shards.mergeById(shards.scatter(dsl -> replicaReads.read(() -> byExample.fetch(dsl, shapeOfExample, binds))
+                .map(fromDb())), Account::getAccountId, limit);
+    }
+
+    /**
+     * Shard 0's page, the only one there is unless sharded
+     */
+    Select<Record> selectPageByExample(Account searchModel, String afterAccountId, int limit) {
+        return selectPageByExample(shards.dsl(0), searchModel, noCondition(), afterAccountId, limit);
+    }
+
+    private Select<Record> selectPageByExample(DSLContext dsl, Account searchModel, Condition linked,
+                                              String afterAccountId, int limit) {
+        return selectByExample(dsl, searchModel, linked)
+                .and(afterAccountId == null ? noCondition() : TABLE.ACCOUNT_ID.gt(afterAccountId))
+                .orderBy(TABLE.ACCOUNT_ID)
+                .limit(limit);
+    }
+
+    /**
+     * Links are placed with their customer rather than their account, so when sharded the accounts linked to the
+     * customers are looked up on the customers' shards first, rather than joined
+     */
+    private Condition linkedToCustomers(Collection<String> customerIds) {
+        if (isEmpty(customerIds) || !shards.isSharded()) {
+            return noCondition();
+        }
+        Set<String> accountIds = new HashSet<>();
+        shards.scatter(customerIds, (dsl, ids) -> dsl.select(JOIN_TABLE.ACCOUNT_ID)
+                .from(JOIN_TABLE)
+                .where(JOIN_TABLE.CUSTOMER_ID.in(ids))
+                .fetch(JOIN_TABLE.ACCOUNT_ID))
+                .forEach(accountIds::addAll);
+        return TABLE.ACCOUNT_ID.in(accountIds);
+    }
+
+    private SelectConditionStep<Record> selectByExample(DSLContext dsl, Account searchModel, Condition linked) {
+        if (isEmpty(searchModel.getCustomerIds()) || shards.isSharded()) {
             return dsl
-                    .select()
+                    .select(TABLE.fields())
                     .from(TABLE)
                     .where(condition(toDb(searchModel)))
-                    .fetch()
-                    .map(a -> fromDb().map(a.into(TABLE)));
+                    .and(linked);
         }
         return dsl
-                .select()
+                .selectDistinct(TABLE.fields())
                 .from(TABLE.join(JOIN_TABLE).on(TABLE.ACCOUNT_ID.eq(JOIN_TABLE.ACCOUNT_ID)))
                 .where(JOIN_TABLE.CUSTOMER_ID.in(searchModel.getCustomerIds()))
-                .and(condition(toDb(searchModel)))
-                .fetch()
-                .map(a -> fromDb().map(a.into(TABLE)));
+                .and(condition(toDb(searchModel)));
     }
 
     public void deleteAll() {
-        dsl.deleteFrom(TABLE).execute();
+        shards.scatter(dsl -> dsl.deleteFrom(TABLE).execute());
     }
 
-    private RecordMapper<AccountRecord, Account> fromDb() {
+    RecordMapper<AccountRecord, Account> fromDb() {
         return a -> Account.builder()
                 .accountId(a.getAccountId())
                 .accountNumber(a.getAccountNumber()).build();
     }
 
-    private AccountRecord toDb(Account account) {
+    AccountRecord toDb(Account account) {
         AccountRecord a = new AccountRecord();
         a.setAccountId(account.getAccountId());
         a.setAccountNumber(account.getAccountNumber());
@@ -0,0 +1,431 @@
+package uk.co.phoebus.db;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import nu.studer.sample.public_.tables.ChangeEventWatermark;
+import nu.studer.sample.public_.tables.records.ChangeEventRecord;
+import nu.studer.sample.public_.tables.records.ChangeEventWatermarkRecord;
+import org.jooq.DSLContext;
+import org.jooq.RecordMapper;
+import org.jooq.Result;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.co.phoebus.event.ChangeLogAdvancedEvent;
+import uk.co.phoebus.exception.KycRepositoryException;
+import uk.co.phoebus.model.Account;
+import uk.co.phoebus.model.ChangeEvent;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerAccountLink;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static nu.studer.sample.public_.Sequences.CHANGE_EVENT_SEQ;
+import static org.jooq.impl.DSL.coalesce;
+import static org.jooq.impl.DSL.currentOffsetDateTime;
+import static org.jooq.impl.DSL.generateSeries;
+import static org.jooq.impl.DSL.max;
+import static org.jooq.impl.DSL.val;
+
+/**
+ * The change log (transactional outbox) - one row per customer, account or link written, appended in the writing
+ * transaction so it holds exactly the committed writes.
+ * <p>
+ * Offsets come from a sequence, so a transaction can commit after one that was given a later offset. Readers are only
+ * shown offsets below the lowest one still in flight, so a consumer that has read up to an offset never misses an
+ * earlier one committing afterwards. Each instance tracks its own in-flight offsets in memory, and every
+ * {@code kyc.changes.watermark-interval-ms} records its watermark - the offset everything it has handed out up to has
+ * completed - in CHANGE_EVENT_WATERMARK (on shard 0), moving it on past other instances' changes when idle. Changes are
+ * read up to the lowest of this instance's watermark and the other live instances' recorded ones, so changes written
+ * through other instances are read (and wake long-polls and streams) within a couple of intervals. An instance that
+ * hasn't recorded its watermark for {@code kyc.changes.instance-expiry-ms} is taken to have stopped.
+ * <p>
+ * When sharded each change is written to the shard of the write it records (a link's to its customer's), in the same
+ * transaction, while offsets all come from shard 0's sequence so they are ordered across shards. Reads merge every
+ * shard's changes.
+ */
+@Repository
+@Slf4j
+public class ChangeEventRepository {
+
+    public static final nu.studer.sample.public_.tables.ChangeEvent TABLE = nu.studer.sample.public_.tables.ChangeEvent.CHANGE_EVENT;
+    public static final ChangeEventWatermark WATERMARK_TABLE = ChangeEventWatermark.CHANGE_EVENT_WATERMARK;
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private ReplicaReads replicaReads;
+
+    @Value("${kyc.changes.watermark-interval-ms:1000}")
+    private long watermarkIntervalMs;
+
+    @Value("${kyc.changes.instance-expiry-ms:30000}")
+    private long instanceExpiryMs;
+
+    private final String instanceId = UUID.randomUUID().toString();
+    // offsets handed out to transactions that haven't completed yet, the highest handed out (or seen committed), and
+    // for each allocation still fetching its offsets the highest handed out when it started - guarded by this
+    private final NavigableSet<Long> inFlight = new TreeSet<>();
+    private final PriorityQueue<Long> allocating = new PriorityQueue<>();
+    private long lastAllocated = -1;
+    // the lowest watermark of the other live instances at the last heartbeat, and the last readableUpTo published
+    private long othersReadableUpTo = Long.MAX_VALUE;
+    private long advancedTo = -1;
+    private volatile boolean initialised;
+    private ScheduledExecutorService heartbeats;
+
+    /**
+     * Records this instance's watermark before serving any requests, so no other instance reads past offsets it hands
+     * out, then keeps it up to date
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void start() {
+        if (heartbeats != null) {
+            return;
+        }
+        heartbeat();
+        heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "change-log-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats.scheduleWithFixedDelay(() -> {
+            try {
+                heartbeat();
+            } catch (RuntimeException e) {
+                log.warn("Could not record the change log watermark: {}", e.getMessage());
+            }
+        }, watermarkIntervalMs, watermarkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (heartbeats == null) {
+            return;
+        }
+        heartbeats.shutdownNow();
+        try {
+            shards.dsl(0).deleteFrom(WATERMARK_TABLE).where(WATERMARK_TABLE.INSTANCE_ID.eq(instanceId)).execute();
+        } catch (RuntimeException e) {
+            log.warn("Could not remove the change log watermark: {}", e.getMessage());
+        }
+    }
+
+    public void customersCreated(List<Customer> customers) {
+        List<ChangeEventRecord> records = new ArrayList<>(customers.size());
+        customers.forEach(customer -> records.add(record(ChangeEvent.Type.CUSTOMER_CREATED, customer.getCustomerId(),
+                null, customer)));
+        append(records);
+    }
+
+    public void accountCreated(Account account) {
+        append(Collections.singletonList(record(ChangeEvent.Type.ACCOUNT_CREATED, null, account.getAccountId(),
+                account)));
+    }
+
+    public void linksCreated(List<CustomerAccountLink> links) {
+        List<ChangeEventRecord> records = new ArrayList<>(links.size());
+        links.forEach(link -> records.add(record(ChangeEvent.Type.LINK_CREATED, link.getCustomerId(),
+                link.getAccountId(), link)));
+        append(records);
+    }
+
+    /**
+     * Up to {@code limit} changes after the given offset, in offset order
+     */
+    public List<ChangeEvent> findAfter(long afterOffset, int limit) {
+        long readableUpTo = readableUpTo();
+        if (readableUpTo <= afterOffset) {
+            return Collections.emptyList();
+        }
+        List<ChangeEvent> changes = new ArrayList<>();
+        shards.scatter(dsl -> dsl.selectFrom(TABLE)
+                .where(TABLE.EVENT_ID.gt(afterOffset))
+                .and(TABLE.EVENT_ID.le(readableUpTo))
+                .orderBy(TABLE.EVENT_ID)
+                .limit(limit)
+                .fetch()
+                .map(fromDb()))
+                .forEach(changes::addAll);
+        if (!shards.isSharded()) {
+            return changes;
+        }
+        changes.sort(Comparator.comparingLong(ChangeEvent::getOffset));
+        return changes.size() > limit ? new ArrayList<>(changes.subList(0, limit)) : changes;
+    }
+
+    /**
+     * Every offset up to this one has been committed (or rolled back, leaving a gap)
+     */
+    public long readableUpTo() {
+        initialise();
+        synchronized (this) {
+            return Math.min(ownReadableUpToLocked(), othersReadableUpTo);
+        }
+    }
+
+    /**
+     * Moves this instance's watermark on past the changes committed since (it can only hand out later offsets), records
+     * it, and reads the other live instances' - publishing a {@link ChangeLogAdvancedEvent} if more changes are now
+     * readable. Expired instances' watermarks are removed.
+     */
+    public void heartbeat() {
+        initialise();
+        advanceTo(latestOffset());
+        long ownReadableUpTo;
+        synchronized (this) {
+            ownReadableUpTo = ownReadableUpToLocked();
+        }
+        DSLContext dsl = shards.dsl(0);
+        // only the heartbeat thread writes this instance's row, so it can't be inserted in between
+        int updated = dsl.update(WATERMARK_TABLE)
+                .set(WATERMARK_TABLE.READABLE_UP_TO, ownReadableUpTo)
+                .set(WATERMARK_TABLE.UPDATED_AT, currentOffsetDateTime())
+                .where(WATERMARK_TABLE.INSTANCE_ID.eq(instanceId))
+                .execute();
+        if (updated == 0) {
+            dsl.insertInto(WATERMARK_TABLE)
+                    .set(WATERMARK_TABLE.INSTANCE_ID, instanceId)
+                    .set(WATERMARK_TABLE.READABLE_UP_TO, ownReadableUpTo)
+                    .set(WATERMARK_TABLE.UPDATED_AT, currentOffsetDateTime())
+                    .execute();
+        }
+        Result<ChangeEventWatermarkRecord> watermarks = dsl.selectFrom(WATERMARK_TABLE).fetch();
+        OffsetDateTime expiredBefore = expiredBefore(watermarks, instanceExpiryMs);
+        dsl.deleteFrom(WATERMARK_TABLE).where(WATERMARK_TABLE.UPDATED_AT.lt(expiredBefore)).execute();
+
+        long readableUpTo;
+        synchronized (this) {
+            othersReadableUpTo = lowest(watermarks, instanceId, expiredBefore);
+            readableUpTo = Math.min(ownReadableUpToLocked(), othersReadableUpTo);
+            if (readableUpTo <= advancedTo) {
+                return;
+            }
+            advancedTo = readableUpTo;
+        }
+        eventPublisher.publishEvent(new ChangeLogAdvancedEvent(readableUpTo));
+    }
+
+    /**
+     * The lowest watermark recorded by the live instances, or -1 if none has recorded one. Every offset up to it has
+     * completed, and the watermarks are written after the changes they cover, so a replica that has the watermarks has
+     * every change up to it too - however out of order the changes committed.
+     */
+    public static long watermark(DSLContext dsl, long instanceExpiryMs) {
+        Result<ChangeEventWatermarkRecord> watermarks = dsl.selectFrom(WATERMARK_TABLE).fetch();
+        long lowest = lowest(watermarks, null, expiredBefore(watermarks, instanceExpiryMs));
+        return lowest == Long.MAX_VALUE ? -1 : lowest;
+    }
+
+    /**
+     * Instances are timed from the latest watermark recorded, so by the database's clock rather than any instance's
+     */
+    private static OffsetDateTime expiredBefore(Result<ChangeEventWatermarkRecord> watermarks, long instanceExpiryMs) {
+        return watermarks.stream()
+                .map(ChangeEventWatermarkRecord::getUpdatedAt)
+                .max(Comparator.naturalOrder())
+                .map(latest -> latest.minus(Duration.ofMillis(instanceExpiryMs)))
+                .orElse(OffsetDateTime.MIN);
+    }
+
+    private static long lowest(Result<ChangeEventWatermarkRecord> watermarks, String excludingInstanceId,
+                               OffsetDateTime expiredBefore) {
+        long lowest = Long.MAX_VALUE;
+        for (ChangeEventWatermarkRecord watermark : watermarks) {
+            if (!watermark.getInstanceId().equals(excludingInstanceId)
+                    && !watermark.getUpdatedAt().isBefore(expiredBefore)) {
+                lowest = Math.min(lowest, watermark.getReadableUpTo());
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * Outside a transaction the rows are visible as soon as they're inserted, so the offsets are released straight
+     * away. The records are all for writes on the same shard, the one the transaction (if any) is on.
+     */
+    private void append(List<ChangeEventRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<Long> offsets = allocate(records.size());
+        OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+        for (int i = 0; i < records.size(); i++) {
+            ChangeEventRecord record = records.get(i);
+            record.setEventId(offsets.get(i));
+            record.setCreatedAt(now);
+            replicaReads.written(record.getCustomerId(), record.getEventId());
+            replicaReads.written(record.getAccountId(), record.getEventId());
+        }
+        ChangeEventRecord first = records.get(0);
+        DSLContext dsl = shards.dsl(first.getCustomerId() != null ? first.getCustomerId() : first.getAccountId());
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new Release(offsets));
+            dsl.batchInsert(records).execute();
+        } else {
+            try {
+                dsl.batchInsert(records).execute();
+            } finally {
+                release(offsets);
+            }
+        }
+    }
+
+    /**
+     * The offsets are fetched from the sequence without holding the lock, so writes don't queue behind each other's
+     * round trip to shard 0 (or, when sharded, hold the lock while waiting for a shard 0 connection). Until they are
+     * known nothing after the highest offset already handed out is readable, as they may be below a later allocation's.
+     */
+    private List<Long> allocate(int count) {
+        initialise();
+        long floor;
+        synchronized (this) {
+            floor = lastAllocated;
+            allocating.add(floor);
+        }
+        List<Long> offsets = null;
+        try {
+            offsets = shards.dsl(0).select(CHANGE_EVENT_SEQ.nextval())
+                    .from(generateSeries(1, count))
+                    .fetch(0, Long.class);
+            Collections.sort(offsets);
+            return offsets;
+        } finally {
+            synchronized (this) {
+                allocating.remove(floor);
+                if (offsets != null) {
+                    inFlight.addAll(offsets);
+                    lastAllocated = Math.max(lastAllocated, offsets.get(offsets.size() - 1));
+                }
+            }
+        }
+    }
+
+    private long ownReadableUpToLocked() {
+        long readableUpTo = inFlight.isEmpty() ? lastAllocated : inFlight.first() - 1;
+        return allocating.isEmpty() ? readableUpTo : Math.min(readableUpTo, allocating.peek());
+    }
+
+    /**
+     * Nothing is in flight before this instance has appended anything, so everything already in the table is readable
+     */
+    private void initialise() {
+        if (!initialised) {
+            advanceTo(latestOffset());
+            initialised = true;
+        }
+    }
+
+    /**
+     * Every offset handed out from now on is after the given one
+     */
+    private synchronized void advanceTo(long offset) {
+        lastAllocated = Math.max(lastAllocated, offset);
+    }
+
+    private long latestOffset() {
+        return shards.scatter(dsl -> dsl.select(coalesce(max(TABLE.EVENT_ID), val(0L)))
+                .from(TABLE)
+                .fetchOne()
+                .value1())
+                .stream()
+                .mapToLong(Long::longValue)
+                .max()
+                .orElse(0L);
+    }
+
+    private void release(List<Long> offsets) {
+        long readableUpTo;
+        synchronized (this) {
+            inFlight.removeAll(offsets);
+            readableUpTo = Math.min(ownReadableUpToLocked(), othersReadableUpTo);
+            advancedTo = Math.max(advancedTo, readableUpTo);
+        }
+        eventPublisher.publishEvent(new ChangeLogAdvancedEvent(readableUpTo));
+    }
+
+    private ChangeEventRecord record(ChangeEvent.Type type, String customerId, String accountId, Object data) {
+        ChangeEventRecord record = new ChangeEventRecord();
+        record.setEventType(type.name());
+        record.setCustomerId(customerId);
+        record.setAccountId(accountId);
+        try {
+            record.setPayload(objectMapper.writeValueAsString(data));
+        } catch (JsonProcessingException e) {
+            throw new KycRepositoryException("Could not serialise " + type + " change");
+        }
+        return record;
+    }
+
+    RecordMapper<ChangeEventRecord, ChangeEvent> fromDb() {
+        return e -> {
+            try {
+                return ChangeEvent.builder()
+                        .offset(e.getEventId())
+                        .type(ChangeEvent.Type.valueOf(e.getEventType()))
+                        .customerId(e.getCustomerId())
+                        .accountId(e.getAccountId())
+                        .createdAt(e.getCreatedAt())
+                        .data(objectMapper.readTree(e.getPayload()))
+                        .build();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        };
+    }
+
+    /**
+     * Runs before any other completion callbacks (such as transactional event listeners), so changes are readable by
+     * the time anything reacts to the commit
+     */
+    private class Release extends TransactionSynchronizationAdapter {
+
+        private final List<Long> offsets;
+
+        Release(List<Long> offsets) {
+            this.offsets = offsets;
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            release(offsets);
+        }
+
+    }
+
+}
@@ -1,58 +1,278 @@
 package uk.co.phoebus.db;
 
+import lombok.extern.slf4j.Slf4j;
 import nu.studer.sample.public_.tables.Account;
 import nu.studer.sample.public_.tables.Customer;
 import nu.studer.sample.public_.tables.records.CustomerAccountRecord;
-import org.jooq.DSLContext;
+import org.jooq.InsertValuesStep2;
+import org.jooq.Param;
 import org.jooq.RecordMapper;
+import org.jooq.Row2;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Repository;
+import uk.co.phoebus.event.CustomerAccountLinkCreatedEvent;
+import uk.co.phoebus.event.CustomerAccountLinksDeletedEvent;
 import uk.co.phoebus.exception.KycRepositoryException;
+import uk.co.phoebus.model.BatchError;
 import uk.co.phoebus.model.CustomerAccountLink;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.jooq.impl.DSL.*;
 
 @Repository
+@Slf4j
 public class CustomerAccountLinkRepository {
 
     public static final nu.studer.sample.public_.tables.CustomerAccount TABLE = nu.studer.sample.public_.tables.CustomerAccount.CUSTOMER_ACCOUNT;
     public static final Customer CUSTOMER = Customer.CUSTOMER;
     public static final Account ACCOUNT = Account.ACCOUNT;
 
+    public static final String CUSTOMER_DOES_NOT_EXIST = "customerId does not exist";
+    public static final String ACCOUNT_DOES_NOT_EXIST = "accountId does not exist";
+    public static final String LINK_ALREADY_EXISTS = "link already exists";
+    public static final String LINK_NOT_SAVED = "link could not be saved";
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired(required = false)
+    private LinkIndex linkIndex;
+
+    @Autowired
+    private ChangeEventRepository changeEventRepository;
+
     @Autowired
-    private DSLContext dsl;
+    private ReplicaReads replicaReads;
 
+    private final RenderedQueries<CustomerAccountRecord> byCustomerId = new RenderedQueries<>(TABLE, 1,
+            shape -> selectFrom(TABLE).where(TABLE.CUSTOMER_ID.eq(param("customerId", TABLE.CUSTOMER_ID))));
+
+    private final RenderedQueries<CustomerAccountRecord> byAccountId = new RenderedQueries<>(TABLE, 1,
+            shape -> selectFrom(TABLE).where(TABLE.ACCOUNT_ID.eq(param("accountId", TABLE.ACCOUNT_ID))));
+
+    /**
+     * Inserts the link, if both sides exist, and its change event, committed together on the customer's shard. When
+     * the account is on another shard it is checked for there first.
+     */
     public CustomerAccountLink save(CustomerAccountLink customerAccount) {
-        int numInserted = dsl.insertInto(TABLE)
-                .columns(TABLE.CUSTOMER_ID, TABLE.ACCOUNT_ID)
-                .select(select(val(customerAccount.getCustomerId()), val(customerAccount.getAccountId()))
-                        .whereExists(selectOne().from(CUSTOMER).where(CUSTOMER.CUSTOMER_ID.eq(customerAccount.getCustomerId())))
-                        .and(exists(selectOne().from(ACCOUNT).where(ACCOUNT.ACCOUNT_ID.eq(customerAccount.getAccountId())))))
-                .execute();
-        if (numInserted != 1) {
+        boolean accountOnCustomersShard = shards.shardOf(customerAccount.getAccountId())
+                == shards.shardOf(customerAccount.getCustomerId());
+        if (!accountOnCustomersShard && !shards.dsl(customerAccount.getAccountId())
+                .fetchExists(ACCOUNT, ACCOUNT.ACCOUNT_ID.eq(customerAccount.getAccountId()))) {
             throw new KycRepositoryException("customerId or accountId does not exist");
         }
-        return customerAccount;
+        return shards.inTransaction(customerAccount.getCustomerId(), dsl -> {
+            int numInserted = dsl.insertInto(TABLE)
+                    .columns(TABLE.CUSTOMER_ID, TABLE.ACCOUNT_ID)
+                    .select(select(val(customerAccount.getCustomerId(), TABLE.CUSTOMER_ID), val(customerAccount.getAccountId(), TABLE.ACCOUNT_ID))
+                            .whereExists(selectOne().from(CUSTOMER).where(CUSTOMER.CUSTOMER_ID.eq(customerAccount.getCustomerId())))
+                            .and(accountOnCustomersShard
+                                    ? exists(selectOne().from(ACCOUNT).where(ACCOUNT.ACCOUNT_ID.eq(customerAccount.getAccountId())))
+                                    : noCondition()))
+                    .execute();
+            if (numInserted != 1) {
+                throw new KycRepositoryException("customerId or accountId does not exist");
+            }
+            changeEventRepository.linksCreated(Collections.singletonList(customerAccount));
+            eventPublisher.publishEvent(new CustomerAccountLinkCreatedEvent(customerAccount));
+            return customerAccount;
+        });
+    }
+
+    /**
+     * Validates the whole batch with one set-based query per table (per shard), then inserts every valid link in a
+     * single statement - committed per customer shard when sharded. A shard whose insert fails (such as on a link
+     * inserted concurrently since validating) doesn't stop the other shards' links committing; its links are reported
+     * as {@link #LINK_NOT_SAVED}.
+     *
+     * <p>
+     * Ids are compared with those read back from the database, so are made canonical (lower case) first - and saved
+     * that way.
+     *
+     * @return why each rejected link (by index) could not be saved, in index order
+     */
+    public List<BatchError> saveAll(List<CustomerAccountLink> requestedLinks) {
+        List<CustomerAccountLink> links = new ArrayList<>(requestedLinks.size());
+        requestedLinks.forEach(link -> links.add(new CustomerAccountLink(
+                UuidStringConverter.canonical(link.getCustomerId()), UuidStringConverter.canonical(link.getAccountId()))));
+        Set<String> customerIds = new HashSet<>();
+        Set<String> accountIds = new HashSet<>();
+        for (CustomerAccountLink link : links) {
+            if (link.getCustomerId() != null) {
+                customerIds.add(link.getCustomerId());
+            }
+            if (link.getAccountId() != null) {
+                accountIds.add(link.getAccountId());
+            }
+        }
+        Set<String> existingCustomerIds = new HashSet<>();
+        shards.scatter(customerIds, (dsl, ids) -> dsl.select(CUSTOMER.CUSTOMER_ID)
+                .from(CUSTOMER)
+                .where(CUSTOMER.CUSTOMER_ID.in(ids))
+                .fetchSet(CUSTOMER.CUSTOMER_ID))
+                .forEach(existingCustomerIds::addAll);
+        Set<String> existingAccountIds = new HashSet<>();
+        shards.scatter(accountIds, (dsl, ids) -> dsl.select(ACCOUNT.ACCOUNT_ID)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ACCOUNT_ID.in(ids))
+                .fetchSet(ACCOUNT.ACCOUNT_ID))
+                .forEach(existingAccountIds::addAll);
+        // only the pairs in the batch are looked up (rather than every link between its customers and accounts)
+        Map<String, List<Row2<String, String>>> candidates = new HashMap<>();
+        for (CustomerAccountLink link : links) {
+            if (existingCustomerIds.contains(link.getCustomerId()) && existingAccountIds.contains(link.getAccountId())) {
+                candidates.computeIfAbsent(link.getCustomerId(), customerId -> new ArrayList<>())
+                        .add(row(val(link.getCustomerId(), TABLE.CUSTOMER_ID), val(link.getAccountId(), TABLE.ACCOUNT_ID)));
+            }
+        }
+        Set<CustomerAccountLink> existingLinks = new HashSet<>();
+        shards.scatter(candidates.keySet(), (dsl, ids) -> {
+            List<Row2<String, String>> pairs = new ArrayList<>();
+            ids.forEach(customerId -> pairs.addAll(candidates.get(customerId)));
+            return dsl.selectFrom(TABLE)
+                    .where(TABLE.CUSTOMER_ID.in(ids))
+                    .and(row(TABLE.CUSTOMER_ID, TABLE.ACCOUNT_ID).in(pairs))
+                    .fetch()
+                    .map(fromDb());
+        }).forEach(existingLinks::addAll);
+
+        List<BatchError> errors = new ArrayList<>();
+        List<Integer> valid = new ArrayList<>();
+        for (int i = 0; i < links.size(); i++) {
+            CustomerAccountLink link = links.get(i);
+            if (!existingCustomerIds.contains(link.getCustomerId())) {
+                errors.add(BatchError.builder().index(i).field("customerId").message(CUSTOMER_DOES_NOT_EXIST).build());
+            } else if (!existingAccountIds.contains(link.getAccountId())) {
+                errors.add(BatchError.builder().index(i).field("accountId").message(ACCOUNT_DOES_NOT_EXIST).build());
+            } else if (!existingLinks.add(link)) {
+                errors.add(BatchError.builder().index(i).message(LINK_ALREADY_EXISTS).build());
+            } else {
+                valid.add(i);
+            }
+        }
+
+        shards.byShard(valid, i -> links.get(i).getCustomerId()).forEach((shard, indexesOnShard) -> {
+            List<CustomerAccountLink> onShard = new ArrayList<>(indexesOnShard.size());
+            indexesOnShard.forEach(i -> onShard.add(links.get(i)));
+            try {
+                shards.inTransaction(shard, dsl -> {
+                    InsertValuesStep2<CustomerAccountRecord, String, String> insert = dsl.insertInto(TABLE, TABLE.CUSTOMER_ID, TABLE.ACCOUNT_ID);
+                    for (CustomerAccountLink link : onShard) {
+                        insert = insert.values(link.getCustomerId(), link.getAccountId());
+                    }
+                    insert.execute();
+                    changeEventRepository.linksCreated(onShard);
+                    onShard.forEach(link -> eventPublisher.publishEvent(new CustomerAccountLinkCreatedEvent(link)));
+                    return onShard;
+                });
+            } catch (DataAccessException e) {
+                log.warn("Insert of {} links on shard {} failed", onShard.size(), shard, e);
+                indexesOnShard.forEach(i -> errors.add(BatchError.builder().index(i).message(LINK_NOT_SAVED).build()));
+            }
+        });
+        errors.sort(Comparator.comparingInt(BatchError::getIndex));
+        return errors;
     }
 
+    /**
+     * Read from the customer's shard - served by a read replica (when the links aren't indexed), if there is one that
+     * has the customer's latest write. The query is only rendered once (see {@link RenderedQueries}).
+     */
     public List<CustomerAccountLink> findByCustomerId(String customerId) {
-        return dsl.selectFrom(TABLE)
-                .where(TABLE.CUSTOMER_ID.eq(customerId))
-                .fetch()
+        if (indexed()) {
+            List<String> accountIds = linkIndex.accountIdsOf(customerId);
+            List<CustomerAccountLink> links = new ArrayList<>(accountIds.size());
+            accountIds.forEach(accountId -> links.add(new CustomerAccountLink(customerId, accountId)));
+            return links;
+        }
+        return replicaReads.readOf(customerId, () -> byCustomerId.fetch(shards.dsl(customerId), 0,
+                val(customerId, TABLE.CUSTOMER_ID)))
                 .map(fromDb());
     }
 
+    /**
+     * Read from every shard, as an account's links are placed with their customers - served by a read replica (when
+     * the links aren't indexed), if there is one that has the account's latest write. The query is only rendered
+     * once (see {@link RenderedQueries}).
+     */
     public List<CustomerAccountLink> findByAccountId(String accountId) {
-        return dsl.selectFrom(TABLE)
-                .where(TABLE.ACCOUNT_ID.eq(accountId))
-                .fetch()
-                .map(fromDb());
+        if (indexed()) {
+            List<String> customerIds = linkIndex.customerIdsOf(accountId);
+            List<CustomerAccountLink> links = new ArrayList<>(customerIds.size());
+            customerIds.forEach(customerId -> links.add(new CustomerAccountLink(customerId, accountId)));
+            return links;
+        }
+        List<CustomerAccountLink> links = new ArrayList<>();
+        Param<String> bindAccountId = val(accountId, TABLE.ACCOUNT_ID);
+        shards.scatter(dsl -> replicaReads.readOf(accountId, () -> byAccountId.fetch(dsl, 0, bindAccountId))
+                .map(fromDb()))
+                .forEach(links::addAll);
+        return links;
+    }
+
+    /**
+     * Account ids for each of the given customers, fetched with a single query per shard
+     */
+    public Map<String, List<String>> findAccountIdsByCustomerIds(Collection<String> customerIds) {
+        if (customerIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        if (indexed()) {
+            return linkIndex.accountIdsOf(customerIds);
+        }
+        Map<String, List<String>> accountIds = new HashMap<>();
+        shards.scatter(customerIds, (dsl, ids) -> dsl.select(TABLE.CUSTOMER_ID, TABLE.ACCOUNT_ID)
+                .from(TABLE)
+                .where(TABLE.CUSTOMER_ID.in(ids))
+                .fetchGroups(TABLE.CUSTOMER_ID, TABLE.ACCOUNT_ID))
+                .forEach(accountIds::putAll);
+        return accountIds;
+    }
+
+    /**
+     * Customer ids for each of the given accounts, fetched with a single query per shard
+     */
+    public Map<String, List<String>> findCustomerIdsByAccountIds(Collection<String> accountIds) {
+        if (accountIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        if (indexed()) {
+            return linkIndex.customerIdsOf(accountIds);
+        }
+        Map<String, List<String>> customerIds = new HashMap<>();
+        shards.scatter(dsl -> dsl.select(TABLE.ACCOUNT_ID, TABLE.CUSTOMER_ID)
+                .from(TABLE)
+                .where(TABLE.ACCOUNT_ID.in(accountIds))
+                .fetchGroups(TABLE.ACCOUNT_ID, TABLE.CUSTOMER_ID))
+                .forEach(onShard -> onShard.forEach((accountId, linked) ->
+                        customerIds.computeIfAbsent(accountId, k -> new ArrayList<>()).addAll(linked)));
+        return customerIds;
     }
 
     public void deleteAll() {
-        dsl.deleteFrom(TABLE).execute();
+        shards.scatter(dsl -> dsl.deleteFrom(TABLE).execute());
+        eventPublisher.publishEvent(new CustomerAccountLinksDeletedEvent());
+    }
+
+    /**
+     * Reads are served from the {@link LinkIndex} when it is enabled and has loaded
+     */
+    boolean indexed() {
+        return linkIndex != null && linkIndex.isLoaded();
     }
 
     private RecordMapper<CustomerAccountRecord, CustomerAccountLink> fromDb() {
@@ -1,66 +1,355 @@
 package uk.co.phoebus.db;
 
+import lombok.extern.slf4j.Slf4j;
 import nu.studer.sample.public_.tables.CustomerAccount;
 import nu.studer.sample.public_.tables.records.CustomerRecord;
+import org.jooq.Condition;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
 import org.jooq.RecordMapper;
+import org.jooq.Select;
+import org.jooq.SelectConditionStep;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Repository;
+import uk.co.phoebus.event.CustomersCreatedEvent;
+import uk.co.phoebus.event.CustomersDeletedEvent;
 import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerSearch;
+import uk.co.phoebus.search.PhoneticKeys;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
-import static org.jooq.impl.DSL.condition;
+import static com.google.common.collect.Lists.newArrayList;
+import static org.jooq.impl.DSL.noCondition;
+import static org.jooq.impl.DSL.param;
+import static org.jooq.impl.DSL.select;
+import static org.jooq.impl.DSL.selectFrom;
+import static org.jooq.impl.DSL.val;
 import static org.springframework.util.CollectionUtils.isEmpty;
 
 @Repository
+@Slf4j
 public class CustomerRepository {
 
     public static final nu.studer.sample.public_.tables.Customer TABLE = nu.studer.sample.public_.tables.Customer.CUSTOMER;
     public static final CustomerAccount JOIN_TABLE = CustomerAccount.CUSTOMER_ACCOUNT;
 
+    // the findBySearch shapes, a bit for each single valued criterion given
+    private static final int BY_CUSTOMER_ID = 1;
+    private static final int BY_SURNAME = 2;
+    private static final int BY_FORENAME = 4;
+    private static final int BY_DATE_OF_BIRTH = 8;
+    private static final int DATE_OF_BIRTH_FROM = 16;
+    private static final int DATE_OF_BIRTH_TO = 32;
+    private static final int AFTER_CUSTOMER_ID = 64;
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private ChangeEventRepository changeEventRepository;
+
     @Autowired
-    private DSLContext dsl;
+    private ReplicaReads replicaReads;
 
+    @Value("${kyc.search.stream-fetch-size:500}")
+    private int streamFetchSize;
+
+    private final RenderedQueries<CustomerRecord> byId = new RenderedQueries<>(TABLE, 1, shape -> selectFrom(TABLE)
+            .where(TABLE.CUSTOMER_ID.eq(param("customerId", TABLE.CUSTOMER_ID))));
+
+    // the criteria in the order conditionOf() applies them, so the bind values are in the same order either way
+    private final RenderedQueries<CustomerRecord> bySearch = new RenderedQueries<>(TABLE, 128, shape -> select(TABLE.fields())
+            .from(TABLE)
+            .where((shape & BY_CUSTOMER_ID) == 0 ? noCondition()
+                    : TABLE.CUSTOMER_ID.eq(param("customerId", TABLE.CUSTOMER_ID)))
+            .and((shape & BY_SURNAME) == 0 ? noCondition() : TABLE.SURNAME.eq(param("surname", TABLE.SURNAME)))
+            .and((shape & BY_FORENAME) == 0 ? noCondition() : TABLE.FORENAME.eq(param("forename", TABLE.FORENAME)))
+            .and((shape & BY_DATE_OF_BIRTH) == 0 ? noCondition()
+                    : TABLE.DATE_OF_BIRTH.eq(param("dateOfBirth", TABLE.DATE_OF_BIRTH)))
+            .and((shape & DATE_OF_BIRTH_FROM) == 0 ? noCondition()
+                    : TABLE.DATE_OF_BIRTH.ge(param("dateOfBirthFrom", TABLE.DATE_OF_BIRTH)))
+            .and((shape & DATE_OF_BIRTH_TO) == 0 ? noCondition()
+                    : TABLE.DATE_OF_BIRTH.le(param("dateOfBirthTo", TABLE.DATE_OF_BIRTH)))
+            .and((shape & AFTER_CUSTOMER_ID) == 0 ? noCondition()
+                    : TABLE.CUSTOMER_ID.gt(param("afterCustomerId", TABLE.CUSTOMER_ID)))
+            .orderBy(TABLE.CUSTOMER_ID)
+            .limit(param("limit", Integer.class)));
+
+    /**
+     * Inserts the customer and its change event, committed together
+     */
     public Customer save(Customer account) {
-        dsl.insertInto(TABLE)
-                .set(toDb(account))
-                .execute();
-        return account;
+        return shards.inTransaction(account.getCustomerId(), dsl -> {
+            dsl.insertInto(TABLE)
+                    .set(toDb(account))
+                    .execute();
+            changeEventRepository.customersCreated(Collections.singletonList(account));
+            eventPublisher.publishEvent(new CustomersCreatedEvent(Collections.singletonList(account)));
+            return account;
+        });
+    }
+
+    /**
+     * Inserts all customers as a single JDBC batch, and their change events as another, committed together - a batch
+     * and commit per shard when sharded, so a shard's batch can fail after others have committed
+     *
+     * @return the customers committed - those of every shard whose batch didn't fail, in the order given
+     */
+    public List<Customer> saveAll(List<Customer> customers) {
+        Set<String> failed = new HashSet<>();
+        shards.byShard(customers, Customer::getCustomerId).forEach((shard, onShard) -> {
+            try {
+                shards.inTransaction(shard, dsl -> {
+                    dsl.batchInsert(onShard.stream()
+                            .map(this::toDb)
+                            .collect(Collectors.toList()))
+                            .execute();
+                    changeEventRepository.customersCreated(onShard);
+                    eventPublisher.publishEvent(new CustomersCreatedEvent(onShard));
+                    return onShard;
+                });
+            } catch (DataAccessException e) {
+                log.warn("Batch insert of {} customers on shard {} failed", onShard.size(), shard, e);
+                onShard.forEach(customer -> failed.add(customer.getCustomerId()));
+            }
+        });
+        if (failed.isEmpty()) {
+            return customers;
+        }
+        return customers.stream()
+                .filter(customer -> !failed.contains(customer.getCustomerId()))
+                .collect(Collectors.toList());
     }
 
+    /**
+     * Served by a read replica, if there is one that has the customer's latest write. The query is only rendered once
+     * (see {@link RenderedQueries}).
+     */
     public Optional<Customer> findById(String customerId) {
-        List<Customer> map = dsl.selectFrom(TABLE)
-                .where(TABLE.CUSTOMER_ID.eq(customerId))
-                .fetch()
+        List<Customer> map = replicaReads.readOf(customerId, () -> byId.fetch(shards.dsl(customerId), 0,
+                val(customerId, TABLE.CUSTOMER_ID)))
                 .map(fromDb());
         return map.stream().findFirst();
     }
 
-    public List<Customer> findByExample(Customer searchModel) {
-        if (isEmpty(searchModel.getAccountIds())) {
+    /**
+     * The customers with the given ids, fetched with a single query per shard, in no particular order
+     */
+    public List<Customer> findByIds(Collection<String> customerIds) {
+        List<Customer> customers = new ArrayList<>(customerIds.size());
+        shards.scatter(customerIds, (dsl, ids) -> dsl.selectFrom(TABLE)
+                .where(TABLE.CUSTOMER_ID.in(ids))
+                .fetch()
+                .map(fromDb()))
+                .forEach(customers::addAll);
+        return customers;
+    }
+
+    /**
+     * A page of customers matching the search, in CUSTOMER_ID order, starting after the given id (if any) - when
+     * sharded, the first {@code limit} of every shard's page. Served by a read replica, if there is one.
+     * <p>
+     * Without any of the list criteria the query is one of a fixed set of shapes, each only rendered once (see
+     * {@link RenderedQueries}).
+     */
+    public List<Customer> findBySearch(CustomerSearch search, String afterCustomerId, int limit) {
+        if (isEmpty(search.getCustomerIds()) && isEmpty(search.getSurnames()) && isEmpty(search.getForenames())
+                && isEmpty(search.getAccountIds())) {
+            return findBySearchShape(search, afterCustomerId, limit);
+        }
+        return Shards.mergeById(shards.scatter(dsl -> replicaReads.read(() -> selectPageBySearch(dsl, search,
+                afterCustomerId, limit)
+                .fetch()
+                .map(a -> fromDb().map(a.into(TABLE))))), Customer::getCustomerId, limit);
+    }
+
+    private List<Customer> findBySearchShape(CustomerSearch search, String afterCustomerId, int limit) {
+        int shape = 0;
+        List<Object> bindValues = new ArrayList<>(8);
+        if (search.getCustomerId() != null) {
+            shape |= BY_CUSTOMER_ID;
+            bindValues.add(val(search.getCustomerId(), TABLE.CUSTOMER_ID));
+        }
+        if (search.getSurname() != null) {
+            shape |= BY_SURNAME;
+            bindValues.add(search.getSurname());
+        }
+        if (search.getForename() != null) {
+            shape |= BY_FORENAME;
+            bindValues.add(search.getForename());
+        }
+        if (search.getDateOfBirth() != null) {
+            shape |= BY_DATE_OF_BIRTH;
+            bindValues.add(search.getDateOfBirth());
+        }
+        if (search.getDateOfBirthFrom() != null) {
+            shape |= DATE_OF_BIRTH_FROM;
+            bindValues.add(search.getDateOfBirthFrom());
+        }
+        if (search.getDateOfBirthTo() != null) {
+            shape |= DATE_OF_BIRTH_TO;
+            bindValues.add(search.getDateOfBirthTo());
+        }
+        if (afterCustomerId != null) {
+            shape |= AFTER_CUSTOMER_ID;
+            bindValues.add(val(afterCustomerId, TABLE.CUSTOMER_ID));
+        }
+        bindValues.add(limit);
+        int shapeOfSearch = shape;
+        Object[] binds = bindValues.toArray();
+        return Shards.mergeById(shards.scatter(dsl -> replicaReads.read(() -> bySearch.fetch(dsl, shapeOfSearch, binds))
+                .map(fromDb())), Customer::getCustomerId, limit);
+    }
+
+    /**
+     * Shard 0's page, the only one there is unless sharded
+     */
+    Select<Record> selectPageBySearch(CustomerSearch search, String afterCustomerId, int limit) {
+        return selectPageBySearch(shards.dsl(0), search, afterCustomerId, limit);
+    }
+
+    private Select<Record> selectPageBySearch(DSLContext dsl, CustomerSearch search, String afterCustomerId, int limit) {
+        return selectBySearch(dsl, search)
+                .and(afterCustomerId == null ? noCondition() : TABLE.CUSTOMER_ID.gt(afterCustomerId))
+                .orderBy(TABLE.CUSTOMER_ID)
+                .limit(limit);
+    }
+
+    /**
+     * All customers matching the search, fetched lazily through a JDBC cursor - one shard after another, each cursor
+     * opened once the previous shard's has been read. The stream holds a connection until it is closed. Served by a
+     * read replica, if there is one.
+     */
+    public Stream<Customer> streamBySearch(CustomerSearch search) {
+        return streamBySearch(search, true);
+    }
+
+    /**
+     * Every customer, streamed as {@link #streamBySearch} does but always from the primary, so every customer
+     * committed before it is called is included
+     */
+    public Stream<Customer> streamAll() {
+        return streamBySearch(new CustomerSearch(), false);
+    }
+
+    private Stream<Customer> streamBySearch(CustomerSearch search, boolean fromReplica) {
+        return IntStream.range(0, shards.count())
+                .boxed()
+                .flatMap(shard -> {
+                    // the cursor's connection is acquired as it is opened, so that is what is marked as a replica read
+                    Supplier<Stream<Record>> cursor = () -> selectBySearch(shards.dsl(shard), search)
+                            .fetchSize(streamFetchSize)
+                            .fetchStream();
+                    return fromReplica ? replicaReads.read(cursor) : cursor.get();
+                })
+                .map(a -> fromDb().map(a.into(TABLE)));
+    }
+
+    private SelectConditionStep<Record> selectBySearch(DSLContext dsl, CustomerSearch search) {
+        if (isEmpty(search.getAccountIds())) {
             return dsl
-                    .select()
+                    .select(TABLE.fields())
                     .from(TABLE)
-                    .where(condition(toDb(searchModel)))
-                    .fetch()
-                    .map(a -> fromDb().map(a.into(TABLE)));
+                    .where(conditionOf(search));
         }
         return dsl
-                .select()
+                .selectDistinct(TABLE.fields())
                 .from(TABLE.join(JOIN_TABLE).on(TABLE.CUSTOMER_ID.eq(JOIN_TABLE.CUSTOMER_ID)))
-                .where(JOIN_TABLE.ACCOUNT_ID.in(searchModel.getAccountIds()))
-                .and(condition(toDb(searchModel)))
+                .where(JOIN_TABLE.ACCOUNT_ID.in(search.getAccountIds()))
+                .and(conditionOf(search));
+    }
+
+    /**
+     * One sargable predicate per criterion, on the bare column, so every criterion can be served by an index
+     * (see V4__customer_search_indexes.sql for the combinations that are)
+     */
+    private static Condition conditionOf(CustomerSearch search) {
+        return matching(TABLE.CUSTOMER_ID, search.getCustomerId(), search.getCustomerIds())
+                .and(matching(TABLE.SURNAME, search.getSurname(), search.getSurnames()))
+                .and(matching(TABLE.FORENAME, search.getForename(), search.getForenames()))
+                .and(matching(TABLE.DATE_OF_BIRTH, search.getDateOfBirth(), null))
+                .and(search.getDateOfBirthFrom() == null ? noCondition()
+                        : TABLE.DATE_OF_BIRTH.ge(search.getDateOfBirthFrom()))
+                .and(search.getDateOfBirthTo() == null ? noCondition()
+                        : TABLE.DATE_OF_BIRTH.le(search.getDateOfBirthTo()));
+    }
+
+    private static <T> Condition matching(Field<T> field, T value, Collection<T> anyOf) {
+        return (value == null ? noCondition() : field.eq(value))
+                .and(isEmpty(anyOf) ? noCondition() : field.in(anyOf));
+    }
+
+    /**
+     * The customers with the given ids that also match the search, in no particular order
+     */
+    public List<Customer> findByIdsAndSearch(Collection<String> customerIds, CustomerSearch search) {
+        List<Customer> customers = new ArrayList<>(customerIds.size());
+        shards.scatter(customerIds, (dsl, ids) -> selectBySearch(dsl, search)
+                .and(TABLE.CUSTOMER_ID.in(ids))
                 .fetch()
-                .map(a -> fromDb().map(a.into(TABLE)));
+                .map(a -> fromDb().map(a.into(TABLE))))
+                .forEach(customers::addAll);
+        return customers;
+    }
+
+    /**
+     * The customers with a key of each searched name (null for a name that wasn't searched on) among the given keys -
+     * as its primary or alternate key - that also match the search, in CUSTOMER_ID order, stopping after the first
+     * {@code limit + 1}: more than {@code limit} means there are more.
+     * <p>
+     * Each shard is read once per key column of the surname (or the forename if only that is searched on), so each read
+     * probes that column's index, and each read stops after {@code limit + 1} customers.
+     */
+    public List<Customer> findByPhoneticKeys(Collection<String> forenameKeys, Collection<String> surnameKeys,
+                                             CustomerSearch search, int limit) {
+        List<Condition> probes = surnameKeys == null
+                ? newArrayList(TABLE.FORENAME_PHONETIC.in(forenameKeys), TABLE.FORENAME_PHONETIC_ALT.in(forenameKeys))
+                : newArrayList(TABLE.SURNAME_PHONETIC.in(surnameKeys), TABLE.SURNAME_PHONETIC_ALT.in(surnameKeys));
+        Condition forenames = surnameKeys == null || forenameKeys == null ? noCondition()
+                : TABLE.FORENAME_PHONETIC.in(forenameKeys).or(TABLE.FORENAME_PHONETIC_ALT.in(forenameKeys));
+        Map<String, Customer> block = new TreeMap<>();
+        shards.scatter(dsl -> probes.stream()
+                .flatMap(probe -> selectBySearch(dsl, search)
+                        .and(probe)
+                        .and(forenames)
+                        .orderBy(TABLE.CUSTOMER_ID)
+                        .limit(limit + 1)
+                        .fetch()
+                        .map(a -> fromDb().map(a.into(TABLE)))
+                        .stream())
+                .collect(Collectors.toList()))
+                .forEach(customers -> customers.forEach(c -> block.put(c.getCustomerId(), c)));
+        return block.values().stream()
+                .limit(limit + 1)
+                .collect(Collectors.toList());
     }
 
     public void deleteAll() {
-        dsl.deleteFrom(TABLE).execute();
+        shards.scatter(dsl -> dsl.deleteFrom(TABLE).execute());
+        eventPublisher.publishEvent(new CustomersDeletedEvent());
     }
 
-    private RecordMapper<CustomerRecord, Customer> fromDb() {
+    RecordMapper<CustomerRecord, Customer> fromDb() {
         return c -> Customer.builder()
                 .customerId(c.getCustomerId())
                 .dateOfBirth(c.getDateOfBirth())
@@ -69,12 +358,16 @@ public class CustomerRepository {
                 .build();
     }
 
-    private CustomerRecord toDb(Customer customer) {
+    CustomerRecord toDb(Customer customer) {
         CustomerRecord c = new CustomerRecord();
         c.setCustomerId(customer.getCustomerId());
         c.setDateOfBirth(customer.getDateOfBirth());
         c.setForename(customer.getForename());
         c.setSurname(customer.getSurname());
+        c.setForenamePhonetic(PhoneticKeys.of(customer.getForename()));
+        c.setSurnamePhonetic(PhoneticKeys.of(customer.getSurname()));
+        c.setForenamePhoneticAlt(PhoneticKeys.alternateOf(customer.getForename()));
+        c.setSurnamePhoneticAlt(PhoneticKeys.alternateOf(customer.getSurname()));
         return c;
     }
 
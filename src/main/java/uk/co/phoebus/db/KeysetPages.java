@@ -0,0 +1,26 @@
+package uk.co.phoebus.db;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Emits keyset pages one at a time, only fetching the next page once the previous one has been requested and
+ * emitted - a slow subscriber holds neither a thread nor a connection between pages
+ */
+final class KeysetPages {
+
+    private KeysetPages() {
+    }
+
+    static <T> Flux<List<T>> pages(Function<String, Mono<List<T>>> pageAfter, Function<T, String> keyOf, int pageSize) {
+        return pageAfter.apply(null)
+                .expand(page -> page.size() < pageSize
+                        ? Mono.empty()
+                        : pageAfter.apply(keyOf.apply(page.get(page.size() - 1))))
+                .filter(page -> !page.isEmpty());
+    }
+
+}
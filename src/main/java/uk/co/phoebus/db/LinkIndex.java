@@ -0,0 +1,450 @@
+package uk.co.phoebus.db;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.Cursor;
+import org.jooq.Record2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import uk.co.phoebus.event.ChangeLogAdvancedEvent;
+import uk.co.phoebus.event.CustomerAccountLinkCreatedEvent;
+import uk.co.phoebus.event.CustomerAccountLinksDeletedEvent;
+import uk.co.phoebus.model.ChangeEvent;
+
+import javax.annotation.PreDestroy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static uk.co.phoebus.db.CustomerAccountLinkRepository.TABLE;
+import static uk.co.phoebus.db.UuidStringConverter.canonical;
+
+/**
+ * In-memory copy of CUSTOMER_ACCOUNT that {@link CustomerAccountLinkRepository} reads links from once it has loaded,
+ * enabled with {@code kyc.link-index.enabled}.
+ * <p>
+ * Each side interns its ids to dense ints (an open addressing table of ints, so no boxed keys or map entries) and
+ * keeps a growable int array of the other side's ints per id, so a lookup allocates only the list it returns and the
+ * index holds each id string once however many links it has.
+ * <p>
+ * Loaded from the table (on every shard) at startup and kept up to date from the change log, so links created through
+ * other instances are read from it too: whenever the change log advances, the links created since the last change
+ * applied are read (by {@link ChangeEventRepository#findAfter}) and added on a background thread. Links created through
+ * this instance are also added straight away from {@link CustomerAccountLinkCreatedEvent}s - adding a link twice has no
+ * effect. Ids are held as they are read from the database (lower case), whatever their case in a request.
+ * <p>
+ * Updated before the {@link uk.co.phoebus.cache.KycViewCache} is invalidated for a new link ({@link #ORDER}), so a view
+ * loaded after the invalidation reads the link from the index.
+ */
+@Component
+@ConditionalOnProperty(name = "kyc.link-index.enabled", havingValue = "true")
+@Slf4j
+public class LinkIndex {
+
+    public static final int ORDER = 0;
+
+    private static final int CATCH_UP_BATCH_SIZE = 1000;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Side customers = new Side();
+    private final Side accounts = new Side();
+    private long links;
+    private volatile boolean loaded;
+    // the offset of the last change applied, -1 until loaded - written under the write lock
+    private volatile long appliedUpTo = -1;
+    private final AtomicBoolean catchUpScheduled = new AtomicBoolean();
+    private final ExecutorService catchUps = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "link-index-catch-up");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private ChangeEventRepository changeEventRepository;
+
+    @Value("${kyc.link-index.load-fetch-size:10000}")
+    private int loadFetchSize;
+
+    @Autowired
+    public LinkIndex(MeterRegistry meterRegistry) {
+        Gauge.builder("kyc.link-index.links", this, LinkIndex::size).register(meterRegistry);
+        Gauge.builder("kyc.link-index.bytes", this, LinkIndex::estimatedBytes).register(meterRegistry);
+    }
+
+    /**
+     * Rows are unique in the table, so they are appended without the duplicate check a created link gets. Every change
+     * up to the readable offset has committed before the table is read, so the index is caught up from there.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void load() {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            long readableUpTo = changeEventRepository.readableUpTo();
+            clearLocked();
+            for (int shard = 0; shard < shards.count(); shard++) {
+                try (Cursor<Record2<String, String>> rows = shards.dsl(shard).select(TABLE.CUSTOMER_ID, TABLE.ACCOUNT_ID)
+                        .from(TABLE)
+                        .fetchSize(loadFetchSize)
+                        .fetchLazy()) {
+                    for (Record2<String, String> row : rows) {
+                        addLocked(row.value1(), row.value2(), false);
+                    }
+                }
+            }
+            appliedUpTo = readableUpTo;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long size = size();
+        long bytes = estimatedBytes();
+        log.info("Indexed {} customer account links in {} ms, ~{} bytes ({} per link)", size,
+                (System.nanoTime() - start) / 1_000_000, bytes, size == 0 ? 0 : bytes / size);
+        scheduleCatchUp();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        catchUps.shutdownNow();
+    }
+
+    @EventListener
+    public void changeLogAdvanced(ChangeLogAdvancedEvent event) {
+        if (appliedUpTo >= 0 && event.getReadableUpTo() > appliedUpTo) {
+            scheduleCatchUp();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(ORDER)
+    public void linkCreated(CustomerAccountLinkCreatedEvent event) {
+        lock.writeLock().lock();
+        try {
+            addLocked(canonical(event.getLink().getCustomerId()), canonical(event.getLink().getAccountId()), true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Every link created so far has been deleted, so the changes up to now aren't applied
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void linksDeleted(CustomerAccountLinksDeletedEvent event) {
+        lock.writeLock().lock();
+        try {
+            clearLocked();
+            if (appliedUpTo >= 0) {
+                appliedUpTo = Math.max(appliedUpTo, changeEventRepository.readableUpTo());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Whether the index holds every link yet - until it does, links are read from the database
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public List<String> accountIdsOf(String customerId) {
+        lock.readLock().lock();
+        try {
+            return customers.linked(customerId, accounts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<String> customerIdsOf(String accountId) {
+        lock.readLock().lock();
+        try {
+            return accounts.linked(accountId, customers);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Account ids of each of the customers that has any
+     */
+    public Map<String, List<String>> accountIdsOf(Collection<String> customerIds) {
+        lock.readLock().lock();
+        try {
+            return customers.linked(customerIds, accounts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Customer ids of each of the accounts that has any
+     */
+    public Map<String, List<String>> customerIdsOf(Collection<String> accountIds) {
+        lock.readLock().lock();
+        try {
+            return accounts.linked(accountIds, customers);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return links;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Heap held by the index, assuming compressed oops and compact (Latin-1) strings
+     */
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            return customers.estimatedBytes() + accounts.estimatedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * At most one catch-up is queued at a time - one that is already running may have read the changes before the one
+     * that scheduled this, so it runs again
+     */
+    private void scheduleCatchUp() {
+        if (!catchUpScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            catchUps.execute(() -> {
+                catchUpScheduled.set(false);
+                try {
+                    catchUp();
+                } catch (RuntimeException e) {
+                    log.warn("Could not catch the link index up with the change log: {}", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Link index catch-up has shut down");
+        }
+    }
+
+    private void catchUp() {
+        List<ChangeEvent> changes;
+        do {
+            long from = appliedUpTo;
+            changes = changeEventRepository.findAfter(from, CATCH_UP_BATCH_SIZE);
+            if (changes.isEmpty()) {
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                if (appliedUpTo != from) {
+                    // cleared in the meantime
+                    return;
+                }
+                for (ChangeEvent change : changes) {
+                    if (change.getType() == ChangeEvent.Type.LINK_CREATED) {
+                        addLocked(canonical(change.getCustomerId()), canonical(change.getAccountId()), true);
+                    }
+                }
+                appliedUpTo = changes.get(changes.size() - 1).getOffset();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } while (changes.size() == CATCH_UP_BATCH_SIZE);
+    }
+
+    /**
+     * The ids must already be canonical
+     */
+    private void addLocked(String customerId, String accountId, boolean checkDuplicate) {
+        int customer = customers.intern(customerId);
+        int account = accounts.intern(accountId);
+        if (checkDuplicate && customers.isLinked(customer, account)) {
+            return;
+        }
+        customers.link(customer, account);
+        accounts.link(account, customer);
+        links++;
+    }
+
+    private void clearLocked() {
+        customers.clear();
+        accounts.clear();
+        links = 0;
+    }
+
+    /**
+     * The ids of one side of the links, interned to their index in {@code ids}, and the other side's ints linked to
+     * each
+     */
+    private static class Side {
+
+        private static final int INITIAL_CAPACITY = 16;
+        private static final int[] NO_LINKS = new int[0];
+
+        private String[] ids;
+        private int[][] linked;
+        private int[] linkCounts;
+        // open addressing, holding id + 1 so that 0 is an empty slot
+        private int[] slots;
+        private int size;
+        // id strings and per-id link arrays, kept as they change so estimatedBytes() doesn't walk every id
+        private long elementBytes;
+
+        Side() {
+            clear();
+        }
+
+        void clear() {
+            ids = new String[INITIAL_CAPACITY];
+            linked = new int[INITIAL_CAPACITY][];
+            linkCounts = new int[INITIAL_CAPACITY];
+            slots = new int[INITIAL_CAPACITY * 2];
+            size = 0;
+            elementBytes = 0;
+        }
+
+        int find(String id) {
+            int mask = slots.length - 1;
+            for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+                int entry = slots[slot];
+                if (entry == 0) {
+                    return -1;
+                }
+                if (ids[entry - 1].equals(id)) {
+                    return entry - 1;
+                }
+            }
+        }
+
+        int intern(String id) {
+            int existing = find(id);
+            if (existing >= 0) {
+                return existing;
+            }
+            if (size == ids.length) {
+                grow();
+            }
+            int interned = size++;
+            ids[interned] = id;
+            linked[interned] = NO_LINKS;
+            // String object plus its byte[]
+            elementBytes += 24 + arrayBytes(id.length(), 1);
+            insertSlot(interned);
+            return interned;
+        }
+
+        boolean isLinked(int from, int to) {
+            int[] links = linked[from];
+            for (int i = 0; i < linkCounts[from]; i++) {
+                if (links[i] == to) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void link(int from, int to) {
+            int count = linkCounts[from];
+            if (count == linked[from].length) {
+                int[] grown = Arrays.copyOf(linked[from], Math.max(2, count + (count >> 1)));
+                elementBytes += arrayBytes(grown.length, 4) - (count == 0 ? 0 : arrayBytes(count, 4));
+                linked[from] = grown;
+            }
+            linked[from][count] = to;
+            linkCounts[from] = count + 1;
+        }
+
+        List<String> linked(String id, Side other) {
+            int from = find(canonical(id));
+            if (from < 0) {
+                return Collections.emptyList();
+            }
+            return other.idsOf(linked[from], linkCounts[from]);
+        }
+
+        Map<String, List<String>> linked(Collection<String> ids, Side other) {
+            Map<String, List<String>> linked = new HashMap<>();
+            for (String id : ids) {
+                int from = find(canonical(id));
+                if (from >= 0 && linkCounts[from] > 0) {
+                    linked.put(id, other.idsOf(this.linked[from], linkCounts[from]));
+                }
+            }
+            return linked;
+        }
+
+        private List<String> idsOf(int[] interned, int count) {
+            List<String> resolved = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                resolved.add(ids[interned[i]]);
+            }
+            return resolved;
+        }
+
+        private void grow() {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            linked = Arrays.copyOf(linked, capacity);
+            linkCounts = Arrays.copyOf(linkCounts, capacity);
+            slots = new int[capacity * 2];
+            for (int i = 0; i < size; i++) {
+                insertSlot(i);
+            }
+        }
+
+        private void insertSlot(int interned) {
+            int mask = slots.length - 1;
+            int slot = hash(ids[interned]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = interned + 1;
+        }
+
+        private static int hash(String id) {
+            int h = id.hashCode();
+            return h ^ (h >>> 16);
+        }
+
+        long estimatedBytes() {
+            return arrayBytes(ids.length, 4) + arrayBytes(linked.length, 4) + arrayBytes(linkCounts.length, 4)
+                    + arrayBytes(slots.length, 4) + elementBytes;
+        }
+
+        private static long arrayBytes(int length, int elementBytes) {
+            return (16 + (long) length * elementBytes + 7) & ~7L;
+        }
+
+    }
+
+}
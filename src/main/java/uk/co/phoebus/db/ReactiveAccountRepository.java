@@ -0,0 +1,63 @@
+package uk.co.phoebus.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import uk.co.phoebus.model.Account;
+
+import java.util.List;
+
+import static uk.co.phoebus.db.AccountRepository.TABLE;
+
+/**
+ * Non-blocking view of {@link AccountRepository}, see {@link ReactiveCustomerRepository}
+ */
+@Repository
+public class ReactiveAccountRepository {
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private Scheduler jdbcScheduler;
+
+    @Value("${kyc.reactive.page-size:500}")
+    private int pageSize;
+
+    public Mono<Account> save(Account account) {
+        return Mono.fromCallable(() -> accountRepository.save(account))
+                .subscribeOn(jdbcScheduler);
+    }
+
+    public Mono<Account> findById(String accountId) {
+        return Flux.from(shards.dsl(accountId).selectFrom(TABLE).where(TABLE.ACCOUNT_ID.eq(accountId)))
+                .next()
+                .map(a -> accountRepository.fromDb().map(a))
+                .subscribeOn(jdbcScheduler);
+    }
+
+    /**
+     * Accounts matching the example, in ACCOUNT_ID order, emitted a keyset page at a time as they are requested
+     */
+    public Flux<List<Account>> findPagesByExample(Account searchModel) {
+        return KeysetPages.pages(after -> findPage(searchModel, after), Account::getAccountId, pageSize);
+    }
+
+    private Mono<List<Account>> findPage(Account searchModel, String afterAccountId) {
+        if (shards.isSharded()) {
+            return Mono.fromCallable(() -> accountRepository.findByExample(searchModel, afterAccountId, pageSize))
+                    .subscribeOn(jdbcScheduler);
+        }
+        return Flux.from(accountRepository.selectPageByExample(searchModel, afterAccountId, pageSize))
+                .map(a -> accountRepository.fromDb().map(a.into(TABLE)))
+                .collectList()
+                .subscribeOn(jdbcScheduler);
+    }
+
+}
@@ -0,0 +1,79 @@
+package uk.co.phoebus.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import uk.co.phoebus.model.CustomerAccountLink;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static uk.co.phoebus.db.CustomerAccountLinkRepository.TABLE;
+
+/**
+ * Non-blocking view of {@link CustomerAccountLinkRepository}, see {@link ReactiveCustomerRepository}
+ */
+@Repository
+public class ReactiveCustomerAccountLinkRepository {
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private CustomerAccountLinkRepository linkRepository;
+
+    @Autowired
+    private Scheduler jdbcScheduler;
+
+    /**
+     * Saved through {@link CustomerAccountLinkRepository} so the existence checks and link events are shared
+     */
+    public Mono<CustomerAccountLink> save(CustomerAccountLink link) {
+        return Mono.fromCallable(() -> linkRepository.save(link))
+                .subscribeOn(jdbcScheduler);
+    }
+
+    public Mono<Map<String, List<String>>> findAccountIdsByCustomerIds(Collection<String> customerIds) {
+        if (customerIds.isEmpty()) {
+            return Mono.just(new HashMap<>());
+        }
+        if (linkRepository.indexed()) {
+            return Mono.fromSupplier(() -> linkRepository.findAccountIdsByCustomerIds(customerIds));
+        }
+        if (shards.isSharded()) {
+            return Mono.fromCallable(() -> linkRepository.findAccountIdsByCustomerIds(customerIds))
+                    .subscribeOn(jdbcScheduler);
+        }
+        return Flux.from(shards.dsl(0).select(TABLE.CUSTOMER_ID, TABLE.ACCOUNT_ID)
+                .from(TABLE)
+                .where(TABLE.CUSTOMER_ID.in(customerIds)))
+                .<Map<String, List<String>>>collect(HashMap::new,
+                        (ids, r) -> ids.computeIfAbsent(r.value1(), k -> new ArrayList<>()).add(r.value2()))
+                .subscribeOn(jdbcScheduler);
+    }
+
+    public Mono<Map<String, List<String>>> findCustomerIdsByAccountIds(Collection<String> accountIds) {
+        if (accountIds.isEmpty()) {
+            return Mono.just(new HashMap<>());
+        }
+        if (linkRepository.indexed()) {
+            return Mono.fromSupplier(() -> linkRepository.findCustomerIdsByAccountIds(accountIds));
+        }
+        if (shards.isSharded()) {
+            return Mono.fromCallable(() -> linkRepository.findCustomerIdsByAccountIds(accountIds))
+                    .subscribeOn(jdbcScheduler);
+        }
+        return Flux.from(shards.dsl(0).select(TABLE.ACCOUNT_ID, TABLE.CUSTOMER_ID)
+                .from(TABLE)
+                .where(TABLE.ACCOUNT_ID.in(accountIds)))
+                .<Map<String, List<String>>>collect(HashMap::new,
+                        (ids, r) -> ids.computeIfAbsent(r.value1(), k -> new ArrayList<>()).add(r.value2()))
+                .subscribeOn(jdbcScheduler);
+    }
+
+}
@@ -0,0 +1,66 @@
+package uk.co.phoebus.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerSearch;
+
+import java.util.List;
+
+import static uk.co.phoebus.db.CustomerRepository.TABLE;
+
+/**
+ * Non-blocking view of {@link CustomerRepository}, built on jOOQ's {@link org.reactivestreams.Publisher} queries. JDBC
+ * still blocks, so every query is subscribed on the bounded {@code jdbcScheduler} rather than the caller's thread.
+ * When sharded, searches go through {@link CustomerRepository}'s scatter-gather a page at a time.
+ */
+@Repository
+public class ReactiveCustomerRepository {
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private Scheduler jdbcScheduler;
+
+    @Value("${kyc.reactive.page-size:500}")
+    private int pageSize;
+
+    public Mono<Customer> save(Customer customer) {
+        return Mono.fromCallable(() -> customerRepository.save(customer))
+                .subscribeOn(jdbcScheduler);
+    }
+
+    public Mono<Customer> findById(String customerId) {
+        return Flux.from(shards.dsl(customerId).selectFrom(TABLE).where(TABLE.CUSTOMER_ID.eq(customerId)))
+                .next()
+                .map(c -> customerRepository.fromDb().map(c))
+                .subscribeOn(jdbcScheduler);
+    }
+
+    /**
+     * Customers matching the search, in CUSTOMER_ID order, emitted a keyset page at a time as they are requested
+     */
+    public Flux<List<Customer>> findPagesBySearch(CustomerSearch search) {
+        return KeysetPages.pages(after -> findPage(search, after), Customer::getCustomerId, pageSize);
+    }
+
+    private Mono<List<Customer>> findPage(CustomerSearch search, String afterCustomerId) {
+        if (shards.isSharded()) {
+            return Mono.fromCallable(() -> customerRepository.findBySearch(search, afterCustomerId, pageSize))
+                    .subscribeOn(jdbcScheduler);
+        }
+        return Flux.from(customerRepository.selectPageBySearch(search, afterCustomerId, pageSize))
+                .map(c -> customerRepository.fromDb().map(c.into(TABLE)))
+                .collectList()
+                .subscribeOn(jdbcScheduler);
+    }
+
+}
@@ -0,0 +1,123 @@
+package uk.co.phoebus.db;
+
+import org.jooq.Configuration;
+import org.jooq.Converter;
+import org.jooq.DSLContext;
+import org.jooq.ExecuteListener;
+import org.jooq.ExecuteListenerProvider;
+import org.jooq.ExecuteType;
+import org.jooq.Param;
+import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.Table;
+import org.springframework.dao.DataAccessException;
+import uk.co.phoebus.config.DatabaseContext.JOOQToSpringExceptionTransformer;
+import uk.co.phoebus.config.QueryMetricsListener;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Selects of a fixed shape, each rendered to SQL once (with {@link org.jooq.impl.DSL#param} placeholders for its bind
+ * values) and from then on run straight through JDBC - a {@link PreparedStatement} of that SQL on the DSL's connection
+ * (so replica reads and transactions are unchanged), with just the call's bind values, and the rows read back into the
+ * table's records by jOOQ. A call skips building, rendering and parsing any query, and sends H2 the identical SQL its
+ * per-connection statement cache ({@code QUERY_CACHE_SIZE}) reuses the prepared statement for.
+ * <p>
+ * A family of queries has a small number of shapes, numbered from 0 (e.g. a bit per optional criterion), and each
+ * shape is rendered the first time it's run. The select list must be the table's fields, in order, and the bind
+ * values are given in the order the shape's placeholders appear in - as {@link org.jooq.impl.DSL#val(Object,
+ * org.jooq.Field)} of their column where the column has a converter (such as the UUID ids).
+ * <p>
+ * jOOQ's execute listeners don't see these statements, so failures are translated to Spring's exceptions and timings
+ * recorded in the query metrics here, as the listeners would.
+ */
+class RenderedQueries<R extends Record> {
+
+    private final Table<R> table;
+    private final IntFunction<Query> shapes;
+    private final AtomicReferenceArray<String> rendered;
+    // every shard's configuration has the same listeners, so the first one looked up is kept
+    private volatile Optional<QueryMetricsListener> metrics;
+
+    RenderedQueries(Table<R> table, int shapeCount, IntFunction<Query> shapes) {
+        this.table = table;
+        this.shapes = shapes;
+        this.rendered = new AtomicReferenceArray<>(shapeCount);
+    }
+
+    Result<R> fetch(DSLContext dsl, int shape, Object... bindValues) {
+        String sql = rendered.get(shape);
+        if (sql == null) {
+            // every shard renders the same SQL, so whichever renders it first is kept
+            sql = dsl.render(shapes.apply(shape));
+            rendered.set(shape, sql);
+        }
+        String shapeSql = sql;
+        Object[] values = new Object[bindValues.length];
+        for (int i = 0; i < bindValues.length; i++) {
+            values[i] = toDatabase(bindValues[i]);
+        }
+        long startNanos = System.nanoTime();
+        Result<R> result = null;
+        try {
+            result = dsl.connectionResult(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(shapeSql)) {
+                    for (int i = 0; i < values.length; i++) {
+                        statement.setObject(i + 1, values[i]);
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        return dsl.fetchLazy(resultSet, table.fields()).fetchInto(table);
+                    }
+                }
+            });
+            return result;
+        } catch (RuntimeException e) {
+            // including failing to acquire a connection, which jOOQ raises with the SQLException as its cause
+            SQLException sqlException = JOOQToSpringExceptionTransformer.sqlException(e);
+            DataAccessException translated = sqlException == null ? null
+                    : JOOQToSpringExceptionTransformer.translate(dsl.configuration().dialect(), shapeSql, sqlException);
+            throw translated != null ? translated : e;
+        } finally {
+            Optional<QueryMetricsListener> metrics = this.metrics;
+            if (metrics == null) {
+                metrics = metricsOf(dsl.configuration());
+                this.metrics = metrics;
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            int rows = result == null ? 0 : result.size();
+            boolean failed = result == null;
+            metrics.ifPresent(listener -> listener.record(shapeSql, ExecuteType.READ, elapsedNanos, rows, failed,
+                    Arrays.asList(values)));
+        }
+    }
+
+    /**
+     * A {@link Param}'s value is converted to its column's database type (e.g. a string id to a UUID)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object toDatabase(Object bindValue) {
+        if (bindValue instanceof Param) {
+            Param<?> param = (Param<?>) bindValue;
+            return ((Converter) param.getConverter()).to(param.getValue());
+        }
+        return bindValue;
+    }
+
+    private static Optional<QueryMetricsListener> metricsOf(Configuration configuration) {
+        for (ExecuteListenerProvider provider : configuration.executeListenerProviders()) {
+            ExecuteListener listener = provider.provide();
+            if (listener instanceof QueryMetricsListener) {
+                return Optional.of((QueryMetricsListener) listener);
+            }
+        }
+        return Optional.empty();
+    }
+
+}
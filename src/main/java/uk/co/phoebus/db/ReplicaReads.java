@@ -0,0 +1,115 @@
+package uk.co.phoebus.db;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Marks the reads that may be served by a read replica (see
+ * {@link uk.co.phoebus.config.ReplicaRoutingConnectionProvider}), and remembers recently written ids so that reading
+ * one back only goes to a replica that has replicated the write.
+ * <p>
+ * A write is identified by its change log offset: an id is read from a replica once the replica's change log has
+ * reached the offset of the id's latest change, and forgotten once every replica's has (unavailable ones counted at
+ * their last known position).
+ * <p>
+ * At most {@code kyc.replicas.max-tracked-ids} ids are remembered. Beyond that they are all forgotten at once, and until
+ * every replica has caught up with the latest of them any read of an id needs a replica that has - so the written ids
+ * never grow without limit, even while no replica is available, and are never read back from a replica without them.
+ */
+@Component
+public class ReplicaReads {
+
+    // the change log offset the replica serving the current read must have reached, null outside a replica read
+    private static final ThreadLocal<Long> REQUIRED_OFFSET = new ThreadLocal<>();
+
+    private final Map<String, Long> written = new ConcurrentHashMap<>();
+    // the latest offset of the ids forgotten when there were too many, 0 once every replica has it
+    private final AtomicLong overflowedUpTo = new AtomicLong();
+    private volatile boolean tracking;
+
+    @Value("${kyc.replicas.max-tracked-ids:100000}")
+    private int maxTrackedIds;
+
+    /**
+     * Runs a read that may be served by a replica, however far behind the primary (within the allowed lag) it is
+     */
+    public <T> T read(Supplier<T> read) {
+        return read(0L, read);
+    }
+
+    /**
+     * Runs a read of the given customer or account that may be served by a replica, as long as the replica has every
+     * change to it written through this instance
+     */
+    public <T> T readOf(String id, Supplier<T> read) {
+        // an id is only forgotten for overflowing once overflowedUpTo covers it, so it's read after the id
+        long requiredOffset = written.getOrDefault(id, 0L);
+        return read(Math.max(requiredOffset, overflowedUpTo.get()), read);
+    }
+
+    private <T> T read(long requiredOffset, Supplier<T> read) {
+        Long outer = REQUIRED_OFFSET.get();
+        REQUIRED_OFFSET.set(outer == null ? requiredOffset : Math.max(outer, requiredOffset));
+        try {
+            return read.get();
+        } finally {
+            if (outer == null) {
+                REQUIRED_OFFSET.remove();
+            } else {
+                REQUIRED_OFFSET.set(outer);
+            }
+        }
+    }
+
+    /**
+     * Records that the id (if any) was written with the given change log offset - a no-op unless there are replicas
+     */
+    public void written(String id, long offset) {
+        if (tracking && id != null) {
+            written.merge(id, offset, Math::max);
+            if (written.size() > maxTrackedIds) {
+                overflow();
+            }
+        }
+    }
+
+    /**
+     * An id written again in the meantime (with a later offset) is kept, rather than forgotten with its earlier offset
+     */
+    private void overflow() {
+        for (Map.Entry<String, Long> entry : written.entrySet()) {
+            long writtenAt = entry.getValue();
+            overflowedUpTo.accumulateAndGet(writtenAt, Math::max);
+            written.remove(entry.getKey(), writtenAt);
+        }
+    }
+
+    /**
+     * The offset the replica serving the current read must have reached, or null if it must be read from the primary
+     */
+    public Long requiredOffset() {
+        return REQUIRED_OFFSET.get();
+    }
+
+    public void setTracking(boolean tracking) {
+        this.tracking = tracking;
+    }
+
+    /**
+     * Forgets the ids every replica has caught up with
+     */
+    public void replicatedUpTo(long offset) {
+        written.values().removeIf(writtenAt -> writtenAt <= offset);
+        overflowedUpTo.updateAndGet(overflowed -> overflowed <= offset ? 0 : overflowed);
+    }
+
+    public int getTrackedIds() {
+        return written.size();
+    }
+
+}
@@ -0,0 +1,187 @@
+package uk.co.phoebus.db;
+
+import lombok.extern.slf4j.Slf4j;
+import nu.studer.sample.public_.tables.records.AccountRecord;
+import nu.studer.sample.public_.tables.records.ChangeEventRecord;
+import nu.studer.sample.public_.tables.records.CustomerAccountRecord;
+import nu.studer.sample.public_.tables.records.CustomerRecord;
+import org.flywaydb.core.Flyway;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.TableRecord;
+import org.jooq.impl.DSL;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static nu.studer.sample.public_.Sequences.CHANGE_EVENT_SEQ;
+import static org.jooq.impl.DSL.coalesce;
+import static org.jooq.impl.DSL.max;
+import static org.jooq.impl.DSL.val;
+
+/**
+ * Offline resharding: copies every customer, account, link and change from one set of shards to another, placing each
+ * row by {@link Shards#shardOf(String, int)} for the new number of shards, e.g.
+ * <pre>
+ * ./gradlew reshard -Pfrom=jdbc:h2:file:./a,jdbc:h2:file:./b -Pto=jdbc:h2:file:./c,jdbc:h2:file:./d,jdbc:h2:file:./e
+ * </pre>
+ * The application must be stopped (nothing may write to the old shards while they are copied), and the new shards
+ * must be new databases - they are migrated, and the copy refused if any already holds rows. The first new shard
+ * takes over as the application's own database, so its change log sequence is moved on past every copied offset.
+ * The rows copied to each table are counted against the rows read, and the old shards are left as they were.
+ */
+@Slf4j
+public class Resharder {
+
+    private static final String[] MIGRATION_LOCATIONS = {"classpath:db/migration", "classpath:uk/co/phoebus/db/migration"};
+
+    private final List<String> from;
+    private final List<String> to;
+    private final String username;
+    private final String password;
+    private final int batchSize;
+
+    public Resharder(List<String> from, List<String> to, String username, String password, int batchSize) {
+        this.from = from;
+        this.to = to;
+        this.username = username;
+        this.password = password;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * {@code --from <urls> --to <urls> [--username <user>] [--password <password>] [--batch-size <rows>]}, urls comma
+     * separated with the application's own database first
+     */
+    public static void main(String[] args) throws SQLException {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        if (options.getOrDefault("--from", "").isEmpty() || options.getOrDefault("--to", "").isEmpty()) {
+            throw new IllegalArgumentException("Usage: Resharder --from <urls> --to <urls> [--username <user>] "
+                    + "[--password <password>] [--batch-size <rows>]");
+        }
+        new Resharder(Arrays.asList(options.get("--from").split(",")),
+                Arrays.asList(options.get("--to").split(",")),
+                options.getOrDefault("--username", "sa"),
+                options.getOrDefault("--password", ""),
+                Integer.parseInt(options.getOrDefault("--batch-size", "1000")))
+                .reshard();
+    }
+
+    /**
+     * @return the number of rows copied, by table
+     */
+    public Map<String, Long> reshard() throws SQLException {
+        List<Connection> sources = new ArrayList<>();
+        List<Connection> targets = new ArrayList<>();
+        try {
+            for (String url : from) {
+                sources.add(DriverManager.getConnection(url, username, password));
+            }
+            for (String url : to) {
+                Flyway.configure().dataSource(url, username, password).locations(MIGRATION_LOCATIONS).load().migrate();
+                targets.add(DriverManager.getConnection(url, username, password));
+            }
+            List<DSLContext> source = dsls(sources);
+            List<DSLContext> target = dsls(targets);
+
+            Map<String, Long> copied = new LinkedHashMap<>();
+            copied.put(CustomerRepository.TABLE.getName(), copy(source, target, CustomerRepository.TABLE,
+                    CustomerRecord::getCustomerId));
+            copied.put(AccountRepository.TABLE.getName(), copy(source, target, AccountRepository.TABLE,
+                    AccountRecord::getAccountId));
+            copied.put(CustomerAccountLinkRepository.TABLE.getName(), copy(source, target,
+                    CustomerAccountLinkRepository.TABLE, CustomerAccountRecord::getCustomerId));
+            copied.put(ChangeEventRepository.TABLE.getName(), copy(source, target, ChangeEventRepository.TABLE,
+                    e -> e.getCustomerId() != null ? e.getCustomerId() : e.getAccountId()));
+
+            long lastOffset = 0;
+            for (DSLContext dsl : target) {
+                lastOffset = Math.max(lastOffset, dsl.select(coalesce(max(ChangeEventRepository.TABLE.EVENT_ID), val(0L)))
+                        .from(ChangeEventRepository.TABLE)
+                        .fetchOne()
+                        .value1());
+            }
+            target.get(0).alterSequence(CHANGE_EVENT_SEQ).restartWith(lastOffset + 1).execute();
+            log.info("Resharded from {} to {} shards: {}", from.size(), to.size(), copied);
+            return copied;
+        } finally {
+            for (Connection connection : sources) {
+                connection.close();
+            }
+            for (Connection connection : targets) {
+                connection.close();
+            }
+        }
+    }
+
+    private <R extends TableRecord<R>> long copy(List<DSLContext> sources, List<DSLContext> targets, Table<R> table,
+                                                 Function<R, String> shardKey) {
+        long expected = 0;
+        for (DSLContext source : sources) {
+            expected += source.fetchCount(table);
+        }
+        for (DSLContext target : targets) {
+            if (target.fetchCount(table) != 0) {
+                throw new IllegalStateException(table.getName() + " isn't empty on every new shard");
+            }
+        }
+
+        List<List<R>> batches = new ArrayList<>(targets.size());
+        targets.forEach(target -> batches.add(new ArrayList<>(batchSize)));
+        for (DSLContext source : sources) {
+            try (Cursor<R> rows = source.selectFrom(table).fetchSize(batchSize).fetchLazy()) {
+                for (R row : rows) {
+                    int shard = Shards.shardOf(shardKey.apply(row), targets.size());
+                    List<R> batch = batches.get(shard);
+                    batch.add(row);
+                    if (batch.size() == batchSize) {
+                        insert(targets.get(shard), batch);
+                    }
+                }
+            }
+        }
+        for (int shard = 0; shard < targets.size(); shard++) {
+            insert(targets.get(shard), batches.get(shard));
+        }
+
+        long copied = 0;
+        for (DSLContext target : targets) {
+            copied += target.fetchCount(table);
+        }
+        if (copied != expected) {
+            throw new IllegalStateException("Copied " + copied + " " + table.getName() + " rows of " + expected);
+        }
+        return copied;
+    }
+
+    /**
+     * Only changed values are inserted, so every value of a fetched row is marked as changed
+     */
+    private static <R extends TableRecord<R>> void insert(DSLContext target, List<R> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        batch.forEach(row -> row.changed(true));
+        target.batchInsert(batch).execute();
+        batch.clear();
+    }
+
+    private static List<DSLContext> dsls(List<Connection> connections) {
+        List<DSLContext> dsls = new ArrayList<>(connections.size());
+        connections.forEach(connection -> dsls.add(DSL.using(connection, SQLDialect.H2)));
+        return dsls;
+    }
+
+}
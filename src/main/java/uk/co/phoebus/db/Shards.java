@@ -0,0 +1,218 @@
+package uk.co.phoebus.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * The databases customers and accounts are spread across, each placed by a hash of its id - shard 0 is the
+ * application's own data source, the others come from {@code kyc.shards.urls}. A link is placed with its customer, so
+ * a customer's links are read from one shard, as is each change log row with the write it records.
+ * <p>
+ * Reads that can't be routed by id are scattered to every shard in parallel, on a pool of
+ * {@code kyc.shards.fan-out-threads}, and gathered in shard order. Shard 0's part of a scatter runs on the caller's
+ * thread, so it is read the same way (e.g. from a replica) as it would be unsharded. With a single shard everything
+ * runs on the caller's thread.
+ * <p>
+ * Each shard has its own transactions, so a write spanning shards commits on each separately.
+ */
+@Slf4j
+public class Shards implements AutoCloseable {
+
+    private final List<Shard> shards;
+    private final ExecutorService fanOut;
+
+    public Shards(List<Shard> shards, int fanOutThreads) {
+        this.shards = shards;
+        if (shards.size() > 1) {
+            AtomicInteger threads = new AtomicInteger();
+            this.fanOut = Executors.newFixedThreadPool(fanOutThreads, r -> {
+                Thread thread = new Thread(r, "shard-fan-out-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.fanOut = null;
+        }
+    }
+
+    /**
+     * The shard of {@code count} the customer or account with the given id is placed on. Ids are UUIDs (anything
+     * else is placed as the nil UUID, as it is bound in queries), so the same id however it's cased is on one shard.
+     */
+    public static int shardOf(String id, int count) {
+        UUID uuid = new UuidStringConverter().to(id);
+        // the murmur3 64 bit finaliser, so every bit of the id affects the shard
+        long h = uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) Math.floorMod(h, (long) count);
+    }
+
+    public int shardOf(String id) {
+        return shards.size() == 1 ? 0 : shardOf(id, shards.size());
+    }
+
+    public int count() {
+        return shards.size();
+    }
+
+    public boolean isSharded() {
+        return shards.size() > 1;
+    }
+
+    public DSLContext dsl(int shard) {
+        return shards.get(shard).dsl;
+    }
+
+    /**
+     * The shard the customer or account with the given id is on
+     */
+    public DSLContext dsl(String id) {
+        return dsl(shardOf(id));
+    }
+
+    /**
+     * Runs the work in a transaction on the shard the customer or account with the given id is on
+     */
+    public <T> T inTransaction(String id, Function<DSLContext, T> work) {
+        return inTransaction(shardOf(id), work);
+    }
+
+    public <T> T inTransaction(int shard, Function<DSLContext, T> work) {
+        Shard s = shards.get(shard);
+        return s.transactions.execute(status -> work.apply(s.dsl));
+    }
+
+    /**
+     * The items grouped by the shard of their id, in shard order
+     */
+    public <T> Map<Integer, List<T>> byShard(Collection<T> items, Function<T, String> idOf) {
+        Map<Integer, List<T>> byShard = new TreeMap<>();
+        for (T item : items) {
+            byShard.computeIfAbsent(shardOf(idOf.apply(item)), shard -> new ArrayList<>()).add(item);
+        }
+        return byShard;
+    }
+
+    /**
+     * Runs the work on every shard, returning each shard's result in shard order
+     */
+    public <T> List<T> scatter(Function<DSLContext, T> work) {
+        Map<Integer, Integer> all = new TreeMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            all.put(shard, shard);
+        }
+        return gather(all, (dsl, shard) -> work.apply(dsl));
+    }
+
+    /**
+     * Runs the work on each shard any of the ids are on, with those ids
+     */
+    public <T> List<T> scatter(Collection<String> ids, BiFunction<DSLContext, List<String>, T> work) {
+        return gather(byShard(ids, Function.identity()), work);
+    }
+
+    private <A, T> List<T> gather(Map<Integer, A> arguments, BiFunction<DSLContext, A, T> work) {
+        List<T> results = new ArrayList<>(arguments.size());
+        if (fanOut == null || arguments.size() == 1) {
+            arguments.forEach((shard, argument) -> results.add(work.apply(dsl(shard), argument)));
+            return results;
+        }
+        List<Future<T>> others = new ArrayList<>(arguments.size());
+        arguments.forEach((shard, argument) -> {
+            if (shard != 0) {
+                others.add(fanOut.submit(() -> work.apply(dsl(shard), argument)));
+            }
+        });
+        try {
+            if (arguments.containsKey(0)) {
+                results.add(work.apply(dsl(0), arguments.get(0)));
+            }
+            for (Future<T> other : others) {
+                results.add(other.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted reading from the shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            others.forEach(other -> other.cancel(true));
+        }
+        return results;
+    }
+
+    /**
+     * Merges each shard's page of rows, all in id order, into the first {@code limit} in id order (the order the UUID
+     * columns sort in)
+     */
+    public static <T> List<T> mergeById(List<List<T>> pages, Function<T, String> idOf, int limit) {
+        if (pages.size() == 1) {
+            return pages.get(0);
+        }
+        List<T> merged = new ArrayList<>();
+        pages.forEach(merged::addAll);
+        merged.sort(Comparator.comparing(t -> UUID.fromString(idOf.apply(t))));
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+
+    /**
+     * Stops the fan-out threads and closes the pools of the shards other than the application's own
+     */
+    @Override
+    public void close() {
+        if (fanOut != null) {
+            fanOut.shutdownNow();
+        }
+        for (Shard shard : shards) {
+            if (shard.pool != null) {
+                try {
+                    shard.pool.close();
+                } catch (Exception e) {
+                    log.warn("Could not close a shard's pool", e);
+                }
+            }
+        }
+    }
+
+    public static class Shard {
+
+        private final DSLContext dsl;
+        private final TransactionTemplate transactions;
+        private final AutoCloseable pool;
+
+        /**
+         * @param pool closed with the shards, or null if it is managed elsewhere
+         */
+        public Shard(DSLContext dsl, PlatformTransactionManager transactionManager, AutoCloseable pool) {
+            this.dsl = dsl;
+            this.transactions = new TransactionTemplate(transactionManager);
+            this.pool = pool;
+        }
+
+    }
+
+}
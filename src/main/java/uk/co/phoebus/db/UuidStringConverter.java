@@ -0,0 +1,54 @@
+package uk.co.phoebus.db;
+
+import org.jooq.impl.AbstractConverter;
+
+import java.util.UUID;
+
+/**
+ * Maps the UUID id columns to the string ids used everywhere else (configured as a forced type in the jOOQ code
+ * generation), so ids are stored in 16 bytes but the API is unchanged.
+ * <p>
+ * Every id is generated by this service as a UUID, so a string that isn't one can't match anything - it's bound as
+ * the nil UUID, which is never generated, rather than failing the query.
+ */
+public class UuidStringConverter extends AbstractConverter<UUID, String> {
+
+    static final UUID NO_SUCH_ID = new UUID(0, 0);
+
+    public UuidStringConverter() {
+        super(UUID.class, String.class);
+    }
+
+    /**
+     * The id as it is read back from the database (lower case), so an id from a request can be compared with ids read -
+     * or the nil UUID's, as it is bound, if it isn't a UUID
+     */
+    public static String canonical(String id) {
+        if (id == null) {
+            return null;
+        }
+        try {
+            return UUID.fromString(id).toString();
+        } catch (IllegalArgumentException e) {
+            return NO_SUCH_ID.toString();
+        }
+    }
+
+    @Override
+    public String from(UUID databaseObject) {
+        return databaseObject == null ? null : databaseObject.toString();
+    }
+
+    @Override
+    public UUID to(String userObject) {
+        if (userObject == null) {
+            return null;
+        }
+        try {
+            return UUID.fromString(userObject);
+        } catch (IllegalArgumentException e) {
+            return NO_SUCH_ID;
+        }
+    }
+
+}
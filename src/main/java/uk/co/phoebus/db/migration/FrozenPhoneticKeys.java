@@ -0,0 +1,59 @@
+package uk.co.phoebus.db.migration;
+
+import org.apache.commons.codec.language.DoubleMetaphone;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The phonetic keys as {@link uk.co.phoebus.search.PhoneticKeys} computed them when V3 and V11 were written - name
+ * normalisation and key choice copied here so those backfills give the same keys whenever they run, whatever the
+ * application's keys have become since. A change to the application's keys needs its own migration (and its own copy)
+ * to recompute the stored keys.
+ */
+final class FrozenPhoneticKeys {
+
+    private static final DoubleMetaphone DOUBLE_METAPHONE = new DoubleMetaphone();
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_LETTERS = Pattern.compile("[^\\p{L}]+");
+
+    private FrozenPhoneticKeys() {
+    }
+
+    /**
+     * The primary key, or null if the name has none
+     */
+    static String of(String name) {
+        String key = DOUBLE_METAPHONE.doubleMetaphone(normalize(name));
+        return key == null || key.isEmpty() ? null : key;
+    }
+
+    /**
+     * The alternate key, or null if the name has none other than its primary key
+     */
+    static String alternateOf(String name) {
+        String normalized = normalize(name);
+        String primary = DOUBLE_METAPHONE.doubleMetaphone(normalized);
+        String alternate = DOUBLE_METAPHONE.doubleMetaphone(normalized, true);
+        return alternate == null || alternate.isEmpty() || alternate.equals(primary) ? null : alternate;
+    }
+
+    private static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(name.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        String folded = COMBINING_MARKS.matcher(decomposed).replaceAll("")
+                .replace("ß", "ss")
+                .replace("æ", "ae")
+                .replace("œ", "oe")
+                .replace("ø", "o")
+                .replace("ł", "l")
+                .replace("đ", "d")
+                .replace("þ", "th")
+                .replace("ı", "i");
+        return NON_LETTERS.matcher(folded).replaceAll("");
+    }
+
+}
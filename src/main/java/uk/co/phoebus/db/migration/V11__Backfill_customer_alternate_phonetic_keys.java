@@ -0,0 +1,51 @@
+package uk.co.phoebus.db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Fills in the alternate phonetic keys added by V10 for customers saved before it, as V3 did the primary keys (with the
+ * same {@link FrozenPhoneticKeys}). Most names have no alternate key of their own, so only the customers with one are
+ * updated.
+ */
+public class V11__Backfill_customer_alternate_phonetic_keys extends BaseJavaMigration {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        try (Statement select = connection.createStatement();
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE CUSTOMER SET FORENAME_PHONETIC_ALT = ?, SURNAME_PHONETIC_ALT = ? WHERE CUSTOMER_ID = ?")) {
+            select.setFetchSize(BATCH_SIZE);
+            try (ResultSet customers = select.executeQuery("SELECT CUSTOMER_ID, FORENAME, SURNAME FROM CUSTOMER")) {
+                int batched = 0;
+                while (customers.next()) {
+                    String forenameKey = FrozenPhoneticKeys.alternateOf(customers.getString("FORENAME"));
+                    String surnameKey = FrozenPhoneticKeys.alternateOf(customers.getString("SURNAME"));
+                    if (forenameKey == null && surnameKey == null) {
+                        continue;
+                    }
+                    update.setString(1, forenameKey);
+                    update.setString(2, surnameKey);
+                    update.setString(3, customers.getString("CUSTOMER_ID"));
+                    update.addBatch();
+                    if (++batched == BATCH_SIZE) {
+                        update.executeBatch();
+                        batched = 0;
+                    }
+                }
+                if (batched > 0) {
+                    update.executeBatch();
+                }
+            }
+        }
+    }
+
+}
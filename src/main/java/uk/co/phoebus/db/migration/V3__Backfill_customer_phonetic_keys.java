@@ -0,0 +1,47 @@
+package uk.co.phoebus.db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Fills in the phonetic keys added by V2 for customers saved before it. Keys are computed in Java (the database has
+ * no Double Metaphone) by the migrations' own copy of the algorithm, {@link FrozenPhoneticKeys}, so rows are read
+ * through a cursor and updated in JDBC batches.
+ */
+public class V3__Backfill_customer_phonetic_keys extends BaseJavaMigration {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        try (Statement select = connection.createStatement();
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE CUSTOMER SET FORENAME_PHONETIC = ?, SURNAME_PHONETIC = ? WHERE CUSTOMER_ID = ?")) {
+            select.setFetchSize(BATCH_SIZE);
+            try (ResultSet customers = select.executeQuery(
+                    "SELECT CUSTOMER_ID, FORENAME, SURNAME FROM CUSTOMER WHERE SURNAME_PHONETIC IS NULL")) {
+                int batched = 0;
+                while (customers.next()) {
+                    update.setString(1, FrozenPhoneticKeys.of(customers.getString("FORENAME")));
+                    update.setString(2, FrozenPhoneticKeys.of(customers.getString("SURNAME")));
+                    update.setString(3, customers.getString("CUSTOMER_ID"));
+                    update.addBatch();
+                    if (++batched == BATCH_SIZE) {
+                        update.executeBatch();
+                        batched = 0;
+                    }
+                }
+                if (batched > 0) {
+                    update.executeBatch();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package uk.co.phoebus.db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Fills in the UUID shadow columns added by V5 from the VARCHAR ids (every id this service has generated is a UUID
+ * string). Each table is walked in primary key order a chunk at a time, with each chunk committed on its own, so no
+ * statement holds locks on more than {@code CHUNK_SIZE} rows and a failed run can simply be run again.
+ */
+public class V6__Backfill_uuid_identifier_columns extends BaseJavaMigration {
+
+    private static final int CHUNK_SIZE = 10_000;
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        backfill(connection, "CUSTOMER", "CUSTOMER_ID", "CUSTOMER_UUID = CAST(CUSTOMER_ID AS UUID)");
+        backfill(connection, "ACCOUNT", "ACCOUNT_ID", "ACCOUNT_UUID = CAST(ACCOUNT_ID AS UUID)");
+        // chunked on the leading primary key column, so a chunk is every link of up to CHUNK_SIZE customers
+        backfill(connection, "CUSTOMER_ACCOUNT", "CUSTOMER_ID",
+                "CUSTOMER_UUID = CAST(CUSTOMER_ID AS UUID), ACCOUNT_UUID = CAST(ACCOUNT_ID AS UUID)");
+    }
+
+    private static void backfill(Connection connection, String table, String key, String assignments) throws SQLException {
+        try (PreparedStatement chunkEnd = connection.prepareStatement("SELECT MAX(" + key + ") FROM (SELECT DISTINCT "
+                + key + " FROM " + table + " WHERE " + key + " > ? ORDER BY " + key + " LIMIT " + CHUNK_SIZE + ")");
+             PreparedStatement update = connection.prepareStatement("UPDATE " + table + " SET " + assignments
+                     + " WHERE " + key + " > ? AND " + key + " <= ?")) {
+            String after = "";
+            while (true) {
+                chunkEnd.setString(1, after);
+                String last;
+                try (ResultSet rows = chunkEnd.executeQuery()) {
+                    rows.next();
+                    last = rows.getString(1);
+                }
+                if (last == null) {
+                    return;
+                }
+                update.setString(1, after);
+                update.setString(2, last);
+                update.executeUpdate();
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+                after = last;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,14 @@
+package uk.co.phoebus.event;
+
+import lombok.Value;
+
+/**
+ * Published whenever a transaction that appended to the change log completes, as more changes may now be readable, and
+ * when other instances' changes become readable
+ */
+@Value
+public class ChangeLogAdvancedEvent {
+
+    private long readableUpTo;
+
+}
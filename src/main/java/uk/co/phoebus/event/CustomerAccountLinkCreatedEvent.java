@@ -0,0 +1,14 @@
+package uk.co.phoebus.event;
+
+import lombok.Value;
+import uk.co.phoebus.model.CustomerAccountLink;
+
+/**
+ * Published once a link has been written, so anything holding a view of either side can refresh it
+ */
+@Value
+public class CustomerAccountLinkCreatedEvent {
+
+    private CustomerAccountLink link;
+
+}
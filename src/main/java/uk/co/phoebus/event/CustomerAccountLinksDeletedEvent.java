@@ -0,0 +1,8 @@
+package uk.co.phoebus.event;
+
+/**
+ * Published once every customer account link has been deleted
+ */
+public class CustomerAccountLinksDeletedEvent {
+
+}
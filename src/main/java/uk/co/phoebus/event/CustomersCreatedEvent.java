@@ -0,0 +1,16 @@
+package uk.co.phoebus.event;
+
+import lombok.Value;
+import uk.co.phoebus.model.Customer;
+
+import java.util.List;
+
+/**
+ * Published once customers have been written, so anything indexing them can add them
+ */
+@Value
+public class CustomersCreatedEvent {
+
+    private List<Customer> customers;
+
+}
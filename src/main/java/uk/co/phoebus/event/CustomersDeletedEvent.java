@@ -0,0 +1,8 @@
+package uk.co.phoebus.event;
+
+/**
+ * Published once every customer has been deleted
+ */
+public class CustomersDeletedEvent {
+
+}
@@ -0,0 +1,11 @@
+package uk.co.phoebus.exception;
+
+/**
+ * A write couldn't be queued because the write-behind queue is full (or shutting down) - the caller should retry later
+ */
+public class KycWriteQueueFullException extends RuntimeException {
+
+    public KycWriteQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,13 @@
+package uk.co.phoebus.id;
+
+/**
+ * Generates the ids of new customers and accounts, chosen with {@code kyc.ids.generator}
+ */
+public interface IdGenerator {
+
+    /**
+     * A new id, in canonical UUID form, unique across threads and nodes
+     */
+    String newId();
+
+}
@@ -0,0 +1,20 @@
+package uk.co.phoebus.id;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Random (version 4) UUIDs - new ids land anywhere in the primary key index
+ */
+@Component
+@ConditionalOnProperty(name = "kyc.ids.generator", havingValue = "random")
+public class RandomIdGenerator implements IdGenerator {
+
+    @Override
+    public String newId() {
+        return UUID.randomUUID().toString();
+    }
+
+}
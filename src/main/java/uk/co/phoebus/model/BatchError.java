@@ -0,0 +1,22 @@
+package uk.co.phoebus.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchError implements Serializable {
+
+    private int index;
+
+    private String field;
+
+    private String message;
+
+}
@@ -0,0 +1,54 @@
+package uk.co.phoebus.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a bulk write - rows that failed are reported individually rather than failing the whole batch
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchResult implements Serializable {
+
+    private int received;
+
+    private int succeeded;
+
+    private int failed;
+
+    /**
+     * Generated ids, positionally aligned with the request (null where the row failed)
+     */
+    private List<String> ids;
+
+    private List<BatchError> errors;
+
+    private long elapsedMillis;
+
+    private double rowsPerSecond;
+
+    public static BatchResult of(int received, List<String> ids, List<BatchError> errors, long elapsedNanos) {
+        int failed = (int) errors.stream()
+                .mapToInt(BatchError::getIndex)
+                .distinct()
+                .count();
+        return BatchResult.builder()
+                .received(received)
+                .succeeded(received - failed)
+                .failed(failed)
+                .ids(ids)
+                .errors(errors)
+                .elapsedMillis(TimeUnit.NANOSECONDS.toMillis(elapsedNanos))
+                .rowsPerSecond(elapsedNanos == 0 ? 0 : received * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos)
+                .build();
+    }
+
+}
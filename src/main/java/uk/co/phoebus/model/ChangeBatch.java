@@ -0,0 +1,24 @@
+package uk.co.phoebus.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The next changes after an offset, and the offset to ask for the ones after them from
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChangeBatch implements Serializable {
+
+    private List<ChangeEvent> events;
+
+    private long nextOffset;
+
+}
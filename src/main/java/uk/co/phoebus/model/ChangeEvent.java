@@ -0,0 +1,42 @@
+package uk.co.phoebus.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+
+/**
+ * A customer, account or link that has been written, at its offset in the change log
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChangeEvent implements Serializable {
+
+    public enum Type {
+        CUSTOMER_CREATED,
+        ACCOUNT_CREATED,
+        LINK_CREATED
+    }
+
+    private long offset;
+
+    private Type type;
+
+    private String customerId;
+
+    private String accountId;
+
+    private OffsetDateTime createdAt;
+
+    /**
+     * The customer, account or link as it was written
+     */
+    private JsonNode data;
+
+}
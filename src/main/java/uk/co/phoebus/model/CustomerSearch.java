@@ -0,0 +1,57 @@
+package uk.co.phoebus.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.Size;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Criteria for a customer search, all of which must match. The single valued fields match exactly (so a
+ * {@link Customer} body is still a valid search), a list matches any of its values and the date of birth range is
+ * inclusive at both ends. Empty lists are ignored.
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class CustomerSearch {
+
+    public static final int MAX_IN_LIST_SIZE = 1000;
+
+    private String customerId;
+
+    @Size(max = MAX_IN_LIST_SIZE)
+    private List<String> customerIds;
+
+    private String forename;
+
+    @Size(max = MAX_IN_LIST_SIZE)
+    private List<String> forenames;
+
+    private String surname;
+
+    @Size(max = MAX_IN_LIST_SIZE)
+    private List<String> surnames;
+
+    private LocalDate dateOfBirth;
+
+    private LocalDate dateOfBirthFrom;
+
+    private LocalDate dateOfBirthTo;
+
+    @Size(max = MAX_IN_LIST_SIZE)
+    private List<String> accountIds;
+
+    @JsonIgnore
+    @AssertTrue(message = "dateOfBirthFrom must not be after dateOfBirthTo")
+    public boolean isDateOfBirthRangeValid() {
+        return dateOfBirthFrom == null || dateOfBirthTo == null || !dateOfBirthFrom.isAfter(dateOfBirthTo);
+    }
+
+}
@@ -0,0 +1,44 @@
+package uk.co.phoebus.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * A customer or account reached by walking customer/account links from a starting customer or account
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class GraphNode implements Serializable {
+
+    public enum Type {
+        CUSTOMER,
+        ACCOUNT
+    }
+
+    private Type type;
+
+    private String id;
+
+    /**
+     * Links walked from the start - a customer sharing an account with the starting customer is 2 hops away
+     */
+    private int hops;
+
+    /**
+     * Id of the node this one was first reached from (null for the start)
+     */
+    private String via;
+
+    /**
+     * Some of this node's links weren't followed, because it has more than the fan-out limit or the node limit was
+     * reached
+     */
+    private boolean truncated;
+
+}
@@ -0,0 +1,24 @@
+package uk.co.phoebus.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Outcome of a bulk read by id - what was found, in the order it was asked for, and the ids that weren't
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class LookupResult<T> implements Serializable {
+
+    private List<T> found;
+
+    private List<String> missingIds;
+
+}
@@ -0,0 +1,28 @@
+package uk.co.phoebus.model;
+
+/**
+ * How a customer search matches forename and surname
+ */
+public enum MatchMode {
+
+    /**
+     * Equal to the stored name, as written
+     */
+    EXACT,
+
+    /**
+     * Stored name starts with the searched name, ignoring case and accents
+     */
+    PREFIX,
+
+    /**
+     * Stored name is within a small edit distance of the searched name, ignoring case and accents
+     */
+    FUZZY,
+
+    /**
+     * Stored name sounds like the searched name (shares a Double Metaphone key with it), closest spelling first
+     */
+    PHONETIC
+
+}
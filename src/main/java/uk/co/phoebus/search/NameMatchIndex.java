@@ -0,0 +1,516 @@
+package uk.co.phoebus.search;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import uk.co.phoebus.db.ChangeEventRepository;
+import uk.co.phoebus.db.CustomerRepository;
+import uk.co.phoebus.event.ChangeLogAdvancedEvent;
+import uk.co.phoebus.event.CustomersCreatedEvent;
+import uk.co.phoebus.event.CustomersDeletedEvent;
+import uk.co.phoebus.model.ChangeEvent;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.MatchMode;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In-memory trigram index of customer forenames and surnames for {@link MatchMode#PREFIX} and {@link MatchMode#FUZZY}
+ * searches, ranked by edit distance.
+ * <p>
+ * Each field indexes its distinct (normalised) names rather than customers, so a common surname is matched once
+ * however many customers share it. A fuzzy lookup only scans the shortest trigram posting lists - a name within
+ * {@code k} edits of the query shares all but at most {@code 4k} of its trigrams, so it must appear in one of them -
+ * and then checks each candidate's edit distance directly.
+ * <p>
+ * Built from the database at startup and kept up to date from the change log, so customers created through other
+ * instances are matched too: whenever the change log advances, the customers created since the last change applied
+ * are read (by {@link ChangeEventRepository#findAfter}) and added on a background thread. Customers created through
+ * this instance are also added straight away from {@link CustomersCreatedEvent}s - adding a customer twice has no
+ * effect.
+ */
+@Component
+@Slf4j
+public class NameMatchIndex {
+
+    private static final int EDITS_PER_TRIGRAM_LOST = 4;
+    private static final int SHORT_NAME_LENGTH = 5;
+    private static final int CATCH_UP_BATCH_SIZE = 1000;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> docsByCustomerId = new HashMap<>();
+    private final List<String> customerIds = new ArrayList<>();
+    private final IntList forenameOfDoc = new IntList();
+    private final IntList surnameOfDoc = new IntList();
+    private final NameField forenames = new NameField();
+    private final NameField surnames = new NameField();
+    // the offset of the last change applied, -1 until built - written under the write lock
+    private volatile long appliedUpTo = -1;
+    private final AtomicBoolean catchUpScheduled = new AtomicBoolean();
+    private final ExecutorService catchUps = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "name-index-catch-up");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private ChangeEventRepository changeEventRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${kyc.name-index.max-edits:2}")
+    private int maxEdits;
+
+    @Autowired
+    public NameMatchIndex(MeterRegistry meterRegistry) {
+        Gauge.builder("kyc.name-index.customers", this, NameMatchIndex::size).register(meterRegistry);
+        Gauge.builder("kyc.name-index.names", forenames, NameField::size).tag("field", "forename").register(meterRegistry);
+        Gauge.builder("kyc.name-index.names", surnames, NameField::size).tag("field", "surname").register(meterRegistry);
+    }
+
+    /**
+     * Every change up to the readable offset has committed before the customers are read (from the primary), so the
+     * index holds every customer it covers and is caught up from there
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void rebuild() {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            long readableUpTo = changeEventRepository.readableUpTo();
+            try (Stream<Customer> all = customerRepository.streamAll()) {
+                clearLocked();
+                all.forEach(this::addLocked);
+            }
+            appliedUpTo = readableUpTo;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Indexed {} customer names in {} ms", size(), (System.nanoTime() - start) / 1_000_000);
+        scheduleCatchUp();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        catchUps.shutdownNow();
+    }
+
+    @EventListener
+    public void changeLogAdvanced(ChangeLogAdvancedEvent event) {
+        if (appliedUpTo >= 0 && event.getReadableUpTo() > appliedUpTo) {
+            scheduleCatchUp();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void customersCreated(CustomersCreatedEvent event) {
+        lock.writeLock().lock();
+        try {
+            event.getCustomers().forEach(this::addLocked);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Every customer created so far has been deleted, so the changes up to now aren't applied
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void customersDeleted(CustomersDeletedEvent event) {
+        lock.writeLock().lock();
+        try {
+            clearLocked();
+            if (appliedUpTo >= 0) {
+                appliedUpTo = Math.max(appliedUpTo, changeEventRepository.readableUpTo());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return customerIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of up to {@code limit} customers matching every given name, closest match first (ties by customer id)
+     */
+    public List<String> match(String forename, String surname, MatchMode mode, int limit) {
+        String normalizedForename = forename == null ? null : NameNormalizer.normalize(forename);
+        String normalizedSurname = surname == null ? null : NameNormalizer.normalize(surname);
+        if ("".equals(normalizedForename) || "".equals(normalizedSurname)
+                || (normalizedForename == null && normalizedSurname == null)) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            Map<Integer, Integer> forenameMatches = normalizedForename == null ? null
+                    : forenames.match(normalizedForename, mode, maxEdits(normalizedForename));
+            Map<Integer, Integer> surnameMatches = normalizedSurname == null ? null
+                    : surnames.match(normalizedSurname, mode, maxEdits(normalizedSurname));
+            return rank(forenameMatches, surnameMatches, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Walks the customers of whichever field matched fewer of them, checking the other field (if any) per customer
+     */
+    private List<String> rank(Map<Integer, Integer> forenameMatches, Map<Integer, Integer> surnameMatches, int limit) {
+        boolean driveBySurname = forenameMatches == null
+                || (surnameMatches != null && surnames.docCount(surnameMatches) < forenames.docCount(forenameMatches));
+        NameField driving = driveBySurname ? surnames : forenames;
+        Map<Integer, Integer> drivingMatches = driveBySurname ? surnameMatches : forenameMatches;
+        Map<Integer, Integer> otherMatches = driveBySurname ? forenameMatches : surnameMatches;
+        IntList otherNameOfDoc = driveBySurname ? forenameOfDoc : surnameOfDoc;
+
+        Comparator<long[]> closestFirst = Comparator.<long[]>comparingLong(m -> m[1])
+                .thenComparing(m -> customerIds.get((int) m[0]));
+        PriorityQueue<long[]> best = new PriorityQueue<>(closestFirst.reversed());
+        for (Map.Entry<Integer, Integer> match : drivingMatches.entrySet()) {
+            IntList docs = driving.docs.get(match.getKey());
+            for (int i = 0; i < docs.size(); i++) {
+                int doc = docs.get(i);
+                Integer otherDistance = otherMatches == null ? Integer.valueOf(0) : otherMatches.get(otherNameOfDoc.get(doc));
+                if (otherDistance == null) {
+                    continue;
+                }
+                long[] candidate = {doc, match.getValue() + otherDistance};
+                if (best.size() < limit) {
+                    best.add(candidate);
+                } else if (closestFirst.compare(candidate, best.peek()) < 0) {
+                    best.poll();
+                    best.add(candidate);
+                }
+            }
+        }
+        List<long[]> ranked = new ArrayList<>(best);
+        ranked.sort(closestFirst);
+        List<String> ids = new ArrayList<>(ranked.size());
+        ranked.forEach(m -> ids.add(customerIds.get((int) m[0])));
+        return ids;
+    }
+
+    /**
+     * At most one catch-up is queued at a time - one that is already running may have read the changes before the one
+     * that scheduled this, so it runs again
+     */
+    private void scheduleCatchUp() {
+        if (!catchUpScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            catchUps.execute(() -> {
+                catchUpScheduled.set(false);
+                try {
+                    catchUp();
+                } catch (RuntimeException e) {
+                    log.warn("Could not catch the name index up with the change log: {}", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Name index catch-up has shut down");
+        }
+    }
+
+    private void catchUp() {
+        List<ChangeEvent> changes;
+        do {
+            long from = appliedUpTo;
+            changes = changeEventRepository.findAfter(from, CATCH_UP_BATCH_SIZE);
+            if (changes.isEmpty()) {
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                if (appliedUpTo != from) {
+                    // cleared in the meantime
+                    return;
+                }
+                for (ChangeEvent change : changes) {
+                    if (change.getType() == ChangeEvent.Type.CUSTOMER_CREATED) {
+                        addLocked(customerOf(change));
+                    }
+                }
+                appliedUpTo = changes.get(changes.size() - 1).getOffset();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } while (changes.size() == CATCH_UP_BATCH_SIZE);
+    }
+
+    private Customer customerOf(ChangeEvent change) {
+        try {
+            return objectMapper.treeToValue(change.getData(), Customer.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable customer at change " + change.getOffset(), e);
+        }
+    }
+
+    private int maxEdits(String normalizedName) {
+        return normalizedName.length() <= SHORT_NAME_LENGTH ? Math.min(1, maxEdits) : maxEdits;
+    }
+
+    private void addLocked(Customer customer) {
+        if (docsByCustomerId.containsKey(customer.getCustomerId())) {
+            return;
+        }
+        int doc = customerIds.size();
+        docsByCustomerId.put(customer.getCustomerId(), doc);
+        customerIds.add(customer.getCustomerId());
+        forenameOfDoc.add(forenames.add(NameNormalizer.normalize(customer.getForename()), doc));
+        surnameOfDoc.add(surnames.add(NameNormalizer.normalize(customer.getSurname()), doc));
+    }
+
+    private void clearLocked() {
+        docsByCustomerId.clear();
+        customerIds.clear();
+        forenameOfDoc.clear();
+        surnameOfDoc.clear();
+        forenames.clear();
+        surnames.clear();
+    }
+
+    /**
+     * Trigrams of the name padded with two leading and one trailing marker, so the first letters (which typos are
+     * least likely to change) get their own trigrams. Prefix queries leave off the trailing marker.
+     */
+    static Set<String> trigrams(String normalizedName, boolean wholeName) {
+        String padded = "$$" + normalizedName + (wholeName ? "$" : "");
+        Set<String> trigrams = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Optimal string alignment distance (Levenshtein plus adjacent transpositions), or {@code maxDistance + 1} as soon
+     * as it is known to exceed {@code maxDistance}
+     */
+    static int editDistance(String a, String b, int maxDistance) {
+        if (Math.abs(a.length() - b.length()) > maxDistance) {
+            return maxDistance + 1;
+        }
+        int[] previousPrevious = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int distance = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    distance = Math.min(distance, previousPrevious[j - 2] + 1);
+                }
+                current[j] = distance;
+                rowMin = Math.min(rowMin, distance);
+            }
+            if (rowMin > maxDistance) {
+                return maxDistance + 1;
+            }
+            int[] recycled = previousPrevious;
+            previousPrevious = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length()], maxDistance + 1);
+    }
+
+    /**
+     * The distinct names of one field, with their trigram postings and the customers that have each
+     */
+    private static class NameField {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<IntList> docs = new ArrayList<>();
+        private final Map<String, IntList> postings = new HashMap<>();
+        private final Map<Integer, IntList> byLength = new HashMap<>();
+
+        int add(String name, int doc) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                ids.put(name, id);
+                names.add(name);
+                docs.add(new IntList());
+                for (String trigram : trigrams(name, true)) {
+                    postings.computeIfAbsent(trigram, t -> new IntList()).add(id);
+                }
+                byLength.computeIfAbsent(name.length(), l -> new IntList()).add(id);
+            }
+            docs.get(id).add(doc);
+            return id;
+        }
+
+        /**
+         * Matching name ids, mapped to how far each is from the query
+         */
+        Map<Integer, Integer> match(String query, MatchMode mode, int maxEdits) {
+            switch (mode) {
+                case PREFIX:
+                    return prefix(query);
+                case FUZZY:
+                    return fuzzy(query, maxEdits);
+                default:
+                    throw new IllegalArgumentException("Not an indexed match mode: " + mode);
+            }
+        }
+
+        /**
+         * Every name containing all the query's leading trigrams is a candidate, so only the shortest list is scanned.
+         * Shorter names rank first.
+         */
+        private Map<Integer, Integer> prefix(String query) {
+            IntList shortest = null;
+            for (String trigram : trigrams(query, false)) {
+                IntList posting = postings.get(trigram);
+                if (posting == null) {
+                    return Collections.emptyMap();
+                }
+                if (shortest == null || posting.size() < shortest.size()) {
+                    shortest = posting;
+                }
+            }
+            Map<Integer, Integer> matches = new HashMap<>();
+            for (int i = 0; i < shortest.size(); i++) {
+                int id = shortest.get(i);
+                String name = names.get(id);
+                if (name.startsWith(query)) {
+                    matches.put(id, name.length() - query.length());
+                }
+            }
+            return matches;
+        }
+
+        private Map<Integer, Integer> fuzzy(String query, int maxEdits) {
+            Set<String> queryTrigrams = trigrams(query, true);
+            int minShared = queryTrigrams.size() - EDITS_PER_TRIGRAM_LOST * maxEdits;
+            BitSet candidates = new BitSet(names.size());
+            if (minShared <= 0) {
+                for (int length = Math.max(1, query.length() - maxEdits); length <= query.length() + maxEdits; length++) {
+                    addAll(candidates, byLength.get(length));
+                }
+            } else {
+                IntList[] lists = queryTrigrams.stream()
+                        .map(t -> postings.getOrDefault(t, IntList.EMPTY))
+                        .sorted(Comparator.comparingInt(IntList::size))
+                        .toArray(IntList[]::new);
+                for (IntList list : Arrays.copyOf(lists, queryTrigrams.size() - minShared + 1)) {
+                    addAll(candidates, list);
+                }
+            }
+            Map<Integer, Integer> matches = new HashMap<>();
+            for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+                int distance = editDistance(query, names.get(id), maxEdits);
+                if (distance <= maxEdits) {
+                    matches.put(id, distance);
+                }
+            }
+            return matches;
+        }
+
+        long docCount(Map<Integer, Integer> matches) {
+            long count = 0;
+            for (int id : matches.keySet()) {
+                count += docs.get(id).size();
+            }
+            return count;
+        }
+
+        int size() {
+            return names.size();
+        }
+
+        void clear() {
+            ids.clear();
+            names.clear();
+            docs.clear();
+            postings.clear();
+            byLength.clear();
+        }
+
+        private static void addAll(BitSet candidates, IntList ids) {
+            if (ids != null) {
+                for (int i = 0; i < ids.size(); i++) {
+                    candidates.set(ids.get(i));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Growable list of primitive ints - postings are far too numerous to box
+     */
+    private static class IntList {
+
+        static final IntList EMPTY = new IntList();
+
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            values = new int[4];
+            size = 0;
+        }
+
+    }
+
+}
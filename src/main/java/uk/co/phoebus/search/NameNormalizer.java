@@ -0,0 +1,36 @@
+package uk.co.phoebus.search;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Folds names to the form they are indexed and matched in - lower case, accents and punctuation removed, and the
+ * common letters that don't decompose spelt out ("Øster-Groß" and "oster gross" both become "ostergross")
+ */
+final class NameNormalizer {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_LETTERS = Pattern.compile("[^\\p{L}]+");
+
+    private NameNormalizer() {
+    }
+
+    static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(name.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        String folded = COMBINING_MARKS.matcher(decomposed).replaceAll("")
+                .replace("ß", "ss")
+                .replace("æ", "ae")
+                .replace("œ", "oe")
+                .replace("ø", "o")
+                .replace("ł", "l")
+                .replace("đ", "d")
+                .replace("þ", "th")
+                .replace("ı", "i");
+        return NON_LETTERS.matcher(folded).replaceAll("");
+    }
+
+}
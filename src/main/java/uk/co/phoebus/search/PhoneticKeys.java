@@ -0,0 +1,69 @@
+package uk.co.phoebus.search;
+
+import org.apache.commons.codec.language.DoubleMetaphone;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Double Metaphone keys of names, used to block customers for {@link uk.co.phoebus.model.MatchMode#PHONETIC}
+ * searches - names that sound alike ("Stephen", "Steven", "Stefan") share a key, so only customers in the same block
+ * need comparing.
+ * <p>
+ * Both a name's primary and alternate keys are stored, and a search probes for both keys of the searched name, so two
+ * names match if any key of one is any key of the other - "Smith" (SM0, XMT) and "Schmidt" (XMT, SMT) find each other
+ * whichever is searched for. Names with no Latin letters have no key.
+ * <p>
+ * The migrations that backfilled the stored keys have their own copy of this, so changing the keys a name gets needs a
+ * new migration recomputing them.
+ */
+public final class PhoneticKeys {
+
+    private static final DoubleMetaphone DOUBLE_METAPHONE = new DoubleMetaphone();
+
+    private PhoneticKeys() {
+    }
+
+    /**
+     * The primary key stored against a name, or null if it has none
+     */
+    public static String of(String name) {
+        String key = DOUBLE_METAPHONE.doubleMetaphone(NameNormalizer.normalize(name));
+        return key == null || key.isEmpty() ? null : key;
+    }
+
+    /**
+     * The alternate key stored against a name, or null if it has none other than its primary key
+     */
+    public static String alternateOf(String name) {
+        String normalized = NameNormalizer.normalize(name);
+        String primary = DOUBLE_METAPHONE.doubleMetaphone(normalized);
+        String alternate = DOUBLE_METAPHONE.doubleMetaphone(normalized, true);
+        return alternate == null || alternate.isEmpty() || alternate.equals(primary) ? null : alternate;
+    }
+
+    /**
+     * The keys to probe for when searching for a name - its primary and (if different) alternate key
+     */
+    public static Set<String> probes(String name) {
+        String normalized = NameNormalizer.normalize(name);
+        String primary = DOUBLE_METAPHONE.doubleMetaphone(normalized);
+        if (primary == null || primary.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> probes = new LinkedHashSet<>();
+        probes.add(primary);
+        probes.add(DOUBLE_METAPHONE.doubleMetaphone(normalized, true));
+        return probes;
+    }
+
+    /**
+     * Edit distance between two names, ignoring case and accents
+     */
+    public static int distance(String searched, String stored) {
+        return NameMatchIndex.editDistance(NameNormalizer.normalize(searched), NameNormalizer.normalize(stored),
+                Integer.MAX_VALUE - 1);
+    }
+
+}
@@ -0,0 +1,448 @@
+package uk.co.phoebus.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.FieldError;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import uk.co.phoebus.db.ChangeEventRepository;
+import uk.co.phoebus.event.ChangeLogAdvancedEvent;
+import uk.co.phoebus.exception.KycRequestValidationException;
+import uk.co.phoebus.model.ChangeBatch;
+import uk.co.phoebus.model.ChangeEvent;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Serves the change log from an offset, as batches (optionally long-polled until there is something after the offset)
+ * or as a server-sent event stream.
+ * <p>
+ * Waiting long-polls and open streams are held as subscribers. When the change log advances, a single reader thread
+ * reads the new changes once and offers them to every subscriber - a subscriber that was already up to where the
+ * reader started takes its share, one that is further behind (just subscribed, or too slow) reads from its own offset
+ * until it has caught up. Events are written to streams on a bounded pool of sender threads, never the reader, and
+ * each subscriber has at most one delivery queued, so neither reads nor queued work grow with writes times
+ * subscribers. A stream that falls more than {@code max-batch-size} changes behind drops what it has buffered and
+ * catches up by reading; one that can't be queued (the senders' queue is full) is closed, to be resumed by the client
+ * from its Last-Event-ID.
+ */
+@Service
+@Slf4j
+public class ChangeFeedService {
+
+    @Autowired
+    private ChangeEventRepository changeEventRepository;
+
+    @Value("${kyc.changes.default-batch-size:100}")
+    private int defaultBatchSize;
+
+    @Value("${kyc.changes.max-batch-size:1000}")
+    private int maxBatchSize;
+
+    @Value("${kyc.changes.max-wait-seconds:30}")
+    private int maxWaitSeconds;
+
+    @Value("${kyc.changes.stream-timeout-seconds:1800}")
+    private long streamTimeoutSeconds;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService reader;
+    private final ExecutorService senders;
+    private final AtomicBoolean readScheduled = new AtomicBoolean();
+    // every change up to this offset has been read by the reader and offered to the subscribers (-1 until started)
+    private volatile long readUpTo = -1;
+
+    @Autowired
+    public ChangeFeedService(@Value("${kyc.changes.dispatch-threads:2}") int dispatchThreads,
+                             @Value("${kyc.changes.max-queued-deliveries:1000}") int maxQueuedDeliveries) {
+        // one read queued behind the running one at most, as reads are only scheduled when none is
+        this.reader = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1), r -> {
+            Thread thread = new Thread(r, "change-feed-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threads = new AtomicInteger();
+        this.senders = new ThreadPoolExecutor(dispatchThreads, dispatchThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedDeliveries), r -> {
+            Thread thread = new Thread(r, "change-feed-sender-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the reader from the changes readable now, before serving any requests - a subscriber from an earlier
+     * offset catches up by itself
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void start() {
+        if (readUpTo < 0) {
+            readUpTo = Math.max(changeEventRepository.readableUpTo(), 0);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reader.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    /**
+     * The changes after the offset, waiting up to {@code waitSeconds} for one if there are none yet
+     */
+    public DeferredResult<ChangeBatch> poll(long afterOffset, Integer limit, Integer waitSeconds) {
+        validateOffset(afterOffset);
+        int batchSize = batchSize(limit);
+        int wait = waitSeconds == null ? 0 : waitSeconds;
+        if (wait < 0 || wait > maxWaitSeconds) {
+            throw invalid("waitSeconds", "must be between 0 and " + maxWaitSeconds);
+        }
+
+        DeferredResult<ChangeBatch> result = new DeferredResult<>(TimeUnit.SECONDS.toMillis(wait));
+        ChangeBatch batch = read(afterOffset, batchSize);
+        if (!batch.getEvents().isEmpty() || wait == 0) {
+            result.setResult(batch);
+            return result;
+        }
+        LongPoll poll = new LongPoll(afterOffset, batchSize, result);
+        result.onTimeout(() -> result.setResult(batch));
+        result.onCompletion(() -> subscribers.remove(poll));
+        subscribers.add(poll);
+        // a change may have become readable between the read above and subscribing
+        schedule(poll);
+        return result;
+    }
+
+    /**
+     * Every change after the offset, and then each one as it becomes readable, until the client disconnects or the
+     * stream times out. Each event's id is its offset, so a reconnecting client resumes from its Last-Event-ID.
+     */
+    public SseEmitter stream(long afterOffset, Integer limit) {
+        validateOffset(afterOffset);
+        SseEmitter emitter = new SseEmitter(TimeUnit.SECONDS.toMillis(streamTimeoutSeconds));
+        EventStream stream = new EventStream(afterOffset, batchSize(limit), emitter);
+        emitter.onCompletion(() -> subscribers.remove(stream));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> subscribers.remove(stream));
+        subscribers.add(stream);
+        schedule(stream);
+        return emitter;
+    }
+
+    /**
+     * Schedules a read unless one is already waiting to run - the one running may have started before this change
+     */
+    @EventListener
+    public void changeLogAdvanced(ChangeLogAdvancedEvent event) {
+        if (event.getReadableUpTo() <= readUpTo || !readScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            reader.execute(this::readNewChanges);
+        } catch (RejectedExecutionException e) {
+            readScheduled.set(false);
+            log.debug("Change feed reader has shut down");
+        }
+    }
+
+    private void readNewChanges() {
+        readScheduled.set(false);
+        long from = readUpTo;
+        if (from < 0) {
+            return;
+        }
+        try {
+            Range range;
+            do {
+                range = readRange(from, maxBatchSize);
+                if (range.upTo <= from) {
+                    return;
+                }
+                readUpTo = range.upTo;
+                for (Subscriber subscriber : subscribers) {
+                    subscriber.offer(from, range);
+                }
+                from = range.upTo;
+            } while (range.events.size() == maxBatchSize);
+        } catch (RuntimeException e) {
+            // the next change read will pick these up
+            log.warn("Could not read the change log after offset {}: {}", from, e.getMessage());
+        }
+    }
+
+    /**
+     * Queues a delivery to the subscriber, unless it already has one queued
+     */
+    private void schedule(Subscriber subscriber) {
+        if (!subscriber.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            senders.execute(() -> {
+                subscriber.scheduled.set(false);
+                subscriber.deliver();
+            });
+        } catch (RejectedExecutionException e) {
+            subscriber.scheduled.set(false);
+            log.warn("Change feed senders are saturated (or shut down), dropping a subscriber");
+            subscriber.drop();
+        }
+    }
+
+    private ChangeBatch read(long afterOffset, int batchSize) {
+        List<ChangeEvent> events = changeEventRepository.findAfter(afterOffset, batchSize);
+        return batchOf(events, afterOffset);
+    }
+
+    private static ChangeBatch batchOf(List<ChangeEvent> events, long afterOffset) {
+        return ChangeBatch.builder()
+                .events(events)
+                .nextOffset(events.isEmpty() ? afterOffset : events.get(events.size() - 1).getOffset())
+                .build();
+    }
+
+    /**
+     * The changes after the offset, and the offset every change up to which has been read - past the last change if
+     * there were fewer than the limit, as offsets can be skipped
+     */
+    private Range readRange(long afterOffset, int limit) {
+        long readableUpTo = changeEventRepository.readableUpTo();
+        List<ChangeEvent> events = changeEventRepository.findAfter(afterOffset, limit);
+        long last = events.isEmpty() ? afterOffset : events.get(events.size() - 1).getOffset();
+        return new Range(events, events.size() == limit ? last : Math.max(last, readableUpTo));
+    }
+
+    private int batchSize(Integer limit) {
+        if (limit == null) {
+            return defaultBatchSize;
+        }
+        if (limit < 1 || limit > maxBatchSize) {
+            throw invalid("limit", "must be between 1 and " + maxBatchSize);
+        }
+        return limit;
+    }
+
+    private void validateOffset(long afterOffset) {
+        if (afterOffset < 0) {
+            throw invalid("after", "must not be negative");
+        }
+    }
+
+    private static KycRequestValidationException invalid(String field, String message) {
+        return new KycRequestValidationException(newArrayList(new FieldError("changes", field, message)));
+    }
+
+    private static class Range {
+
+        private final List<ChangeEvent> events;
+        private final long upTo;
+
+        Range(List<ChangeEvent> events, long upTo) {
+            this.events = events;
+            this.upTo = upTo;
+        }
+
+    }
+
+    private abstract static class Subscriber {
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * Called on the reader thread with the changes read after {@code readFrom} - must not block
+         */
+        abstract void offer(long readFrom, Range range);
+
+        /**
+         * Called on a sender thread, never concurrently with itself
+         */
+        abstract void deliver();
+
+        /**
+         * Called when a delivery couldn't be queued
+         */
+        abstract void drop();
+
+    }
+
+    private class LongPoll extends Subscriber {
+
+        private final long afterOffset;
+        private final int batchSize;
+        private final DeferredResult<ChangeBatch> result;
+
+        LongPoll(long afterOffset, int batchSize, DeferredResult<ChangeBatch> result) {
+            this.afterOffset = afterOffset;
+            this.batchSize = batchSize;
+            this.result = result;
+        }
+
+        /**
+         * Setting the result only hands it to the container, so is done on the reader thread
+         */
+        @Override
+        void offer(long readFrom, Range range) {
+            if (result.isSetOrExpired()) {
+                return;
+            }
+            if (afterOffset < readFrom) {
+                schedule(this);
+                return;
+            }
+            List<ChangeEvent> events = range.events.stream()
+                    .filter(event -> event.getOffset() > afterOffset)
+                    .limit(batchSize)
+                    .collect(Collectors.toList());
+            if (!events.isEmpty()) {
+                result.setResult(batchOf(events, afterOffset));
+            }
+        }
+
+        @Override
+        void deliver() {
+            if (result.isSetOrExpired()) {
+                return;
+            }
+            ChangeBatch batch = read(afterOffset, batchSize);
+            if (!batch.getEvents().isEmpty()) {
+                result.setResult(batch);
+            }
+        }
+
+        /**
+         * Left to time out with no changes, as it would have without any
+         */
+        @Override
+        void drop() {
+        }
+
+    }
+
+    private class EventStream extends Subscriber {
+
+        private final int batchSize;
+        private final SseEmitter emitter;
+        // guarded by this: every change up to sendingUpTo has been sent (or is being sent), and every change up to
+        // bufferedUpTo has been sent or is in pending - unless behind, when it reads from there on its own
+        private final List<ChangeEvent> pending = new ArrayList<>();
+        private long sendingUpTo;
+        private long bufferedUpTo;
+        private boolean behind = true;
+
+        EventStream(long afterOffset, int batchSize, SseEmitter emitter) {
+            this.sendingUpTo = afterOffset;
+            this.bufferedUpTo = afterOffset;
+            this.batchSize = batchSize;
+            this.emitter = emitter;
+        }
+
+        @Override
+        void offer(long readFrom, Range range) {
+            synchronized (this) {
+                if (behind) {
+                    // its own read will carry on past this range
+                    return;
+                }
+                if (bufferedUpTo < readFrom) {
+                    behind = true;
+                } else {
+                    range.events.stream().filter(event -> event.getOffset() > bufferedUpTo).forEach(pending::add);
+                    bufferedUpTo = Math.max(bufferedUpTo, range.upTo);
+                    if (pending.size() > maxBatchSize) {
+                        // the client isn't keeping up - rather than buffer without limit, read them again later
+                        pending.clear();
+                        bufferedUpTo = sendingUpTo;
+                        behind = true;
+                    }
+                }
+            }
+            schedule(this);
+        }
+
+        /**
+         * Sends what has been buffered, or reads from its offset while behind, until there is nothing left to send
+         */
+        @Override
+        void deliver() {
+            while (subscribers.contains(this)) {
+                List<ChangeEvent> events;
+                long readFrom;
+                synchronized (this) {
+                    if (!pending.isEmpty()) {
+                        events = new ArrayList<>(pending);
+                        pending.clear();
+                        sendingUpTo = bufferedUpTo;
+                        readFrom = -1;
+                    } else if (behind) {
+                        events = null;
+                        readFrom = bufferedUpTo;
+                    } else {
+                        return;
+                    }
+                }
+                if (events == null) {
+                    Range range;
+                    try {
+                        range = readRange(readFrom, batchSize);
+                    } catch (RuntimeException e) {
+                        log.warn("Could not read the change log after offset {}: {}", readFrom, e.getMessage());
+                        return;
+                    }
+                    events = range.events;
+                    synchronized (this) {
+                        sendingUpTo = range.upTo;
+                        bufferedUpTo = range.upTo;
+                        // caught up once past where the reader has got to, as it then offers everything after
+                        behind = events.size() == batchSize || range.upTo < readUpTo;
+                    }
+                }
+                if (!send(events)) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        void drop() {
+            subscribers.remove(this);
+            emitter.complete();
+        }
+
+        private boolean send(List<ChangeEvent> events) {
+            for (ChangeEvent event : events) {
+                try {
+                    emitter.send(SseEmitter.event()
+                            .id(String.valueOf(event.getOffset()))
+                            .name(event.getType().name())
+                            .data(event));
+                } catch (IOException | IllegalStateException e) {
+                    // the client has gone (or the stream has timed out)
+                    subscribers.remove(this);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
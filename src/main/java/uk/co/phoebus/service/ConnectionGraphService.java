@@ -0,0 +1,154 @@
+package uk.co.phoebus.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.FieldError;
+import uk.co.phoebus.db.CustomerAccountLinkRepository;
+import uk.co.phoebus.exception.KycRequestValidationException;
+import uk.co.phoebus.model.GraphNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Breadth-first walk of the customer/account link graph, a hop (one link) at a time.
+ * <p>
+ * Each hop is read for the whole frontier with set-based queries ({@code kyc.graph.chunk-size} ids per IN list)
+ * rather than per node, and a node is only visited once, so cycles (two customers sharing two accounts) end rather
+ * than repeat. Nodes are produced lazily, a hop at a time, as the stream is consumed.
+ */
+@Service
+public class ConnectionGraphService {
+
+    @Autowired
+    private CustomerAccountLinkRepository linkRepository;
+
+    @Value("${kyc.graph.default-hops:2}")
+    private int defaultHops;
+
+    @Value("${kyc.graph.max-hops:6}")
+    private int maxHops;
+
+    @Value("${kyc.graph.max-fan-out:1000}")
+    private int maxFanOut;
+
+    @Value("${kyc.graph.max-nodes:10000}")
+    private int maxNodes;
+
+    @Value("${kyc.graph.chunk-size:1000}")
+    private int chunkSize;
+
+    /**
+     * The start node followed by every node within {@code hops} links of it (the default if null), nearest first
+     */
+    public Stream<GraphNode> connections(GraphNode.Type startType, String startId, Integer hops) {
+        if (hops != null && (hops < 1 || hops > maxHops)) {
+            throw new KycRequestValidationException(newArrayList(new FieldError("connections", "maxHops",
+                    "must be between 1 and " + maxHops)));
+        }
+        Traversal traversal = new Traversal(startType, startId, hops == null ? defaultHops : hops);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(traversal, Spliterator.ORDERED), false)
+                .flatMap(List::stream);
+    }
+
+    private Map<String, List<String>> linked(GraphNode.Type type, List<String> ids) {
+        Map<String, List<String>> linked = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            List<String> chunk = ids.subList(from, Math.min(from + chunkSize, ids.size()));
+            linked.putAll(type == GraphNode.Type.CUSTOMER
+                    ? linkRepository.findAccountIdsByCustomerIds(chunk)
+                    : linkRepository.findCustomerIdsByAccountIds(chunk));
+        }
+        return linked;
+    }
+
+    /**
+     * Yields one hop's nodes at a time. A hop is only yielded once the next has been read, so its nodes can be
+     * marked truncated if not all of their links were followed.
+     */
+    private class Traversal implements Iterator<List<GraphNode>> {
+
+        private final int maxHops;
+        private final Set<String> visitedCustomers = new HashSet<>();
+        private final Set<String> visitedAccounts = new HashSet<>();
+        private List<GraphNode> frontier;
+
+        Traversal(GraphNode.Type startType, String startId, int maxHops) {
+            this.maxHops = maxHops;
+            visited(startType).add(startId);
+            frontier = Collections.singletonList(GraphNode.builder().type(startType).id(startId).build());
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !frontier.isEmpty();
+        }
+
+        @Override
+        public List<GraphNode> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<GraphNode> hop = frontier;
+            if (hop.get(0).getHops() == maxHops) {
+                frontier = Collections.emptyList();
+                return hop;
+            }
+            return expand(hop);
+        }
+
+        private List<GraphNode> expand(List<GraphNode> hop) {
+            GraphNode.Type type = hop.get(0).getType();
+            GraphNode.Type nextType = type == GraphNode.Type.CUSTOMER ? GraphNode.Type.ACCOUNT : GraphNode.Type.CUSTOMER;
+            Set<String> visitedNext = visited(nextType);
+            Map<String, List<String>> linked = linked(type, ids(hop));
+
+            List<GraphNode> expanded = new ArrayList<>(hop.size());
+            List<GraphNode> next = new ArrayList<>();
+            for (GraphNode node : hop) {
+                List<String> unvisited = new ArrayList<>(linked.getOrDefault(node.getId(), Collections.emptyList()));
+                unvisited.removeAll(visitedNext);
+                Collections.sort(unvisited);
+                int followed = Math.min(Math.min(unvisited.size(), maxFanOut), Math.max(0, maxNodes - visitedCount()));
+                for (String id : unvisited.subList(0, followed)) {
+                    visitedNext.add(id);
+                    next.add(GraphNode.builder().type(nextType).id(id).hops(node.getHops() + 1).via(node.getId()).build());
+                }
+                expanded.add(followed < unvisited.size() ? node.toBuilder().truncated(true).build() : node);
+            }
+            frontier = next;
+            return expanded;
+        }
+
+        private Set<String> visited(GraphNode.Type type) {
+            return type == GraphNode.Type.CUSTOMER ? visitedCustomers : visitedAccounts;
+        }
+
+        private int visitedCount() {
+            return visitedCustomers.size() + visitedAccounts.size();
+        }
+
+        private List<String> ids(Collection<GraphNode> nodes) {
+            List<String> ids = new ArrayList<>(nodes.size());
+            nodes.forEach(node -> ids.add(node.getId()));
+            return ids;
+        }
+
+    }
+
+}
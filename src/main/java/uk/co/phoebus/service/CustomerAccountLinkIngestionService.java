@@ -0,0 +1,71 @@
+package uk.co.phoebus.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import uk.co.phoebus.db.CustomerAccountLinkRepository;
+import uk.co.phoebus.model.BatchError;
+import uk.co.phoebus.model.BatchResult;
+import uk.co.phoebus.model.CustomerAccountLink;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static uk.co.phoebus.db.CustomerAccountLinkRepository.LINK_NOT_SAVED;
+
+/**
+ * Links customers to accounts in chunks, validating each chunk with set-based queries rather than per link
+ */
+@Service
+@Slf4j
+public class CustomerAccountLinkIngestionService {
+
+    @Autowired
+    private CustomerAccountLinkRepository linkRepository;
+
+    @Value("${kyc.customer-account-links.batch.chunk-size:1000}")
+    private int chunkSize;
+
+    public BatchResult ingest(List<CustomerAccountLink> links) {
+        long start = System.nanoTime();
+        List<BatchError> errors = new ArrayList<>();
+        for (int from = 0; from < links.size(); from += chunkSize) {
+            List<CustomerAccountLink> chunk = links.subList(from, Math.min(from + chunkSize, links.size()));
+            for (BatchError error : saveChunk(chunk)) {
+                errors.add(error.toBuilder().index(from + error.getIndex()).build());
+            }
+        }
+        return BatchResult.of(links.size(), null, errors, System.nanoTime() - start);
+    }
+
+    /**
+     * A link written concurrently between validation and insert fails its shard's insert, leaving that shard's links
+     * unsaved while other shards' commit - validating just those again reports it as a duplicate. Links that fail
+     * again are reported as not saved, rather than failing the request after earlier chunks have committed.
+     */
+    private List<BatchError> saveChunk(List<CustomerAccountLink> chunk) {
+        List<BatchError> errors = new ArrayList<>();
+        List<Integer> unsaved = new ArrayList<>();
+        for (BatchError error : linkRepository.saveAll(chunk)) {
+            if (LINK_NOT_SAVED.equals(error.getMessage())) {
+                unsaved.add(error.getIndex());
+            } else {
+                errors.add(error);
+            }
+        }
+        if (unsaved.isEmpty()) {
+            return errors;
+        }
+        log.warn("Insert of {} of {} links failed, revalidating them", unsaved.size(), chunk.size());
+        List<CustomerAccountLink> retry = new ArrayList<>(unsaved.size());
+        unsaved.forEach(i -> retry.add(chunk.get(i)));
+        for (BatchError error : linkRepository.saveAll(retry)) {
+            errors.add(error.toBuilder().index(unsaved.get(error.getIndex())).build());
+        }
+        errors.sort(Comparator.comparingInt(BatchError::getIndex));
+        return errors;
+    }
+
+}
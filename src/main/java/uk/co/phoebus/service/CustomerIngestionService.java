@@ -0,0 +1,149 @@
+package uk.co.phoebus.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import uk.co.phoebus.db.CustomerRepository;
+import uk.co.phoebus.id.IdGenerator;
+import uk.co.phoebus.model.BatchError;
+import uk.co.phoebus.model.BatchResult;
+import uk.co.phoebus.model.Customer;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streams customers from a JSON array or NDJSON body, validating each one and writing them in chunks
+ */
+@Service
+@Slf4j
+public class CustomerIngestionService {
+
+    public static final String DUPLICATE_RESOURCE_ERROR_MESSAGE = "Resource already exists";
+    public static final String SAVE_FAILED_ERROR_MESSAGE = "Could not be saved";
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private IdGenerator idGenerator;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${kyc.customers.batch.chunk-size:1000}")
+    private int chunkSize;
+
+    public BatchResult ingest(InputStream body) throws IOException {
+        long start = System.nanoTime();
+        List<String> ids = new ArrayList<>();
+        List<BatchError> errors = new ArrayList<>();
+        List<Customer> chunk = new ArrayList<>(chunkSize);
+        List<Integer> chunkIndexes = new ArrayList<>(chunkSize);
+
+        // readValues() handles both a root level array and a whitespace separated sequence of objects
+        try (MappingIterator<Customer> customers = objectMapper.readerFor(Customer.class).readValues(body)) {
+            int index = 0;
+            try {
+                while (customers.hasNextValue()) {
+                    ids.add(null);
+                    Customer customer;
+                    try {
+                        customer = customers.nextValue();
+                    } catch (JsonMappingException e) {
+                        errors.add(BatchError.builder().index(index++).message(e.getOriginalMessage()).build());
+                        continue;
+                    }
+                    if (validate(index, customer, errors)) {
+                        chunk.add(customer.toBuilder()
+                                .customerId(idGenerator.newId())
+                                .build());
+                        chunkIndexes.add(index);
+                    }
+                    if (chunk.size() == chunkSize) {
+                        flush(chunk, chunkIndexes, ids, errors);
+                    }
+                    index++;
+                }
+            } catch (JsonProcessingException e) {
+                // nothing can be read past a syntax error, so it ends the batch - the rows before it are still saved
+                if (ids.size() == index) {
+                    ids.add(null);
+                }
+                errors.add(BatchError.builder().index(index).message(e.getOriginalMessage()).build());
+            }
+        }
+        flush(chunk, chunkIndexes, ids, errors);
+
+        return BatchResult.of(ids.size(), ids, errors, System.nanoTime() - start);
+    }
+
+    private boolean validate(int index, Customer customer, List<BatchError> errors) {
+        Set<ConstraintViolation<Customer>> violations = validator.validate(customer);
+        for (ConstraintViolation<Customer> violation : violations) {
+            errors.add(BatchError.builder()
+                    .index(index)
+                    .field(violation.getPropertyPath().toString())
+                    .message(violation.getMessage())
+                    .build());
+        }
+        return violations.isEmpty();
+    }
+
+    private void flush(List<Customer> chunk, List<Integer> chunkIndexes, List<String> ids, List<BatchError> errors) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        // when sharded some shards' batches may have committed and others not - only the rest are retried
+        Set<String> saved = new HashSet<>();
+        customerRepository.saveAll(chunk).forEach(customer -> saved.add(customer.getCustomerId()));
+        List<Customer> unsaved = new ArrayList<>();
+        List<Integer> unsavedIndexes = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            if (saved.contains(chunk.get(i).getCustomerId())) {
+                ids.set(chunkIndexes.get(i), chunk.get(i).getCustomerId());
+            } else {
+                unsaved.add(chunk.get(i));
+                unsavedIndexes.add(chunkIndexes.get(i));
+            }
+        }
+        if (!unsaved.isEmpty()) {
+            log.warn("Batch insert of {} of {} customers failed, retrying individually", unsaved.size(), chunk.size());
+            saveIndividually(unsaved, unsavedIndexes, ids, errors);
+        }
+        chunk.clear();
+        chunkIndexes.clear();
+    }
+
+    private void saveIndividually(List<Customer> chunk, List<Integer> chunkIndexes, List<String> ids, List<BatchError> errors) {
+        for (int i = 0; i < chunk.size(); i++) {
+            Customer customer = chunk.get(i);
+            int index = chunkIndexes.get(i);
+            try {
+                customerRepository.save(customer);
+                ids.set(index, customer.getCustomerId());
+            } catch (DataIntegrityViolationException e) {
+                errors.add(BatchError.builder().index(index).message(DUPLICATE_RESOURCE_ERROR_MESSAGE).build());
+            } catch (DataAccessException e) {
+                errors.add(BatchError.builder().index(index).message(SAVE_FAILED_ERROR_MESSAGE).build());
+            }
+        }
+    }
+
+}
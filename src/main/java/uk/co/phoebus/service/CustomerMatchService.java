@@ -0,0 +1,118 @@
+package uk.co.phoebus.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.FieldError;
+import uk.co.phoebus.db.CustomerRepository;
+import uk.co.phoebus.exception.KycRequestValidationException;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerSearch;
+import uk.co.phoebus.model.MatchMode;
+import uk.co.phoebus.search.NameMatchIndex;
+import uk.co.phoebus.search.PhoneticKeys;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Customer searches that match names through the {@link NameMatchIndex}, ranked closest match first. Any other
+ * criteria in the search are applied to the ranked candidates in the database.
+ * <p>
+ * {@link MatchMode#PHONETIC} searches instead read the customers in the searched names' phonetic blocks from the
+ * database (an index probe per key) and rank those by edit distance.
+ */
+@Service
+public class CustomerMatchService {
+
+    @Autowired
+    private NameMatchIndex nameMatchIndex;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Value("${kyc.name-index.max-candidates:10000}")
+    private int maxCandidates;
+
+    @Value("${kyc.name-index.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${kyc.phonetic.max-block-size:10000}")
+    private int maxBlockSize;
+
+    public List<Customer> match(CustomerSearch search, MatchMode matchMode, int limit) {
+        CustomerSearch otherCriteria = search.toBuilder()
+                .forename(null)
+                .surname(null)
+                .build();
+        if (matchMode == MatchMode.PHONETIC) {
+            return matchPhonetically(search, otherCriteria, limit);
+        }
+        boolean filtered = !otherCriteria.equals(new CustomerSearch());
+        List<String> rankedIds = nameMatchIndex.match(search.getForename(), search.getSurname(), matchMode,
+                filtered ? Math.max(limit, maxCandidates) : limit);
+        if (rankedIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return matchingInRankOrder(rankedIds, otherCriteria, limit);
+    }
+
+    /**
+     * The candidates are read {@code kyc.name-index.chunk-size} at a time, best ranked first, until {@code limit} of
+     * them have matched - each chunk is one IN list, padded to no more than the next power of two
+     */
+    private List<Customer> matchingInRankOrder(List<String> rankedIds, CustomerSearch otherCriteria, int limit) {
+        List<Customer> matches = new ArrayList<>();
+        for (int from = 0; from < rankedIds.size() && matches.size() < limit; from += chunkSize) {
+            List<String> chunk = rankedIds.subList(from, Math.min(from + chunkSize, rankedIds.size()));
+            Map<String, Customer> customers = customerRepository.findByIdsAndSearch(chunk, otherCriteria).stream()
+                    .collect(Collectors.toMap(Customer::getCustomerId, Function.identity()));
+            chunk.stream()
+                    .map(customers::get)
+                    .filter(Objects::nonNull)
+                    .limit(limit - matches.size())
+                    .forEach(matches::add);
+        }
+        return matches;
+    }
+
+    /**
+     * Ranks the block by the summed edit distance of the searched names, ties by customer id. A search whose block is
+     * larger than {@code kyc.phonetic.max-block-size} is rejected, as only part of it could be ranked.
+     */
+    private List<Customer> matchPhonetically(CustomerSearch search, CustomerSearch otherCriteria, int limit) {
+        String forename = search.getForename();
+        String surname = search.getSurname();
+        Set<String> forenameKeys = forename == null ? null : PhoneticKeys.probes(forename);
+        Set<String> surnameKeys = surname == null ? null : PhoneticKeys.probes(surname);
+        if ((forenameKeys != null && forenameKeys.isEmpty()) || (surnameKeys != null && surnameKeys.isEmpty())) {
+            return new ArrayList<>();
+        }
+        List<Customer> block = customerRepository.findByPhoneticKeys(forenameKeys, surnameKeys, otherCriteria,
+                maxBlockSize);
+        if (block.size() > maxBlockSize) {
+            throw new KycRequestValidationException(newArrayList(new FieldError("search", "matchMode",
+                    MatchMode.PHONETIC + " matches more than " + maxBlockSize + " customers - add criteria to narrow the search")));
+        }
+        Map<String, Integer> distances = new HashMap<>();
+        for (Customer customer : block) {
+            int distance = (forename == null ? 0 : PhoneticKeys.distance(forename, customer.getForename()))
+                    + (surname == null ? 0 : PhoneticKeys.distance(surname, customer.getSurname()));
+            distances.put(customer.getCustomerId(), distance);
+        }
+        return block.stream()
+                .sorted(Comparator.comparing((Customer c) -> distances.get(c.getCustomerId())).thenComparing(Customer::getCustomerId))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+}
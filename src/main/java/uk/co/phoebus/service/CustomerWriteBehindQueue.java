@@ -0,0 +1,242 @@
+package uk.co.phoebus.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import uk.co.phoebus.db.CustomerRepository;
+import uk.co.phoebus.exception.KycWriteQueueFullException;
+import uk.co.phoebus.model.Customer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind for customer creates, enabled with {@code kyc.customers.write-behind.enabled}. Validated customers
+ * (already given their ids) are queued, and a single writer thread saves them in groups - everything queued, up to
+ * {@code max-group-size}, waiting at most {@code max-group-delay-ms} after the first for more - each group as one
+ * batch insert and one commit, rather than a commit per customer.
+ * <p>
+ * The queue is a {@link ConcurrentLinkedQueue} bounded by a separately counted capacity, so enqueueing never blocks
+ * or takes a lock - when it is full, creates are turned away ({@link KycWriteQueueFullException}) for the client to
+ * retry, rather than queueing without limit.
+ * <p>
+ * A queued customer exists only in this instance's memory until its group commits: it isn't readable, and is lost if
+ * the instance dies first. The future returned for each customer completes once it has been committed, or
+ * exceptionally if it couldn't be saved (a group that fails is retried one customer at a time, so one bad customer
+ * doesn't fail the rest). Shutting down stops accepting creates and commits everything already queued.
+ */
+@Service
+@Slf4j
+public class CustomerWriteBehindQueue {
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Value("${kyc.customers.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${kyc.customers.write-behind.capacity:10000}")
+    private int capacity;
+
+    @Value("${kyc.customers.write-behind.max-group-size:500}")
+    private int maxGroupSize;
+
+    @Value("${kyc.customers.write-behind.max-group-delay-ms:5}")
+    private long maxGroupDelayMs;
+
+    @Value("${kyc.customers.write-behind.commit-wait-ms:5000}")
+    private long commitWaitMs;
+
+    @Value("${kyc.customers.write-behind.shutdown-timeout-seconds:30}")
+    private long shutdownTimeoutSeconds;
+
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    // queued customers, including those being added - reserved before adding so the queue never exceeds capacity
+    private final AtomicInteger size = new AtomicInteger();
+    private final Counter failures;
+    private volatile boolean accepting;
+    private Thread writer;
+
+    @Autowired
+    public CustomerWriteBehindQueue(MeterRegistry meterRegistry) {
+        Gauge.builder("kyc.customers.write-behind.queued", size, AtomicInteger::get).register(meterRegistry);
+        failures = meterRegistry.counter("kyc.customers.write-behind.failed");
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        accepting = true;
+        writer = new Thread(this::write, "customer-write-behind");
+        writer.start();
+    }
+
+    /**
+     * Commits everything already queued before returning (or giving up after the shutdown timeout)
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        accepting = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(shutdownTimeoutSeconds));
+        if (writer.isAlive()) {
+            log.warn("Customer write-behind queue still had {} customers to write at shutdown", size.get());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues the customer, returning a future completed once it has been committed
+     *
+     * @throws KycWriteQueueFullException if the queue is full or shutting down
+     */
+    public CompletableFuture<Customer> enqueue(Customer customer) {
+        if (!accepting || !reserve()) {
+            throw new KycWriteQueueFullException("Customer write-behind queue is full");
+        }
+        if (!accepting) {
+            // shut down since the check above, so the writer may have seen nothing queued and stopped - the slot
+            // reserved now keeps it going if it hasn't
+            size.decrementAndGet();
+            throw new KycWriteQueueFullException("Customer write-behind queue is shutting down");
+        }
+        Pending pending = new Pending(customer);
+        queue.add(pending);
+        LockSupport.unpark(writer);
+        return pending.committed;
+    }
+
+    /**
+     * Waits up to {@code commit-wait-ms} for a queued customer to be committed
+     *
+     * @return the customer once committed, or empty if it is still queued (or being written)
+     */
+    public Optional<Customer> awaitCommit(CompletableFuture<Customer> committed) {
+        try {
+            return Optional.of(committed.get(commitWaitMs, TimeUnit.MILLISECONDS));
+        } catch (TimeoutException e) {
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private boolean reserve() {
+        int queued;
+        do {
+            queued = size.get();
+            if (queued >= capacity) {
+                return false;
+            }
+        } while (!size.compareAndSet(queued, queued + 1));
+        return true;
+    }
+
+    private void write() {
+        List<Pending> group = new ArrayList<>(maxGroupSize);
+        while (accepting || size.get() > 0) {
+            Pending first = queue.poll();
+            if (first == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            group.add(first);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxGroupDelayMs);
+            while (group.size() < maxGroupSize) {
+                Pending next = queue.poll();
+                if (next != null) {
+                    group.add(next);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !accepting) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            size.addAndGet(-group.size());
+            save(group);
+            group.clear();
+        }
+    }
+
+    private void save(List<Pending> group) {
+        List<Customer> customers = new ArrayList<>(group.size());
+        group.forEach(pending -> customers.add(pending.customer));
+        try {
+            // when sharded some shards' batches may have committed and others not - only the rest are retried
+            Set<String> saved = new HashSet<>();
+            customerRepository.saveAll(customers).forEach(customer -> saved.add(customer.getCustomerId()));
+            List<Pending> unsaved = new ArrayList<>();
+            for (Pending pending : group) {
+                if (saved.contains(pending.customer.getCustomerId())) {
+                    pending.committed.complete(pending.customer);
+                } else {
+                    unsaved.add(pending);
+                }
+            }
+            if (!unsaved.isEmpty()) {
+                log.warn("Write-behind insert of {} of {} customers failed, retrying individually", unsaved.size(),
+                        group.size());
+                unsaved.forEach(this::saveIndividually);
+            }
+        } catch (RuntimeException e) {
+            log.error("Write-behind insert of {} customers failed", group.size(), e);
+            failures.increment(group.size());
+            group.forEach(pending -> pending.committed.completeExceptionally(e));
+        }
+    }
+
+    private void saveIndividually(Pending pending) {
+        try {
+            pending.committed.complete(customerRepository.save(pending.customer));
+        } catch (RuntimeException e) {
+            log.warn("Write-behind insert of customer {} failed", pending.customer.getCustomerId(), e);
+            failures.increment();
+            pending.committed.completeExceptionally(e);
+        }
+    }
+
+    private static class Pending {
+
+        private final Customer customer;
+        private final CompletableFuture<Customer> committed = new CompletableFuture<>();
+
+        Pending(Customer customer) {
+            this.customer = customer;
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+package uk.co.phoebus.web;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.FieldError;
+import uk.co.phoebus.exception.KycRequestValidationException;
+import uk.co.phoebus.model.LookupResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static uk.co.phoebus.db.UuidStringConverter.canonical;
+
+/**
+ * Id limits and chunking for the bulk read endpoints.
+ * <p>
+ * Ids are fetched {@code kyc.lookup.chunk-size} at a time, so each chunk costs one IN query plus whatever its enricher
+ * runs (a single grouped link query for customers and accounts), however many ids are asked for.
+ */
+@Component
+public class BulkLookup {
+
+    @Value("${kyc.lookup.max-ids:10000}")
+    private int maxIds;
+
+    @Value("${kyc.lookup.chunk-size:1000}")
+    private int chunkSize;
+
+    public <T> LookupResult<T> lookup(List<String> ids, Function<List<String>, List<T>> fetchChunk,
+                                      Function<T, String> idOf, UnaryOperator<List<T>> chunkMapper) {
+        if (ids.size() > maxIds) {
+            throw invalidIds("must not contain more than " + maxIds + " ids");
+        }
+        if (ids.contains(null)) {
+            throw invalidIds("must not contain null");
+        }
+        List<String> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        // keyed by the id as the database returns it, which an id asked for may differ from in case
+        Map<String, T> byId = new HashMap<>();
+        for (int from = 0; from < distinctIds.size(); from += chunkSize) {
+            List<T> chunk = fetchChunk.apply(distinctIds.subList(from, Math.min(from + chunkSize, distinctIds.size())));
+            if (!chunk.isEmpty()) {
+                chunkMapper.apply(chunk).forEach(found -> byId.put(idOf.apply(found), found));
+            }
+        }
+
+        List<T> found = new ArrayList<>(byId.size());
+        List<String> missingIds = new ArrayList<>();
+        for (String id : distinctIds) {
+            T value = byId.get(canonical(id));
+            if (value != null) {
+                found.add(value);
+            } else {
+                missingIds.add(id);
+            }
+        }
+        return LookupResult.<T>builder()
+                .found(found)
+                .missingIds(missingIds)
+                .build();
+    }
+
+    private KycRequestValidationException invalidIds(String message) {
+        return new KycRequestValidationException(newArrayList(new FieldError("lookup", "ids", message)));
+    }
+
+}
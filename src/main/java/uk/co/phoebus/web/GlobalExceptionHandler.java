@@ -1,13 +1,21 @@
 package uk.co.phoebus.web;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import uk.co.phoebus.exception.KycRepositoryException;
 import uk.co.phoebus.exception.KycRequestValidationException;
+import uk.co.phoebus.exception.KycWriteQueueFullException;
 
 import java.util.List;
 import java.util.stream.Collectors;
@@ -19,6 +27,10 @@ import static com.google.common.collect.Lists.newArrayList;
 public class GlobalExceptionHandler {
 
     public static final String DUPLICATE_RESOURCE_ERROR_MESSAGE = "Resource already exists";
+    public static final String SERVICE_UNAVAILABLE_ERROR_MESSAGE = "Service temporarily unavailable, retry later";
+
+    @Value("${kyc.datasource.pool-exhausted-retry-after-seconds:1}")
+    private long poolExhaustedRetryAfterSeconds;
 
     @ExceptionHandler
     public ResponseEntity<List<RestError>> constraintViolationException(DataIntegrityViolationException e) {
@@ -47,6 +59,31 @@ public class GlobalExceptionHandler {
         return ResponseEntity.badRequest().body(newArrayList(error));
     }
 
+    @ExceptionHandler
+    public ResponseEntity<List<RestError>> malformedRequestException(JsonProcessingException e) {
+        log.warn("malformedRequestException", e);
+        RestError error = RestError.builder()
+                .message(e.getOriginalMessage())
+                .build();
+        return ResponseEntity.badRequest().body(newArrayList(error));
+    }
+
+    /**
+     * No database connection could be acquired within the pool's connection timeout, or the write-behind queue is
+     * full - fail fast rather than let requests queue behind an exhausted pool or an overloaded writer
+     */
+    @ExceptionHandler({TransientDataAccessResourceException.class, CannotGetJdbcConnectionException.class,
+            CannotCreateTransactionException.class, KycWriteQueueFullException.class})
+    public ResponseEntity<List<RestError>> connectionUnavailableException(Exception e) {
+        log.warn("connectionUnavailableException: {}", e.getMessage());
+        RestError error = RestError.builder()
+                .message(SERVICE_UNAVAILABLE_ERROR_MESSAGE)
+                .build();
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(poolExhaustedRetryAfterSeconds))
+                .body(newArrayList(error));
+    }
+
     private RestError toRestError(FieldError fieldError) {
         return RestError.builder()
                 .field(fieldError.getField())
@@ -0,0 +1,85 @@
+package uk.co.phoebus.web;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.FieldError;
+import uk.co.phoebus.exception.KycRequestValidationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Page size limits and opaque continuation tokens for the search endpoints.
+ * <p>
+ * A token wraps the key of the last row on the previous page, so the next page is a seek on the primary key
+ * rather than an OFFSET - each page costs the same however deep the client has paged.
+ */
+@Component
+public class KeysetPaging {
+
+    public static final String CONTINUATION_TOKEN_HEADER = "X-Continuation-Token";
+
+    private static final String TOKEN_PREFIX = "k1:";
+
+    @Value("${kyc.search.default-page-size:100}")
+    private int defaultPageSize;
+
+    @Value("${kyc.search.max-page-size:1000}")
+    private int maxPageSize;
+
+    public int pageSize(Integer requested) {
+        if (requested == null) {
+            return defaultPageSize;
+        }
+        if (requested < 1) {
+            throw invalidParameter("pageSize", "must be greater than or equal to 1");
+        }
+        return Math.min(requested, maxPageSize);
+    }
+
+    public String decode(String continuationToken) {
+        if (continuationToken == null) {
+            return null;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8);
+            if (decoded.startsWith(TOKEN_PREFIX)) {
+                return decoded.substring(TOKEN_PREFIX.length());
+            }
+        } catch (IllegalArgumentException e) {
+            // fall through to the bad request below
+        }
+        throw invalidParameter("continuationToken", "is not a valid continuation token");
+    }
+
+    public String encode(String key) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((TOKEN_PREFIX + key).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private KycRequestValidationException invalidParameter(String parameter, String message) {
+        return new KycRequestValidationException(newArrayList(new FieldError("search", parameter, message)));
+    }
+
+    /**
+     * Builds the response for a page fetched with {@code pageSize + 1} rows - the extra row only signals that
+     * another page exists, and is dropped before {@code pageMapper} is applied
+     */
+    public <T> ResponseEntity<List<T>> toResponse(List<T> fetched, int pageSize, Function<T, String> keyOf,
+                                                  UnaryOperator<List<T>> pageMapper) {
+        if (fetched.size() <= pageSize) {
+            return ResponseEntity.ok(pageMapper.apply(fetched));
+        }
+        List<T> page = fetched.subList(0, pageSize);
+        return ResponseEntity.ok()
+                .header(CONTINUATION_TOKEN_HEADER, encode(keyOf.apply(page.get(pageSize - 1))))
+                .body(pageMapper.apply(page));
+    }
+
+}
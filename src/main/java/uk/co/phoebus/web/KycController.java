@@ -2,50 +2,134 @@ package uk.co.phoebus.web;
 
 import lombok.AllArgsConstructor;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
+import org.springframework.validation.FieldError;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.co.phoebus.cache.KycViewCache;
 import uk.co.phoebus.db.AccountRepository;
 import uk.co.phoebus.db.CustomerAccountLinkRepository;
 import uk.co.phoebus.db.CustomerRepository;
 import uk.co.phoebus.exception.KycRequestValidationException;
+import uk.co.phoebus.id.IdGenerator;
+import uk.co.phoebus.service.ChangeFeedService;
+import uk.co.phoebus.service.ConnectionGraphService;
+import uk.co.phoebus.service.CustomerAccountLinkIngestionService;
+import uk.co.phoebus.service.CustomerIngestionService;
+import uk.co.phoebus.service.CustomerMatchService;
+import uk.co.phoebus.service.CustomerWriteBehindQueue;
 import uk.co.phoebus.model.Account;
+import uk.co.phoebus.model.BatchResult;
+import uk.co.phoebus.model.ChangeBatch;
 import uk.co.phoebus.model.Customer;
 import uk.co.phoebus.model.CustomerAccountLink;
+import uk.co.phoebus.model.CustomerSearch;
+import uk.co.phoebus.model.GraphNode;
+import uk.co.phoebus.model.LookupResult;
+import uk.co.phoebus.model.MatchMode;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.google.common.collect.Lists.newArrayList;
 
 @RestController
 @AllArgsConstructor
 public class KycController {
 
+    static final String PREFER = "Prefer";
+    static final String PREFERENCE_APPLIED = "Preference-Applied";
+    static final String RESPOND_ASYNC = "respond-async";
+
     private CustomerRepository customerRepository;
     private CustomerAccountLinkRepository linkRepository;
     private AccountRepository accountRepository;
+    private CustomerIngestionService customerIngestionService;
+    private CustomerAccountLinkIngestionService linkIngestionService;
+    private CustomerMatchService customerMatchService;
+    private ConnectionGraphService connectionGraphService;
+    private ChangeFeedService changeFeedService;
+    private CustomerWriteBehindQueue customerWriteBehindQueue;
+    private KeysetPaging keysetPaging;
+    private BulkLookup bulkLookup;
+    private NdjsonResponses ndjsonResponses;
+    private KycViewCache kycViewCache;
+    private IdGenerator idGenerator;
 
     @PostMapping("/customers")
-    public Customer createCustomer(@Valid @RequestBody Customer customer,
-                                   BindingResult bindingResult) {
+    public ResponseEntity<Customer> createCustomer(@Valid @RequestBody Customer customer,
+                                                   BindingResult bindingResult,
+                                                   @RequestHeader(value = PREFER, required = false) String prefer) {
         if (bindingResult.hasFieldErrors()) {
             throw new KycRequestValidationException(bindingResult.getFieldErrors());
         }
         Customer withId = customer.toBuilder()
-                .customerId(UUID.randomUUID().toString())
+                .customerId(idGenerator.newId())
                 .build();
-        return customerRepository.save(withId).toBuilder().accountIds(customer.getAccountIds()).build();
+        if (customerWriteBehindQueue.isEnabled()) {
+            return createCustomerWriteBehind(withId, customer.getAccountIds(), prefersRespondAsync(prefer));
+        }
+        return ResponseEntity.ok(customerRepository.save(withId).toBuilder().accountIds(customer.getAccountIds()).build());
+    }
+
+    /**
+     * 200 once the customer's group has been committed, or 202 with its id if the client sent
+     * {@code Prefer: respond-async} (or the commit is taking longer than the write-behind commit wait) - a 202'd
+     * customer is only queued, and isn't readable until it has been committed
+     */
+    private ResponseEntity<Customer> createCustomerWriteBehind(Customer customer, List<String> accountIds,
+                                                               boolean respondAsync) {
+        CompletableFuture<Customer> committed = customerWriteBehindQueue.enqueue(customer);
+        Optional<Customer> saved = respondAsync ? Optional.empty() : customerWriteBehindQueue.awaitCommit(committed);
+        ResponseEntity.BodyBuilder response = saved.isPresent() ? ResponseEntity.ok()
+                : ResponseEntity.accepted();
+        if (respondAsync) {
+            response.header(PREFERENCE_APPLIED, RESPOND_ASYNC);
+        }
+        return response.body(saved.orElse(customer).toBuilder().accountIds(accountIds).build());
+    }
+
+    private static boolean prefersRespondAsync(String prefer) {
+        return prefer != null && Arrays.stream(prefer.split("[,;]"))
+                .map(String::trim)
+                .anyMatch(RESPOND_ASYNC::equalsIgnoreCase);
+    }
+
+    @PostMapping(value = "/customers/batch",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, KycMediaTypes.APPLICATION_NDJSON_VALUE})
+    public BatchResult createCustomers(InputStream body) throws IOException {
+        return customerIngestionService.ingest(body);
     }
 
     @GetMapping("/customers/{customerId}")
     public Customer getCustomerById(@PathVariable("customerId") String customerId) {
-        Optional<Customer> customer = customerRepository.findById(customerId)
-                .map(this::enrichWithAccountIds);
+        Optional<Customer> customer = kycViewCache.getCustomer(customerId,
+                id -> customerRepository.findById(id).map(this::enrichWithAccountIds));
         return customer.orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
     }
 
+    @PostMapping("/customers/lookup")
+    public LookupResult<Customer> lookupCustomers(@RequestBody List<String> customerIds) {
+        return bulkLookup.lookup(customerIds, customerRepository::findByIds, Customer::getCustomerId,
+                this::enrichWithAccountIds);
+    }
+
     private Customer enrichWithAccountIds(Customer customer) {
         List<CustomerAccountLink> links = linkRepository.findByCustomerId(customer.getCustomerId());
         List<String> accountIds = links.stream()
@@ -56,9 +140,88 @@ public class KycController {
                 .build();
     }
 
+    @GetMapping("/customers/{customerId}/connections")
+    public List<GraphNode> getCustomerConnections(@PathVariable("customerId") String customerId,
+                                                  @RequestParam(required = false) Integer maxHops) {
+        return connections(GraphNode.Type.CUSTOMER, customerId, maxHops).collect(Collectors.toList());
+    }
+
+    @GetMapping(value = "/customers/{customerId}/connections", produces = KycMediaTypes.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody streamCustomerConnections(@PathVariable("customerId") String customerId,
+                                                           @RequestParam(required = false) Integer maxHops) {
+        Stream<GraphNode> connections = connections(GraphNode.Type.CUSTOMER, customerId, maxHops);
+        return ndjsonResponses.body(() -> connections);
+    }
+
+    /**
+     * Checks the start exists before anything is written - the walk itself only runs as the stream is consumed
+     */
+    private Stream<GraphNode> connections(GraphNode.Type startType, String startId, Integer maxHops) {
+        boolean exists = startType == GraphNode.Type.CUSTOMER
+                ? customerRepository.findById(startId).isPresent()
+                : accountRepository.findById(startId).isPresent();
+        if (!exists) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        return connectionGraphService.connections(startType, startId, maxHops);
+    }
+
     @PostMapping("/customer-searches")
-    public List<Customer> searchCustomers(@RequestBody Customer customer) {
-        return customerRepository.findByExample(customer);
+    public ResponseEntity<List<Customer>> searchCustomers(@Valid @RequestBody CustomerSearch search,
+                                                          BindingResult bindingResult,
+                                                          @RequestParam(defaultValue = "false") boolean includeAccountIds,
+                                                          @RequestParam(required = false) Integer pageSize,
+                                                          @RequestParam(required = false) String continuationToken,
+                                                          @RequestParam(defaultValue = "EXACT") MatchMode matchMode) {
+        if (bindingResult.hasFieldErrors()) {
+            throw new KycRequestValidationException(bindingResult.getFieldErrors());
+        }
+        int limit = keysetPaging.pageSize(pageSize);
+        if (matchMode != MatchMode.EXACT) {
+            return ResponseEntity.ok(matchCustomers(search, matchMode, limit, continuationToken, includeAccountIds));
+        }
+        List<Customer> customers = customerRepository.findBySearch(search,
+                keysetPaging.decode(continuationToken), limit + 1);
+        return keysetPaging.toResponse(customers, limit, Customer::getCustomerId,
+                includeAccountIds ? this::enrichWithAccountIds : UnaryOperator.identity());
+    }
+
+    /**
+     * Ranked, so there is a single page of the closest {@code limit} matches
+     */
+    private List<Customer> matchCustomers(CustomerSearch search, MatchMode matchMode, int limit,
+                                          String continuationToken, boolean includeAccountIds) {
+        if (continuationToken != null) {
+            throw new KycRequestValidationException(newArrayList(new FieldError("search", "continuationToken",
+                    "is only supported with matchMode " + MatchMode.EXACT)));
+        }
+        if (search.getForename() == null && search.getSurname() == null) {
+            throw new KycRequestValidationException(newArrayList(new FieldError("search", "matchMode",
+                    matchMode + " requires a forename or surname")));
+        }
+        List<Customer> customers = customerMatchService.match(search, matchMode, limit);
+        return includeAccountIds ? enrichWithAccountIds(customers) : customers;
+    }
+
+    @PostMapping(value = "/customer-searches", produces = KycMediaTypes.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody streamCustomers(@Valid @RequestBody CustomerSearch search,
+                                                 BindingResult bindingResult) {
+        if (bindingResult.hasFieldErrors()) {
+            throw new KycRequestValidationException(bindingResult.getFieldErrors());
+        }
+        return ndjsonResponses.body(() -> customerRepository.streamBySearch(search));
+    }
+
+    private List<Customer> enrichWithAccountIds(List<Customer> customers) {
+        Set<String> customerIds = customers.stream()
+                .map(Customer::getCustomerId)
+                .collect(Collectors.toSet());
+        Map<String, List<String>> accountIds = linkRepository.findAccountIdsByCustomerIds(customerIds);
+        return customers.stream()
+                .map(c -> c.toBuilder()
+                        .accountIds(accountIds.getOrDefault(c.getCustomerId(), new ArrayList<>()))
+                        .build())
+                .collect(Collectors.toList());
     }
 
     @PostMapping("/accounts")
@@ -68,7 +231,7 @@ public class KycController {
             throw new KycRequestValidationException(bindingResult.getFieldErrors());
         }
         Account withId = account.toBuilder()
-                .accountId(UUID.randomUUID().toString())
+                .accountId(idGenerator.newId())
                 .build();
         return accountRepository.save(withId);
     }
@@ -76,11 +239,17 @@ public class KycController {
 
     @GetMapping("/accounts/{accountId}")
     public Account getAccountById(@PathVariable("accountId") String accountId) {
-        List<CustomerAccountLink> links = linkRepository.findByAccountId(accountId);
-        Optional<Account> byId = accountRepository.findById(accountId).map(this::enrichWithCustomerIds);
+        Optional<Account> byId = kycViewCache.getAccount(accountId,
+                id -> accountRepository.findById(id).map(this::enrichWithCustomerIds));
         return byId.orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
     }
 
+    @PostMapping("/accounts/lookup")
+    public LookupResult<Account> lookupAccounts(@RequestBody List<String> accountIds) {
+        return bulkLookup.lookup(accountIds, accountRepository::findByIds, Account::getAccountId,
+                this::enrichWithCustomerIds);
+    }
+
     private Account enrichWithCustomerIds(Account account) {
         List<CustomerAccountLink> links = linkRepository.findByAccountId(account.getAccountId());
         List<String> customerIds = links.stream()
@@ -91,9 +260,41 @@ public class KycController {
                 .build();
     }
 
+    @GetMapping("/accounts/{accountId}/connections")
+    public List<GraphNode> getAccountConnections(@PathVariable("accountId") String accountId,
+                                                 @RequestParam(required = false) Integer maxHops) {
+        return connections(GraphNode.Type.ACCOUNT, accountId, maxHops).collect(Collectors.toList());
+    }
+
+    @GetMapping(value = "/accounts/{accountId}/connections", produces = KycMediaTypes.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody streamAccountConnections(@PathVariable("accountId") String accountId,
+                                                          @RequestParam(required = false) Integer maxHops) {
+        Stream<GraphNode> connections = connections(GraphNode.Type.ACCOUNT, accountId, maxHops);
+        return ndjsonResponses.body(() -> connections);
+    }
+
     @PostMapping("/account-searches")
-    public List<Account> searchAccounts(@RequestBody Account account) {
-        return accountRepository.findByExample(account);
+    public ResponseEntity<List<Account>> searchAccounts(@RequestBody Account account,
+                                                        @RequestParam(defaultValue = "false") boolean includeCustomerIds,
+                                                        @RequestParam(required = false) Integer pageSize,
+                                                        @RequestParam(required = false) String continuationToken) {
+        int limit = keysetPaging.pageSize(pageSize);
+        List<Account> accounts = accountRepository.findByExample(account,
+                keysetPaging.decode(continuationToken), limit + 1);
+        return keysetPaging.toResponse(accounts, limit, Account::getAccountId,
+                includeCustomerIds ? this::enrichWithCustomerIds : UnaryOperator.identity());
+    }
+
+    private List<Account> enrichWithCustomerIds(List<Account> accounts) {
+        Set<String> accountIds = accounts.stream()
+                .map(Account::getAccountId)
+                .collect(Collectors.toSet());
+        Map<String, List<String>> customerIds = linkRepository.findCustomerIdsByAccountIds(accountIds);
+        return accounts.stream()
+                .map(a -> a.toBuilder()
+                        .customerIds(customerIds.getOrDefault(a.getAccountId(), new ArrayList<>()))
+                        .build())
+                .collect(Collectors.toList());
     }
 
     @PostMapping("/customer-account-links")
@@ -101,4 +302,27 @@ public class KycController {
         return linkRepository.save(customerAccountLink);
     }
 
+    @PostMapping("/customer-account-links/batch")
+    public BatchResult createCustomerAccountLinks(@RequestBody List<CustomerAccountLink> customerAccountLinks) {
+        return linkIngestionService.ingest(customerAccountLinks);
+    }
+
+    @GetMapping("/changes")
+    public DeferredResult<ChangeBatch> getChanges(@RequestParam(defaultValue = "0") long after,
+                                                  @RequestParam(required = false) Integer limit,
+                                                  @RequestParam(required = false) Integer waitSeconds) {
+        return changeFeedService.poll(after, limit, waitSeconds);
+    }
+
+    /**
+     * A reconnecting client's Last-Event-ID (the offset of the last change it received) takes precedence over
+     * {@code after}
+     */
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@RequestParam(defaultValue = "0") long after,
+                                    @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                                    @RequestParam(required = false) Integer limit) {
+        return changeFeedService.stream(lastEventId != null ? lastEventId : after, limit);
+    }
+
 }
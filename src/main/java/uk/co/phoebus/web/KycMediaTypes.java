@@ -0,0 +1,10 @@
+package uk.co.phoebus.web;
+
+import org.springframework.http.MediaType;
+
+public abstract class KycMediaTypes {
+
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final MediaType APPLICATION_NDJSON = MediaType.valueOf(APPLICATION_NDJSON_VALUE);
+
+}
@@ -0,0 +1,87 @@
+package uk.co.phoebus.web;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Writes a stream of objects as newline delimited JSON, one object at a time, so the full result is never held in
+ * memory
+ * <p>
+ * A long export can outlast the async request timeout every other async request gets, so these responses are given
+ * {@code kyc.ndjson.timeout-seconds} instead, set just before the response starts being written.
+ */
+@Component
+public class NdjsonResponses implements WebMvcConfigurer {
+
+    private static final int NEWLINE = '\n';
+    private static final String STREAMING = NdjsonResponses.class.getName() + ".STREAMING";
+
+    private final ObjectWriter writer;
+
+    @Value("${kyc.ndjson.timeout-seconds:1800}")
+    private long timeoutSeconds;
+
+    @Autowired
+    public NdjsonResponses(ObjectMapper objectMapper) {
+        this.writer = objectMapper.writer()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * The stream is only opened (and closed again) once the response is being written
+     */
+    public <T> StreamingResponseBody body(Supplier<Stream<T>> source) {
+        RequestContextHolder.currentRequestAttributes().setAttribute(STREAMING, true, RequestAttributes.SCOPE_REQUEST);
+        return out -> {
+            try (Stream<T> values = source.get()) {
+                values.forEach(value -> write(out, value));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(new CallableProcessingInterceptor() {
+            @Override
+            public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+                if (request.getAttribute(STREAMING, RequestAttributes.SCOPE_REQUEST) != null) {
+                    ((AsyncWebRequest) request).setTimeout(TimeUnit.SECONDS.toMillis(timeoutSeconds));
+                }
+            }
+        });
+    }
+
+    private void write(OutputStream out, Object value) {
+        try {
+            writer.writeValue(out, value);
+            out.write(NEWLINE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+package uk.co.phoebus.web.reactive;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.beanvalidation.SpringValidatorAdapter;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import uk.co.phoebus.db.ReactiveAccountRepository;
+import uk.co.phoebus.db.ReactiveCustomerAccountLinkRepository;
+import uk.co.phoebus.db.ReactiveCustomerRepository;
+import uk.co.phoebus.exception.KycRequestValidationException;
+import uk.co.phoebus.id.IdGenerator;
+import uk.co.phoebus.model.Account;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerSearch;
+import uk.co.phoebus.model.CustomerAccountLink;
+import uk.co.phoebus.web.KycMediaTypes;
+
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * WebFlux mirror of {@link uk.co.phoebus.web.KycController}, routed by {@link ReactiveKycRoutes}. Searches are emitted
+ * with backpressure - streamed as NDJSON (or {@code application/stream+json}) the next page of results is only fetched
+ * once the client has read the last one.
+ * <p>
+ * Reads go straight to the database rather than through the servlet stack's view cache.
+ */
+@Component
+public class ReactiveKycHandler {
+
+    private static final List<MediaType> STREAMING_MEDIA_TYPES = List.of(
+            KycMediaTypes.APPLICATION_NDJSON, MediaType.APPLICATION_STREAM_JSON);
+
+    @Autowired
+    private ReactiveCustomerRepository customerRepository;
+
+    @Autowired
+    private ReactiveAccountRepository accountRepository;
+
+    @Autowired
+    private ReactiveCustomerAccountLinkRepository linkRepository;
+
+    @Autowired
+    private IdGenerator idGenerator;
+
+    private SpringValidatorAdapter validator;
+
+    @Autowired
+    public void setValidator(Validator validator) {
+        this.validator = new SpringValidatorAdapter(validator);
+    }
+
+    public Mono<ServerResponse> createCustomer(ServerRequest request) {
+        return request.bodyToMono(Customer.class)
+                .map(this::validate)
+                .flatMap(customer -> customerRepository.save(customer.toBuilder()
+                        .customerId(idGenerator.newId())
+                        .build())
+                        .map(saved -> saved.toBuilder().accountIds(customer.getAccountIds()).build()))
+                .flatMap(customer -> ServerResponse.ok().bodyValue(customer));
+    }
+
+    public Mono<ServerResponse> getCustomerById(ServerRequest request) {
+        return customerRepository.findById(request.pathVariable("customerId"))
+                .flatMap(this::enrichWithAccountIds)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)))
+                .flatMap(customer -> ServerResponse.ok().bodyValue(customer));
+    }
+
+    private Mono<Customer> enrichWithAccountIds(Customer customer) {
+        return enrichPageWithAccountIds(List.of(customer)).map(customers -> customers.get(0));
+    }
+
+    public Mono<ServerResponse> searchCustomers(ServerRequest request) {
+        boolean includeAccountIds = booleanParam(request, "includeAccountIds");
+        Function<List<Customer>, Mono<List<Customer>>> pageMapper = includeAccountIds
+                ? this::enrichPageWithAccountIds
+                : Mono::just;
+        Flux<Customer> customers = request.bodyToMono(CustomerSearch.class)
+                .map(this::validate)
+                .flatMapMany(customerRepository::findPagesBySearch)
+                .concatMap(pageMapper, 1)
+                .flatMapIterable(Function.identity(), 1);
+        return ServerResponse.ok().contentType(responseMediaType(request)).body(customers, Customer.class);
+    }
+
+    private Mono<List<Customer>> enrichPageWithAccountIds(List<Customer> customers) {
+        List<String> customerIds = customers.stream()
+                .map(Customer::getCustomerId)
+                .collect(Collectors.toList());
+        return linkRepository.findAccountIdsByCustomerIds(customerIds)
+                .map(accountIds -> customers.stream()
+                        .map(c -> c.toBuilder()
+                                .accountIds(accountIds.getOrDefault(c.getCustomerId(), new ArrayList<>()))
+                                .build())
+                        .collect(Collectors.toList()));
+    }
+
+    public Mono<ServerResponse> createAccount(ServerRequest request) {
+        return request.bodyToMono(Account.class)
+                .map(this::validate)
+                .flatMap(account -> accountRepository.save(account.toBuilder()
+                        .accountId(idGenerator.newId())
+                        .build()))
+                .flatMap(account -> ServerResponse.ok().bodyValue(account));
+    }
+
+    public Mono<ServerResponse> getAccountById(ServerRequest request) {
+        return accountRepository.findById(request.pathVariable("accountId"))
+                .flatMap(this::enrichWithCustomerIds)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)))
+                .flatMap(account -> ServerResponse.ok().bodyValue(account));
+    }
+
+    private Mono<Account> enrichWithCustomerIds(Account account) {
+        return enrichPageWithCustomerIds(List.of(account)).map(accounts -> accounts.get(0));
+    }
+
+    public Mono<ServerResponse> searchAccounts(ServerRequest request) {
+        boolean includeCustomerIds = booleanParam(request, "includeCustomerIds");
+        Function<List<Account>, Mono<List<Account>>> pageMapper = includeCustomerIds
+                ? this::enrichPageWithCustomerIds
+                : Mono::just;
+        Flux<Account> accounts = request.bodyToMono(Account.class)
+                .flatMapMany(accountRepository::findPagesByExample)
+                .concatMap(pageMapper, 1)
+                .flatMapIterable(Function.identity(), 1);
+        return ServerResponse.ok().contentType(responseMediaType(request)).body(accounts, Account.class);
+    }
+
+    private Mono<List<Account>> enrichPageWithCustomerIds(List<Account> accounts) {
+        List<String> accountIds = accounts.stream()
+                .map(Account::getAccountId)
+                .collect(Collectors.toList());
+        return linkRepository.findCustomerIdsByAccountIds(accountIds)
+                .map(customerIds -> accounts.stream()
+                        .map(a -> a.toBuilder()
+                                .customerIds(customerIds.getOrDefault(a.getAccountId(), new ArrayList<>()))
+                                .build())
+                        .collect(Collectors.toList()));
+    }
+
+    public Mono<ServerResponse> createCustomerAccountLink(ServerRequest request) {
+        return request.bodyToMono(CustomerAccountLink.class)
+                .flatMap(linkRepository::save)
+                .flatMap(link -> ServerResponse.ok().bodyValue(link));
+    }
+
+    private <T> T validate(T body) {
+        BeanPropertyBindingResult bindingResult = new BeanPropertyBindingResult(body, "body");
+        validator.validate(body, bindingResult);
+        if (bindingResult.hasFieldErrors()) {
+            throw new KycRequestValidationException(bindingResult.getFieldErrors());
+        }
+        return body;
+    }
+
+    private static boolean booleanParam(ServerRequest request, String name) {
+        return request.queryParam(name).map(Boolean::parseBoolean).orElse(false);
+    }
+
+    /**
+     * A streaming type if the client accepts one, otherwise the results are collected into a JSON array
+     */
+    private static MediaType responseMediaType(ServerRequest request) {
+        for (MediaType accepted : request.headers().accept()) {
+            for (MediaType streaming : STREAMING_MEDIA_TYPES) {
+                if (streaming.equalsTypeAndSubtype(accepted)) {
+                    return streaming;
+                }
+            }
+        }
+        return MediaType.APPLICATION_JSON;
+    }
+
+}
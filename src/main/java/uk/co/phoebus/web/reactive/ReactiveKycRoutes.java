@@ -0,0 +1,70 @@
+package uk.co.phoebus.web.reactive;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import uk.co.phoebus.config.ReactiveContext;
+import uk.co.phoebus.exception.KycRepositoryException;
+import uk.co.phoebus.exception.KycRequestValidationException;
+import uk.co.phoebus.web.GlobalExceptionHandler;
+import uk.co.phoebus.web.RestError;
+
+import java.util.List;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+import static org.springframework.web.reactive.function.server.RequestPredicates.path;
+import static org.springframework.web.reactive.function.server.RouterFunctions.nest;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+import static uk.co.phoebus.config.ReactiveContext.REACTIVE_PATH;
+
+/**
+ * Routes for the reactive stack, which {@link ReactiveContext} serves under {@link ReactiveContext#REACTIVE_PATH}
+ */
+@Configuration
+public class ReactiveKycRoutes {
+
+    @Bean
+    public RouterFunction<ServerResponse> reactiveKycRouterFunction(ReactiveKycHandler handler,
+                                                                    GlobalExceptionHandler exceptionHandler) {
+        return nest(path(REACTIVE_PATH), route(POST("/customers"), handler::createCustomer)
+                .andRoute(GET("/customers/{customerId}"), handler::getCustomerById)
+                .andRoute(POST("/customer-searches"), handler::searchCustomers)
+                .andRoute(POST("/accounts"), handler::createAccount)
+                .andRoute(GET("/accounts/{accountId}"), handler::getAccountById)
+                .andRoute(POST("/account-searches"), handler::searchAccounts)
+                .andRoute(POST("/customer-account-links"), handler::createCustomerAccountLink))
+                .filter((request, next) -> next.handle(request)
+                        .onErrorResume(e -> toErrorResponse(exceptionHandler, e)));
+    }
+
+    /**
+     * Errors are mapped the same way as on the servlet stack
+     */
+    private static Mono<ServerResponse> toErrorResponse(GlobalExceptionHandler exceptionHandler, Throwable e) {
+        ResponseEntity<List<RestError>> response;
+        if (e instanceof KycRequestValidationException) {
+            response = exceptionHandler.validationException((KycRequestValidationException) e);
+        } else if (e instanceof DataIntegrityViolationException) {
+            response = exceptionHandler.constraintViolationException((DataIntegrityViolationException) e);
+        } else if (e instanceof KycRepositoryException) {
+            response = exceptionHandler.repositoryException((KycRepositoryException) e);
+        } else if (e instanceof TransientDataAccessResourceException || e instanceof CannotGetJdbcConnectionException
+                || e instanceof CannotCreateTransactionException) {
+            response = exceptionHandler.connectionUnavailableException((Exception) e);
+        } else {
+            return Mono.error(e);
+        }
+        return ServerResponse.status(response.getStatusCode())
+                .headers(headers -> headers.addAll(response.getHeaders()))
+                .bodyValue(response.getBody());
+    }
+
+}
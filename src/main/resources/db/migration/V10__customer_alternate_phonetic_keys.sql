@@ -0,0 +1,7 @@
+-- Double Metaphone alternate keys (null where a name's alternate key is its primary one), so a name is found by a
+-- search for any name sharing either of its keys
+ALTER TABLE CUSTOMER ADD COLUMN FORENAME_PHONETIC_ALT VARCHAR(8);
+ALTER TABLE CUSTOMER ADD COLUMN SURNAME_PHONETIC_ALT VARCHAR(8);
+
+CREATE INDEX IDX_CUSTOMER_SURNAME_PHONETIC_ALT ON CUSTOMER (SURNAME_PHONETIC_ALT, FORENAME_PHONETIC);
+CREATE INDEX IDX_CUSTOMER_FORENAME_PHONETIC_ALT ON CUSTOMER (FORENAME_PHONETIC_ALT);
@@ -0,0 +1,5 @@
+ALTER TABLE CUSTOMER ADD COLUMN FORENAME_PHONETIC VARCHAR(8);
+ALTER TABLE CUSTOMER ADD COLUMN SURNAME_PHONETIC VARCHAR(8);
+
+CREATE INDEX IDX_CUSTOMER_SURNAME_PHONETIC ON CUSTOMER (SURNAME_PHONETIC, FORENAME_PHONETIC);
+CREATE INDEX IDX_CUSTOMER_FORENAME_PHONETIC ON CUSTOMER (FORENAME_PHONETIC);
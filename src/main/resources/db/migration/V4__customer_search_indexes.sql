@@ -0,0 +1,9 @@
+-- H2 reads a table through a single index, so each search shape needs one index that covers its most selective
+-- criteria. The names lead (they are far more selective than a date of birth) and each composite index replaces the
+-- single column index on its leading column. Date of birth alone, or as a range, still uses IDX_CUSTOMER_DATE_OF_BIRTH.
+DROP INDEX IDX_CUSTOMER_SURNAME;
+DROP INDEX IDX_CUSTOMER_FORENAME;
+
+CREATE INDEX IDX_CUSTOMER_SURNAME_FORENAME ON CUSTOMER (SURNAME, FORENAME);
+CREATE INDEX IDX_CUSTOMER_SURNAME_DATE_OF_BIRTH ON CUSTOMER (SURNAME, DATE_OF_BIRTH);
+CREATE INDEX IDX_CUSTOMER_FORENAME_DATE_OF_BIRTH ON CUSTOMER (FORENAME, DATE_OF_BIRTH);
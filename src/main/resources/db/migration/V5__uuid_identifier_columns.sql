@@ -0,0 +1,7 @@
+-- Identifiers move from VARCHAR(36) (36 bytes plus a length, per key and per index entry) to native UUID columns
+-- (16 bytes). Each table gets a UUID shadow column next to its VARCHAR id here, V6 fills them in in chunks, and V7
+-- swaps them in for the VARCHAR columns.
+ALTER TABLE ACCOUNT ADD COLUMN ACCOUNT_UUID UUID BEFORE ACCOUNT_ID;
+ALTER TABLE CUSTOMER ADD COLUMN CUSTOMER_UUID UUID BEFORE CUSTOMER_ID;
+ALTER TABLE CUSTOMER_ACCOUNT ADD COLUMN CUSTOMER_UUID UUID BEFORE CUSTOMER_ID;
+ALTER TABLE CUSTOMER_ACCOUNT ADD COLUMN ACCOUNT_UUID UUID BEFORE ACCOUNT_ID;
@@ -0,0 +1,26 @@
+-- Replaces each VARCHAR id with the UUID shadow column V6 filled in, recreating the keys and indexes on it.
+-- IDX_CUSTOMER_ACCOUNT_CUSTOMER_ID isn't recreated - the primary key leads with CUSTOMER_ID, so it already serves
+-- lookups by customer.
+ALTER TABLE CUSTOMER_ACCOUNT DROP PRIMARY KEY;
+DROP INDEX IDX_CUSTOMER_ACCOUNT_CUSTOMER_ID;
+DROP INDEX IDX_CUSTOMER_ACCOUNT_ACCOUNT_ID;
+ALTER TABLE CUSTOMER_ACCOUNT DROP COLUMN CUSTOMER_ID;
+ALTER TABLE CUSTOMER_ACCOUNT DROP COLUMN ACCOUNT_ID;
+ALTER TABLE CUSTOMER_ACCOUNT ALTER COLUMN CUSTOMER_UUID RENAME TO CUSTOMER_ID;
+ALTER TABLE CUSTOMER_ACCOUNT ALTER COLUMN ACCOUNT_UUID RENAME TO ACCOUNT_ID;
+ALTER TABLE CUSTOMER_ACCOUNT ALTER COLUMN CUSTOMER_ID SET NOT NULL;
+ALTER TABLE CUSTOMER_ACCOUNT ALTER COLUMN ACCOUNT_ID SET NOT NULL;
+ALTER TABLE CUSTOMER_ACCOUNT ADD PRIMARY KEY (CUSTOMER_ID, ACCOUNT_ID);
+CREATE INDEX IDX_CUSTOMER_ACCOUNT_ACCOUNT_ID ON CUSTOMER_ACCOUNT (ACCOUNT_ID);
+
+ALTER TABLE ACCOUNT DROP PRIMARY KEY;
+ALTER TABLE ACCOUNT DROP COLUMN ACCOUNT_ID;
+ALTER TABLE ACCOUNT ALTER COLUMN ACCOUNT_UUID RENAME TO ACCOUNT_ID;
+ALTER TABLE ACCOUNT ALTER COLUMN ACCOUNT_ID SET NOT NULL;
+ALTER TABLE ACCOUNT ADD PRIMARY KEY (ACCOUNT_ID);
+
+ALTER TABLE CUSTOMER DROP PRIMARY KEY;
+ALTER TABLE CUSTOMER DROP COLUMN CUSTOMER_ID;
+ALTER TABLE CUSTOMER ALTER COLUMN CUSTOMER_UUID RENAME TO CUSTOMER_ID;
+ALTER TABLE CUSTOMER ALTER COLUMN CUSTOMER_ID SET NOT NULL;
+ALTER TABLE CUSTOMER ADD PRIMARY KEY (CUSTOMER_ID);
@@ -0,0 +1,12 @@
+-- Transactional outbox of every customer, account and link written, read by consumers from an offset (EVENT_ID)
+CREATE SEQUENCE CHANGE_EVENT_SEQ;
+
+CREATE TABLE CHANGE_EVENT (
+  EVENT_ID BIGINT NOT NULL,
+  EVENT_TYPE VARCHAR(20) NOT NULL,
+  CUSTOMER_ID UUID,
+  ACCOUNT_ID UUID,
+  PAYLOAD VARCHAR(1000) NOT NULL,
+  CREATED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+  PRIMARY KEY (EVENT_ID)
+);
@@ -0,0 +1,8 @@
+-- Each running instance's change log watermark: every offset it has handed out up to READABLE_UP_TO has committed (or
+-- rolled back). Changes are only read up to the lowest watermark of the live instances.
+CREATE TABLE CHANGE_EVENT_WATERMARK (
+  INSTANCE_ID UUID NOT NULL,
+  READABLE_UP_TO BIGINT NOT NULL,
+  UPDATED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+  PRIMARY KEY (INSTANCE_ID)
+);
@@ -1,5 +1,8 @@
 package uk.co.phoebus;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jooq.DSLContext;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,28 +11,66 @@ import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.web.server.LocalServerPort;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import uk.co.phoebus.config.QueryMetricsListener;
 import uk.co.phoebus.db.AccountRepository;
+import uk.co.phoebus.db.ChangeEventRepository;
 import uk.co.phoebus.db.CustomerAccountLinkRepository;
 import uk.co.phoebus.db.CustomerRepository;
 import uk.co.phoebus.model.Account;
+import uk.co.phoebus.model.BatchError;
+import uk.co.phoebus.model.BatchResult;
+import uk.co.phoebus.model.ChangeBatch;
+import uk.co.phoebus.model.ChangeEvent;
 import uk.co.phoebus.model.Customer;
 import uk.co.phoebus.model.CustomerAccountLink;
+import uk.co.phoebus.model.CustomerSearch;
+import uk.co.phoebus.model.GraphNode;
+import uk.co.phoebus.model.LookupResult;
+import uk.co.phoebus.web.KeysetPaging;
+import uk.co.phoebus.web.KycMediaTypes;
 import uk.co.phoebus.web.RestError;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Sets.newHashSet;
+import static nu.studer.sample.public_.Sequences.CHANGE_EVENT_SEQ;
+import static uk.co.phoebus.db.ChangeEventRepository.WATERMARK_TABLE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static uk.co.phoebus.model.TestObjects.aDefaultAccount;
 import static uk.co.phoebus.model.TestObjects.aDefaultCustomer;
 
-@SpringBootTest(webEnvironment = RANDOM_PORT)
+// a database of its own, as other test contexts' instances would hold back the change log
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = {"kyc.reactive.page-size=2", "kyc.lookup.chunk-size=2",
+        "kyc.phonetic.max-block-size=3", "kyc.name-index.chunk-size=1",
+        "spring.datasource.generate-unique-name=true"})
 class ApplicationIntTest {
 
     @LocalServerPort
@@ -44,12 +85,24 @@ class ApplicationIntTest {
     private AccountRepository accountRepository;
     @Autowired
     private CustomerAccountLinkRepository linkRepository;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private ChangeEventRepository changeEventRepository;
+    @Autowired
+    private DSLContext dsl;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     private String customersUrl;
+    private String customersBatchUrl;
     private String customerSearchesUrl;
     private String accountsUrl;
     private String accountSearchesUrl;
     private String customerAccountLinksUrl;
+    private String customerAccountLinksBatchUrl;
+    private String reactiveUrlPrefix;
+    private String changesUrl;
 
 
 
@@ -57,10 +110,14 @@ class ApplicationIntTest {
     public void beforeEach() {
         String baseUrlPrefix = String.format("http://localhost:%s/", port);
         customersUrl = baseUrlPrefix + "customers";
+        customersBatchUrl = baseUrlPrefix + "customers/batch";
         customerSearchesUrl = baseUrlPrefix + "customer-searches";
         accountsUrl = baseUrlPrefix + "accounts";
         accountSearchesUrl = baseUrlPrefix + "account-searches";
         customerAccountLinksUrl = baseUrlPrefix+"customer-account-links";
+        customerAccountLinksBatchUrl = baseUrlPrefix + "customer-account-links/batch";
+        reactiveUrlPrefix = baseUrlPrefix + "reactive/";
+        changesUrl = baseUrlPrefix + "changes";
 
         customerRepository.deleteAll();
         accountRepository.deleteAll();
@@ -93,6 +150,18 @@ class ApplicationIntTest {
         assertCustomerAttributes(aDefaultCustomer(), actual);
     }
 
+    @Test
+    public void customer_repeatReadsAreServedFromCache() {
+        String customerId = createCustomer(aDefaultCustomer()).getCustomerId();
+        assertEquals(HttpStatus.OK, getCustomerById(customerId).getStatusCode());
+
+        customerRepository.deleteAll();
+
+        ResponseEntity<Customer> response = getCustomerById(customerId);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertCustomerAttributes(aDefaultCustomer(), response.getBody());
+    }
+
     @Test
     public void customer_getByInvalidId() {
         createCustomer(aDefaultCustomer());
@@ -140,6 +209,84 @@ class ApplicationIntTest {
         assertEquals(createdCustomer.getCustomerId(), searchResults.get(0).getCustomerId());
     }
 
+    @Test
+    public void customer_lookupReturnsEnrichedCustomersInRequestOrder() {
+        Customer first = createCustomer(aDefaultCustomer());
+        Customer second = createCustomer(aDefaultCustomer());
+        Customer third = createCustomer(aDefaultCustomer());
+        Account account = createAccount(aDefaultAccount());
+        createCustomerAccountLink(CustomerAccountLink.builder()
+                .customerId(third.getCustomerId())
+                .accountId(account.getAccountId())
+                .build());
+
+        List<String> ids = newArrayList(third.getCustomerId(), "missing", first.getCustomerId(),
+                second.getCustomerId(), third.getCustomerId());
+        ResponseEntity<LookupResult<Customer>> response = testRestTemplate.exchange(customersUrl + "/lookup",
+                HttpMethod.POST, new HttpEntity<>(ids), new ParameterizedTypeReference<LookupResult<Customer>>() {
+                });
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        List<Customer> found = response.getBody().getFound();
+        assertEquals(newArrayList(third.getCustomerId(), first.getCustomerId(), second.getCustomerId()), found.stream()
+                .map(Customer::getCustomerId)
+                .collect(Collectors.toList()));
+        assertEquals(newArrayList(account.getAccountId()), found.get(0).getAccountIds());
+        assertEquals(newArrayList(), found.get(1).getAccountIds());
+        assertEquals(newArrayList("missing"), response.getBody().getMissingIds());
+    }
+
+    @Test
+    public void customer_lookupFindsIdsGivenInUpperCase() {
+        Customer customer = createCustomer(aDefaultCustomer());
+
+        List<String> ids = newArrayList(customer.getCustomerId().toUpperCase(), "missing");
+        ResponseEntity<LookupResult<Customer>> response = testRestTemplate.exchange(customersUrl + "/lookup",
+                HttpMethod.POST, new HttpEntity<>(ids), new ParameterizedTypeReference<LookupResult<Customer>>() {
+                });
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(newArrayList(customer.getCustomerId()), response.getBody().getFound().stream()
+                .map(Customer::getCustomerId)
+                .collect(Collectors.toList()));
+        assertEquals(newArrayList("missing"), response.getBody().getMissingIds());
+    }
+
+    @Test
+    public void customer_searchByDateOfBirthRangeAndSurnames() {
+        Customer parker = createCustomer(aDefaultCustomer());
+        Customer watson = createCustomer(aDefaultCustomer().toBuilder()
+                .surname("Watson")
+                .dateOfBirth(LocalDate.parse("1981-12-31"))
+                .build());
+        createCustomer(aDefaultCustomer().toBuilder().surname("Watson").dateOfBirth(LocalDate.parse("1982-01-01")).build());
+        createCustomer(aDefaultCustomer().toBuilder().surname("Osborn").build());
+
+        CustomerSearch search = CustomerSearch.builder()
+                .surnames(newArrayList("Parker", "Watson"))
+                .dateOfBirthFrom(LocalDate.parse("1980-01-01"))
+                .dateOfBirthTo(LocalDate.parse("1981-12-31"))
+                .build();
+        List<Customer> customers = searchCustomers(search, "");
+        assertEquals(newHashSet(parker.getCustomerId(), watson.getCustomerId()), customers.stream()
+                .map(Customer::getCustomerId)
+                .collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void customer_searchRejectsAnInvertedDateOfBirthRange() {
+        CustomerSearch search = CustomerSearch.builder()
+                .dateOfBirthFrom(LocalDate.parse("1981-01-01"))
+                .dateOfBirthTo(LocalDate.parse("1980-01-01"))
+                .build();
+        ResponseEntity<List<RestError>> response = testRestTemplate.exchange(customerSearchesUrl,
+                HttpMethod.POST, new HttpEntity<>(search), new ParameterizedTypeReference<List<RestError>>() {
+                });
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(newArrayList(RestError.builder()
+                .field("dateOfBirthRangeValid")
+                .message("dateOfBirthFrom must not be after dateOfBirthTo")
+                .build()), response.getBody());
+    }
+
     @Test
     public void customer_searchByAccountId() {
         Customer createdCustomer = createCustomer(aDefaultCustomer());
@@ -169,6 +316,409 @@ class ApplicationIntTest {
         assertEquals(createdCustomer.getCustomerId(), searchResults.get(0).getCustomerId());
     }
 
+    @Test
+    public void customer_searchPaginatesWithContinuationToken() {
+        for (int i = 0; i < 3; i++) {
+            createCustomer(aDefaultCustomer());
+        }
+        Customer searchModel = Customer.builder().surname("Parker").build();
+
+        ResponseEntity<List<Customer>> firstPage = searchCustomersPage(searchModel, "?pageSize=2");
+        assertEquals(2, firstPage.getBody().size());
+        String continuationToken = firstPage.getHeaders().getFirst(KeysetPaging.CONTINUATION_TOKEN_HEADER);
+        assertNotNull(continuationToken);
+
+        ResponseEntity<List<Customer>> secondPage = searchCustomersPage(searchModel,
+                "?pageSize=2&continuationToken=" + continuationToken);
+        assertEquals(1, secondPage.getBody().size());
+        assertNull(secondPage.getHeaders().getFirst(KeysetPaging.CONTINUATION_TOKEN_HEADER));
+        assertTrue(secondPage.getBody().get(0).getCustomerId().compareTo(firstPage.getBody().get(1).getCustomerId()) > 0);
+    }
+
+    @Test
+    public void customer_searchWithInvalidContinuationTokenReturns400() {
+        ResponseEntity<List<RestError>> response = testRestTemplate.exchange(customerSearchesUrl + "?continuationToken=not-a-token",
+                HttpMethod.POST, new HttpEntity<>(aDefaultCustomer()), new ParameterizedTypeReference<List<RestError>>() {
+                });
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        RestError expectedError = RestError.builder()
+                .field("continuationToken")
+                .message("is not a valid continuation token")
+                .build();
+        assertEquals(newArrayList(expectedError), response.getBody());
+    }
+
+    @Test
+    public void customer_searchStreamsNdjson() {
+        for (int i = 0; i < 3; i++) {
+            createCustomer(aDefaultCustomer());
+        }
+        createCustomer(aDefaultCustomer().toBuilder().surname("NotParker").build());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(newArrayList(KycMediaTypes.APPLICATION_NDJSON));
+        Customer searchModel = Customer.builder().surname("Parker").build();
+        ResponseEntity<String> response = testRestTemplate.exchange(customerSearchesUrl,
+                HttpMethod.POST, new HttpEntity<>(searchModel, headers), String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String[] lines = response.getBody().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].contains("\"surname\":\"Parker\""));
+    }
+
+    @Test
+    public void customer_connectionsFollowSharedAccountsVisitingEachNodeOnce() {
+        Customer start = createCustomer(aDefaultCustomer());
+        Customer sharesTwoAccounts = createCustomer(aDefaultCustomer());
+        Customer threeHopsOut = createCustomer(aDefaultCustomer());
+        Customer tooFar = createCustomer(aDefaultCustomer());
+        Account first = createAccount(aDefaultAccount());
+        Account second = createAccount(aDefaultAccount().toBuilder().accountNumber(22222222).build());
+        Account third = createAccount(aDefaultAccount().toBuilder().accountNumber(33333333).build());
+        Account fourth = createAccount(aDefaultAccount().toBuilder().accountNumber(44444444).build());
+        link(start, first);
+        link(start, second);
+        link(sharesTwoAccounts, first);
+        link(sharesTwoAccounts, second);
+        link(sharesTwoAccounts, third);
+        link(threeHopsOut, third);
+        link(threeHopsOut, fourth);
+        link(tooFar, fourth);
+
+        ResponseEntity<List<GraphNode>> response = testRestTemplate.exchange(
+                customersUrl + "/" + start.getCustomerId() + "/connections?maxHops=4", HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<GraphNode>>() {
+                });
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        List<GraphNode> nodes = response.getBody();
+        assertEquals(6, nodes.size());
+        assertEquals(newHashSet(
+                start.getCustomerId() + "@0",
+                first.getAccountId() + "@1", second.getAccountId() + "@1",
+                sharesTwoAccounts.getCustomerId() + "@2",
+                third.getAccountId() + "@3",
+                threeHopsOut.getCustomerId() + "@4"), nodes.stream()
+                .map(node -> node.getId() + "@" + node.getHops())
+                .collect(Collectors.toSet()));
+        assertEquals(nodes.stream().map(GraphNode::getHops).sorted().collect(Collectors.toList()), nodes.stream()
+                .map(GraphNode::getHops)
+                .collect(Collectors.toList()));
+        GraphNode last = nodes.get(nodes.size() - 1);
+        assertEquals(GraphNode.Type.CUSTOMER, last.getType());
+        assertEquals(third.getAccountId(), last.getVia());
+    }
+
+    @Test
+    public void account_connectionsStreamNdjson() {
+        Customer customer = createCustomer(aDefaultCustomer());
+        Account account = createAccount(aDefaultAccount());
+        link(customer, account);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(newArrayList(KycMediaTypes.APPLICATION_NDJSON));
+        ResponseEntity<String> response = testRestTemplate.exchange(
+                accountsUrl + "/" + account.getAccountId() + "/connections?maxHops=1", HttpMethod.GET,
+                new HttpEntity<>(headers), String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String[] lines = response.getBody().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[1].contains("\"id\":\"" + customer.getCustomerId() + "\""));
+    }
+
+    @Test
+    public void customer_connectionsRejectInvalidHopsAndUnknownStart() {
+        Customer customer = createCustomer(aDefaultCustomer());
+        ResponseEntity<List<RestError>> invalidHops = testRestTemplate.exchange(
+                customersUrl + "/" + customer.getCustomerId() + "/connections?maxHops=0", HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<RestError>>() {
+                });
+        assertEquals(HttpStatus.BAD_REQUEST, invalidHops.getStatusCode());
+        assertEquals("maxHops", invalidHops.getBody().get(0).getField());
+
+        ResponseEntity<String> unknown = testRestTemplate.getForEntity(customersUrl + "/not-found/connections",
+                String.class);
+        assertEquals(HttpStatus.NOT_FOUND, unknown.getStatusCode());
+    }
+
+    @Test
+    public void reactive_customerCreateAndGetById() {
+        ResponseEntity<Customer> createResponse = testRestTemplate.exchange(reactiveUrlPrefix + "customers",
+                HttpMethod.POST, new HttpEntity<>(aDefaultCustomer()), Customer.class);
+        assertEquals(HttpStatus.OK, createResponse.getStatusCode());
+        Customer created = createResponse.getBody();
+        assertCustomerAttributes(aDefaultCustomer(), created);
+
+        Account account = createAccount(aDefaultAccount());
+        createCustomerAccountLink(CustomerAccountLink.builder()
+                .customerId(created.getCustomerId())
+                .accountId(account.getAccountId())
+                .build());
+
+        ResponseEntity<Customer> response = testRestTemplate.exchange(
+                reactiveUrlPrefix + "customers/" + created.getCustomerId(), HttpMethod.GET, null, Customer.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(created.toBuilder().accountIds(newArrayList(account.getAccountId())).build(), response.getBody());
+
+        ResponseEntity<String> notFound = testRestTemplate.exchange(reactiveUrlPrefix + "customers/does-not-exist",
+                HttpMethod.GET, null, String.class);
+        assertEquals(HttpStatus.NOT_FOUND, notFound.getStatusCode());
+    }
+
+    @Test
+    public void reactive_customerCreateInvalid() {
+        Customer customer = aDefaultCustomer().toBuilder().forename(null).build();
+        ResponseEntity<List<RestError>> response = testRestTemplate.exchange(reactiveUrlPrefix + "customers",
+                HttpMethod.POST, new HttpEntity<>(customer), new ParameterizedTypeReference<List<RestError>>() {
+                });
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(newArrayList(RestError.builder().field("forename").message("must not be null").build()),
+                response.getBody());
+    }
+
+    @Test
+    public void reactive_customerSearchStreamsNdjsonAcrossPages() {
+        Customer linkedCustomer = createCustomer(aDefaultCustomer());
+        for (int i = 0; i < 4; i++) {
+            createCustomer(aDefaultCustomer());
+        }
+        createCustomer(aDefaultCustomer().toBuilder().surname("NotParker").build());
+        Account account = createAccount(aDefaultAccount());
+        createCustomerAccountLink(CustomerAccountLink.builder()
+                .customerId(linkedCustomer.getCustomerId())
+                .accountId(account.getAccountId())
+                .build());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(newArrayList(KycMediaTypes.APPLICATION_NDJSON));
+        Customer searchModel = Customer.builder().surname("Parker").build();
+        ResponseEntity<String> response = testRestTemplate.exchange(
+                reactiveUrlPrefix + "customer-searches?includeAccountIds=true",
+                HttpMethod.POST, new HttpEntity<>(searchModel, headers), String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String[] lines = response.getBody().split("\n");
+        assertEquals(5, lines.length);
+        assertEquals(1, Arrays.stream(lines)
+                .filter(line -> line.contains("\"accountIds\":[\"" + account.getAccountId() + "\"]"))
+                .count());
+    }
+
+    @Test
+    public void reactive_accountSearchReturnsJsonArray() {
+        Account account = createAccount(aDefaultAccount());
+        createAccount(aDefaultAccount().toBuilder().accountNumber(22222222).build());
+
+        ResponseEntity<List<Account>> response = testRestTemplate.exchange(reactiveUrlPrefix + "account-searches",
+                HttpMethod.POST, new HttpEntity<>(Account.builder().accountNumber(account.getAccountNumber()).build()),
+                new ParameterizedTypeReference<List<Account>>() {
+                });
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(newArrayList(account), response.getBody());
+    }
+
+    @Test
+    public void customer_fuzzySearchRanksClosestNameFirst() {
+        Customer smith = createCustomer(aDefaultCustomer().toBuilder().surname("Smith").build());
+        Customer smyth = createCustomer(aDefaultCustomer().toBuilder().surname("Smyth").build());
+        createCustomer(aDefaultCustomer().toBuilder().surname("Jones").build());
+        createCustomer(aDefaultCustomer().toBuilder().surname("Smith").dateOfBirth(LocalDate.parse("1990-01-01")).build());
+
+        Customer searchModel = Customer.builder()
+                .surname("smyth")
+                .dateOfBirth(aDefaultCustomer().getDateOfBirth())
+                .build();
+        List<Customer> customers = searchCustomers(searchModel, "?matchMode=FUZZY");
+        assertEquals(newArrayList(smyth.getCustomerId(), smith.getCustomerId()), customers.stream()
+                .map(Customer::getCustomerId)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void customer_prefixSearchIgnoresCase() {
+        Customer smithson = createCustomer(aDefaultCustomer().toBuilder().surname("Smithson").build());
+        createCustomer(aDefaultCustomer().toBuilder().surname("Jones").build());
+
+        List<Customer> customers = searchCustomers(Customer.builder().surname("SMITH").build(), "?matchMode=PREFIX");
+        assertEquals(1, customers.size());
+        assertCustomerAttributes(smithson, customers.get(0));
+    }
+
+    @Test
+    public void customer_fuzzySearchFindsCustomersCreatedThroughOtherInstances() throws Exception {
+        // written by another instance, so only seen through the change log
+        Customer customer = aDefaultCustomer().toBuilder()
+                .customerId(UUID.randomUUID().toString())
+                .surname("Featherstonehaugh")
+                .build();
+        dsl.insertInto(CustomerRepository.TABLE)
+                .set(CustomerRepository.TABLE.CUSTOMER_ID, customer.getCustomerId())
+                .set(CustomerRepository.TABLE.FORENAME, customer.getForename())
+                .set(CustomerRepository.TABLE.SURNAME, customer.getSurname())
+                .set(CustomerRepository.TABLE.DATE_OF_BIRTH, customer.getDateOfBirth())
+                .execute();
+        dsl.insertInto(ChangeEventRepository.TABLE)
+                .set(ChangeEventRepository.TABLE.EVENT_ID, dsl.select(CHANGE_EVENT_SEQ.nextval()).fetchOne().value1())
+                .set(ChangeEventRepository.TABLE.EVENT_TYPE, ChangeEvent.Type.CUSTOMER_CREATED.name())
+                .set(ChangeEventRepository.TABLE.CUSTOMER_ID, customer.getCustomerId())
+                .set(ChangeEventRepository.TABLE.PAYLOAD, objectMapper.writeValueAsString(customer))
+                .set(ChangeEventRepository.TABLE.CREATED_AT, OffsetDateTime.now())
+                .execute();
+        changeEventRepository.heartbeat();
+
+        Customer searchModel = Customer.builder().surname("Fetherstonhaugh").build();
+        List<Customer> customers = searchCustomers(searchModel, "?matchMode=FUZZY");
+        for (int i = 0; i < 50 && customers.isEmpty(); i++) {
+            Thread.sleep(100);
+            customers = searchCustomers(searchModel, "?matchMode=FUZZY");
+        }
+        assertEquals(1, customers.size());
+        assertCustomerAttributes(customer, customers.get(0));
+    }
+
+    @Test
+    public void customer_phoneticSearchFindsSoundAlikesInTheSameBlock() {
+        Customer stephen = createCustomer(aDefaultCustomer().toBuilder().forename("Stephen").surname("Smith").build());
+        Customer steven = createCustomer(aDefaultCustomer().toBuilder().forename("Steven").surname("Smyth").build());
+        createCustomer(aDefaultCustomer().toBuilder().forename("Stephen").surname("Jones").build());
+        createCustomer(aDefaultCustomer().toBuilder().forename("Peter").surname("Smith").build());
+
+        Customer searchModel = Customer.builder()
+                .forename("stephen")
+                .surname("SMITH")
+                .build();
+        List<Customer> customers = searchCustomers(searchModel, "?matchMode=PHONETIC");
+        assertEquals(newArrayList(stephen.getCustomerId(), steven.getCustomerId()), customers.stream()
+                .map(Customer::getCustomerId)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void customer_phoneticSearchMatchesEitherKeyOfEitherName() {
+        Customer smith = createCustomer(aDefaultCustomer().toBuilder().surname("Smith").build());
+        Customer schmidt = createCustomer(aDefaultCustomer().toBuilder().surname("Schmidt").build());
+
+        assertEquals(newHashSet(smith.getCustomerId(), schmidt.getCustomerId()),
+                searchCustomers(Customer.builder().surname("Smith").build(), "?matchMode=PHONETIC").stream()
+                        .map(Customer::getCustomerId)
+                        .collect(Collectors.toSet()));
+        assertEquals(newHashSet(smith.getCustomerId(), schmidt.getCustomerId()),
+                searchCustomers(Customer.builder().surname("Schmidt").build(), "?matchMode=PHONETIC").stream()
+                        .map(Customer::getCustomerId)
+                        .collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void customer_phoneticSearchRejectsABlockLargerThanTheMaximum() {
+        for (int i = 0; i < 4; i++) {
+            createCustomer(aDefaultCustomer().toBuilder().surname("Smith").build());
+        }
+
+        ResponseEntity<List<RestError>> response = testRestTemplate.exchange(customerSearchesUrl + "?matchMode=PHONETIC",
+                HttpMethod.POST, new HttpEntity<>(Customer.builder().surname("Smyth").build()),
+                new ParameterizedTypeReference<List<RestError>>() {
+                });
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals("matchMode", response.getBody().get(0).getField());
+    }
+
+    @Test
+    public void customer_matchSearchRequiresAName() {
+        ResponseEntity<List<RestError>> response = testRestTemplate.exchange(customerSearchesUrl + "?matchMode=FUZZY",
+                HttpMethod.POST, new HttpEntity<>(Customer.builder().build()),
+                new ParameterizedTypeReference<List<RestError>>() {
+                });
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(newArrayList(RestError.builder()
+                .field("matchMode")
+                .message("FUZZY requires a forename or surname")
+                .build()), response.getBody());
+    }
+
+    @Test
+    public void customer_searchIncludingAccountIds() {
+        Customer linkedCustomer = createCustomer(aDefaultCustomer());
+        Customer unlinkedCustomer = createCustomer(aDefaultCustomer());
+        Account firstAccount = createAccount(aDefaultAccount());
+        Account secondAccount = createAccount(aDefaultAccount().toBuilder().accountNumber(22222222).build());
+        createCustomerAccountLink(CustomerAccountLink.builder()
+                .customerId(linkedCustomer.getCustomerId())
+                .accountId(firstAccount.getAccountId())
+                .build());
+        createCustomerAccountLink(CustomerAccountLink.builder()
+                .customerId(linkedCustomer.getCustomerId())
+                .accountId(secondAccount.getAccountId())
+                .build());
+
+        List<Customer> searchResults = searchCustomers(Customer.builder().forename("Peter").build(), "?includeAccountIds=true");
+        assertEquals(2, searchResults.size());
+        Customer linkedResult = searchResults.stream()
+                .filter(c -> c.getCustomerId().equals(linkedCustomer.getCustomerId()))
+                .findFirst().orElseThrow();
+        Customer unlinkedResult = searchResults.stream()
+                .filter(c -> c.getCustomerId().equals(unlinkedCustomer.getCustomerId()))
+                .findFirst().orElseThrow();
+        assertEquals(newHashSet(firstAccount.getAccountId(), secondAccount.getAccountId()), newHashSet(linkedResult.getAccountIds()));
+        assertEquals(newArrayList(), unlinkedResult.getAccountIds());
+    }
+
+    @Test
+    public void customer_batchCreateJsonArray() {
+        List<Customer> customers = newArrayList(aDefaultCustomer(),
+                aDefaultCustomer().toBuilder().forename(null).build(),
+                aDefaultCustomer().toBuilder().surname("Jones").build());
+        BatchResult result = createCustomers(new HttpEntity<>(customers));
+        assertEquals(3, result.getReceived());
+        assertEquals(2, result.getSucceeded());
+        assertEquals(1, result.getFailed());
+        BatchError expectedError = BatchError.builder()
+                .index(1)
+                .field("forename")
+                .message("must not be null")
+                .build();
+        assertEquals(newArrayList(expectedError), result.getErrors());
+        assertNull(result.getIds().get(1));
+
+        ResponseEntity<Customer> response = getCustomerById(result.getIds().get(2));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertCustomerAttributes(customers.get(2), response.getBody());
+    }
+
+    @Test
+    public void customer_batchCreateNdjson() {
+        String body = "{\"forename\":\"Mary\",\"surname\":\"Watson\",\"dateOfBirth\":\"1981-02-03\"}\n"
+                + "{\"forename\":\"Mary\",\"surname\":\"Watson\",\"dateOfBirth\":\"not-a-date\"}\n"
+                + "{\"forename\":\"Mary\",\"surname\":\"Watson\",\"dateOfBirth\":\"1981-02-03\"}\n";
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(KycMediaTypes.APPLICATION_NDJSON);
+        BatchResult result = createCustomers(new HttpEntity<>(body, headers));
+        assertEquals(3, result.getReceived());
+        assertEquals(2, result.getSucceeded());
+        assertEquals(1, result.getErrors().size());
+        assertEquals(1, result.getErrors().get(0).getIndex());
+
+        List<Customer> searchResults = searchCustomers(Customer.builder().surname("Watson").build());
+        assertEquals(2, searchResults.size());
+    }
+
+    @Test
+    public void customer_batchCreateStopsAtASyntaxErrorKeepingEarlierRows() {
+        String body = "{\"forename\":\"Mary\",\"surname\":\"Jane\",\"dateOfBirth\":\"1981-02-03\"}\n"
+                + "{\"forename\":\"Anna\",\"surname\":\"Jane\",\"dateOfBirth\":\"1981-02-03\"}\n"
+                + "{\"forename\":\"Mary\",\"surname\":}\n"
+                + "{\"forename\":\"Mary\",\"surname\":\"Jane\",\"dateOfBirth\":\"1981-02-03\"}\n";
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(KycMediaTypes.APPLICATION_NDJSON);
+        BatchResult result = createCustomers(new HttpEntity<>(body, headers));
+        assertEquals(3, result.getReceived());
+        assertEquals(2, result.getSucceeded());
+        assertEquals(1, result.getErrors().size());
+        assertEquals(2, result.getErrors().get(0).getIndex());
+        assertNull(result.getIds().get(2));
+
+        assertEquals(HttpStatus.OK, getCustomerById(result.getIds().get(0)).getStatusCode());
+        assertEquals(HttpStatus.OK, getCustomerById(result.getIds().get(1)).getStatusCode());
+        assertEquals(2, searchCustomers(Customer.builder().surname("Jane").build()).size());
+    }
+
     @Test
     public void account_invalidCreateReturns400() {
         Account account = aDefaultAccount().toBuilder()
@@ -240,6 +790,42 @@ class ApplicationIntTest {
         assertEquals(createdAccount.getAccountId(), searchResults.get(0).getAccountId());
     }
 
+    @Test
+    public void account_searchIncludingCustomerIds() {
+        Customer createdCustomer = createCustomer(aDefaultCustomer());
+        Account createdAccount = createAccount(aDefaultAccount());
+        createCustomerAccountLink(CustomerAccountLink.builder()
+                .customerId(createdCustomer.getCustomerId())
+                .accountId(createdAccount.getAccountId())
+                .build());
+
+        List<Account> searchResults = searchAccounts(Account.builder().accountNumber(createdAccount.getAccountNumber()).build(),
+                "?includeCustomerIds=true");
+        assertEquals(1, searchResults.size());
+        assertEquals(newArrayList(createdCustomer.getCustomerId()), searchResults.get(0).getCustomerIds());
+    }
+
+    @Test
+    public void account_lookupReportsMissingIds() {
+        Customer customer = createCustomer(aDefaultCustomer());
+        Account first = createAccount(aDefaultAccount());
+        Account second = createAccount(aDefaultAccount().toBuilder().accountNumber(22222222).build());
+        createCustomerAccountLink(CustomerAccountLink.builder()
+                .customerId(customer.getCustomerId())
+                .accountId(second.getAccountId())
+                .build());
+
+        ResponseEntity<LookupResult<Account>> response = testRestTemplate.exchange(accountsUrl + "/lookup",
+                HttpMethod.POST, new HttpEntity<>(newArrayList(second.getAccountId(), "missing", first.getAccountId())),
+                new ParameterizedTypeReference<LookupResult<Account>>() {
+                });
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(newArrayList(
+                second.toBuilder().customerIds(newArrayList(customer.getCustomerId())).build(),
+                first.toBuilder().customerIds(newArrayList()).build()), response.getBody().getFound());
+        assertEquals(newArrayList("missing"), response.getBody().getMissingIds());
+    }
+
     @Test
     public void account_duplicateAccountReturnsBadRequest() {
         createAccount(aDefaultAccount());
@@ -275,6 +861,24 @@ class ApplicationIntTest {
         assertEquals(accountWithCustomerId, accountById.getBody());
     }
 
+    @Test
+    public void customerAccountLink_invalidatesCachedViews() {
+        Customer createdCustomer = createCustomer(aDefaultCustomer());
+        Account createdAccount = createAccount(aDefaultAccount());
+        assertEquals(newArrayList(), getCustomerById(createdCustomer.getCustomerId()).getBody().getAccountIds());
+        assertEquals(newArrayList(), getAccountById(createdAccount.getAccountId()).getBody().getCustomerIds());
+
+        createCustomerAccountLink(CustomerAccountLink.builder()
+                .customerId(createdCustomer.getCustomerId())
+                .accountId(createdAccount.getAccountId())
+                .build());
+
+        assertEquals(newArrayList(createdAccount.getAccountId()),
+                getCustomerById(createdCustomer.getCustomerId()).getBody().getAccountIds());
+        assertEquals(newArrayList(createdCustomer.getCustomerId()),
+                getAccountById(createdAccount.getAccountId()).getBody().getCustomerIds());
+    }
+
     @Test
     public void customerAccountLink_invalidAccountIdReturnsError() {
         Customer createdCustomer = createCustomer(aDefaultCustomer());
@@ -307,6 +911,240 @@ class ApplicationIntTest {
         assertEquals(expectedErrors, errorResponse.getBody());
     }
 
+    @Test
+    public void metrics_queryTimingsAreExposed() {
+        createCustomer(aDefaultCustomer());
+
+        ResponseEntity<String> response = testRestTemplate.getForEntity(
+                String.format("http://localhost:%s/actuator/metrics/jooq.query", port), String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody().contains("statement"));
+    }
+
+    @Test
+    public void metrics_queriesRunThroughJdbcAreTimed() {
+        Customer createdCustomer = createCustomer(aDefaultCustomer());
+
+        ResponseEntity<Customer> response = testRestTemplate.getForEntity(
+                String.format("http://localhost:%s/customers/%s", port, createdCustomer.getCustomerId()), Customer.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        // lookups by id run their SQL through JDBC rather than jOOQ, so aren't seen by its listeners
+        assertTrue(meterRegistry.find(QueryMetricsListener.QUERY_TIMER).tag("outcome", "success").timers().stream()
+                .anyMatch(timer -> timer.getId().getTag("statement").startsWith("select")
+                        && timer.getId().getTag("statement").endsWith("\"CUSTOMER_ID\" = ?")
+                        && timer.count() > 0));
+    }
+
+    @Test
+    public void metrics_connectionPoolIsExposed() {
+        for (String metric : newArrayList("hikaricp.connections.active", "hikaricp.connections.idle",
+                "hikaricp.connections.pending", "hikaricp.connections.acquire")) {
+            ResponseEntity<String> response = testRestTemplate.getForEntity(
+                    String.format("http://localhost:%s/actuator/metrics/%s?tag=pool:kyc", port, metric), String.class);
+            assertEquals(HttpStatus.OK, response.getStatusCode(), metric);
+        }
+    }
+
+    @Test
+    public void customerAccountLink_batchReportsPerLinkFailures() {
+        Customer createdCustomer = createCustomer(aDefaultCustomer());
+        Account firstAccount = createAccount(aDefaultAccount());
+        Account secondAccount = createAccount(aDefaultAccount().toBuilder().accountNumber(22222222).build());
+        CustomerAccountLink firstLink = CustomerAccountLink.builder()
+                .customerId(createdCustomer.getCustomerId())
+                .accountId(firstAccount.getAccountId())
+                .build();
+        CustomerAccountLink secondLink = firstLink.toBuilder().accountId(secondAccount.getAccountId()).build();
+        createCustomerAccountLink(firstLink);
+
+        List<CustomerAccountLink> links = newArrayList(
+                secondLink,
+                firstLink,
+                secondLink,
+                firstLink.toBuilder().customerId("does-not-exist").build(),
+                firstLink.toBuilder().accountId("does-not-exist").build());
+        ResponseEntity<BatchResult> response = testRestTemplate.exchange(customerAccountLinksBatchUrl,
+                HttpMethod.POST, new HttpEntity<>(links), BatchResult.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        BatchResult result = response.getBody();
+        assertEquals(5, result.getReceived());
+        assertEquals(1, result.getSucceeded());
+        assertEquals(4, result.getFailed());
+        List<BatchError> expectedErrors = newArrayList(
+                BatchError.builder().index(1).message("link already exists").build(),
+                BatchError.builder().index(2).message("link already exists").build(),
+                BatchError.builder().index(3).field("customerId").message("customerId does not exist").build(),
+                BatchError.builder().index(4).field("accountId").message("accountId does not exist").build());
+        assertEquals(expectedErrors, result.getErrors());
+        assertEquals(newHashSet(firstAccount.getAccountId(), secondAccount.getAccountId()),
+                newHashSet(getCustomerById(createdCustomer.getCustomerId()).getBody().getAccountIds()));
+    }
+
+    @Test
+    public void customerAccountLink_batchAcceptsIdsGivenInUpperCase() {
+        Customer createdCustomer = createCustomer(aDefaultCustomer());
+        Account account = createAccount(aDefaultAccount());
+        CustomerAccountLink link = CustomerAccountLink.builder()
+                .customerId(createdCustomer.getCustomerId().toUpperCase())
+                .accountId(account.getAccountId().toUpperCase())
+                .build();
+
+        ResponseEntity<BatchResult> response = testRestTemplate.exchange(customerAccountLinksBatchUrl,
+                HttpMethod.POST, new HttpEntity<>(newArrayList(link, link)), BatchResult.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(1, response.getBody().getSucceeded());
+        assertEquals(newArrayList(BatchError.builder().index(1).message("link already exists").build()),
+                response.getBody().getErrors());
+        assertEquals(newArrayList(account.getAccountId()),
+                getCustomerById(createdCustomer.getCustomerId()).getBody().getAccountIds());
+    }
+
+    @Test
+    public void changes_pollFromAnOffsetInWriteOrder() {
+        long offset = latestChangeOffset();
+        Customer customer = createCustomer(aDefaultCustomer());
+        Account account = createAccount(aDefaultAccount());
+        link(customer, account);
+
+        ChangeBatch batch = getChanges("?after=" + offset);
+        assertEquals(newArrayList(ChangeEvent.Type.CUSTOMER_CREATED, ChangeEvent.Type.ACCOUNT_CREATED,
+                ChangeEvent.Type.LINK_CREATED),
+                batch.getEvents().stream().map(ChangeEvent::getType).collect(Collectors.toList()));
+        assertEquals(customer.getCustomerId(), batch.getEvents().get(0).getCustomerId());
+        assertEquals(customer.getSurname(), batch.getEvents().get(0).getData().get("surname").asText());
+        assertEquals(account.getAccountId(), batch.getEvents().get(1).getAccountId());
+        assertEquals(customer.getCustomerId(), batch.getEvents().get(2).getCustomerId());
+        assertEquals(account.getAccountId(), batch.getEvents().get(2).getAccountId());
+        assertEquals(batch.getEvents().get(2).getOffset(), batch.getNextOffset());
+
+        ChangeBatch first = getChanges("?after=" + offset + "&limit=1");
+        assertEquals(batch.getEvents().subList(0, 1), first.getEvents());
+        assertEquals(batch.getEvents().subList(1, 3), getChanges("?after=" + first.getNextOffset()).getEvents());
+
+        ChangeBatch caughtUp = getChanges("?after=" + batch.getNextOffset());
+        assertTrue(caughtUp.getEvents().isEmpty());
+        assertEquals(batch.getNextOffset(), caughtUp.getNextOffset());
+    }
+
+    @Test
+    public void changes_longPollReturnsOnceAChangeIsCommitted() throws Exception {
+        long offset = latestChangeOffset();
+        CompletableFuture<ChangeBatch> poll = CompletableFuture.supplyAsync(
+                () -> getChanges("?waitSeconds=10&after=" + offset));
+        Thread.sleep(200);
+        assertFalse(poll.isDone());
+
+        Customer customer = createCustomer(aDefaultCustomer());
+        ChangeBatch batch = poll.get(5, TimeUnit.SECONDS);
+        assertEquals(1, batch.getEvents().size());
+        assertEquals(customer.getCustomerId(), batch.getEvents().get(0).getCustomerId());
+    }
+
+    @Test
+    public void changes_everyWaitingSubscriberReceivesEachChange() throws Exception {
+        long offset = latestChangeOffset();
+        ExecutorService clients = Executors.newFixedThreadPool(6);
+        try {
+            List<CompletableFuture<ChangeBatch>> polls = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                polls.add(CompletableFuture.supplyAsync(() -> getChanges("?waitSeconds=10&after=" + offset), clients));
+            }
+            CompletableFuture<List<SentEvent>> stream = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return streamChanges("?after=" + offset, null, 2);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, clients);
+            Thread.sleep(200);
+
+            Customer first = createCustomer(aDefaultCustomer());
+            for (CompletableFuture<ChangeBatch> poll : polls) {
+                ChangeBatch batch = poll.get(5, TimeUnit.SECONDS);
+                assertEquals(1, batch.getEvents().size());
+                assertEquals(first.getCustomerId(), batch.getEvents().get(0).getCustomerId());
+            }
+            Customer second = createCustomer(aDefaultCustomer());
+            assertEquals(newArrayList(first.getCustomerId(), second.getCustomerId()), stream.get(5, TimeUnit.SECONDS)
+                    .stream()
+                    .map(event -> event.data.getCustomerId())
+                    .collect(Collectors.toList()));
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void changes_streamAsServerSentEventsResumingFromLastEventId() throws Exception {
+        long offset = latestChangeOffset();
+        Customer first = createCustomer(aDefaultCustomer());
+        Customer second = createCustomer(aDefaultCustomer());
+
+        List<SentEvent> events = streamChanges("?after=" + offset, null, 2);
+        assertEquals(newArrayList(first.getCustomerId(), second.getCustomerId()), events.stream()
+                .map(event -> event.data.getCustomerId())
+                .collect(Collectors.toList()));
+        assertEquals("CUSTOMER_CREATED", events.get(0).name);
+        assertEquals(String.valueOf(events.get(0).data.getOffset()), events.get(0).id);
+
+        List<SentEvent> resumed = streamChanges("?after=" + offset, events.get(0).id, 1);
+        assertEquals(second.getCustomerId(), resumed.get(0).data.getCustomerId());
+        assertEquals(events.get(1).id, resumed.get(0).id);
+    }
+
+    @Test
+    public void changes_areOnlyReadUpToOtherInstancesWatermarks() {
+        long offset = latestChangeOffset();
+        String otherInstanceId = UUID.randomUUID().toString();
+        // another instance that has handed out an offset it hasn't committed yet
+        dsl.insertInto(WATERMARK_TABLE)
+                .set(WATERMARK_TABLE.INSTANCE_ID, otherInstanceId)
+                .set(WATERMARK_TABLE.READABLE_UP_TO, offset)
+                .set(WATERMARK_TABLE.UPDATED_AT, OffsetDateTime.now())
+                .execute();
+        try {
+            changeEventRepository.heartbeat();
+            Customer customer = createCustomer(aDefaultCustomer());
+            assertTrue(getChanges("?after=" + offset).getEvents().isEmpty());
+
+            // its change commits, then its watermark moves on
+            long otherOffset = dsl.select(CHANGE_EVENT_SEQ.nextval()).fetchOne().value1();
+            String accountId = UUID.randomUUID().toString();
+            dsl.insertInto(ChangeEventRepository.TABLE)
+                    .set(ChangeEventRepository.TABLE.EVENT_ID, otherOffset)
+                    .set(ChangeEventRepository.TABLE.EVENT_TYPE, ChangeEvent.Type.ACCOUNT_CREATED.name())
+                    .set(ChangeEventRepository.TABLE.ACCOUNT_ID, accountId)
+                    .set(ChangeEventRepository.TABLE.PAYLOAD, "{\"accountId\":\"" + accountId + "\",\"accountNumber\":1}")
+                    .set(ChangeEventRepository.TABLE.CREATED_AT, OffsetDateTime.now())
+                    .execute();
+            dsl.update(WATERMARK_TABLE)
+                    .set(WATERMARK_TABLE.READABLE_UP_TO, otherOffset)
+                    .set(WATERMARK_TABLE.UPDATED_AT, OffsetDateTime.now())
+                    .where(WATERMARK_TABLE.INSTANCE_ID.eq(otherInstanceId))
+                    .execute();
+            changeEventRepository.heartbeat();
+
+            List<ChangeEvent> events = getChanges("?after=" + offset).getEvents();
+            assertEquals(newArrayList(customer.getCustomerId(), null), events.stream()
+                    .map(ChangeEvent::getCustomerId)
+                    .collect(Collectors.toList()));
+            assertEquals(accountId, events.get(1).getAccountId());
+        } finally {
+            dsl.deleteFrom(WATERMARK_TABLE).where(WATERMARK_TABLE.INSTANCE_ID.eq(otherInstanceId)).execute();
+            changeEventRepository.heartbeat();
+        }
+    }
+
+    @Test
+    public void changes_invalidParametersReturn400() {
+        ResponseEntity<List<RestError>> response = testRestTemplate.exchange(changesUrl + "?limit=0",
+                HttpMethod.GET, null, new ParameterizedTypeReference<List<RestError>>() {
+                });
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals("limit", response.getBody().get(0).getField());
+    }
+
     private Customer createCustomer(Customer customer) {
         ResponseEntity<Customer> response = testRestTemplate.exchange(customersUrl,
                 HttpMethod.POST, new HttpEntity<>(customer), Customer.class);
@@ -314,6 +1152,13 @@ class ApplicationIntTest {
         return response.getBody();
     }
 
+    private BatchResult createCustomers(HttpEntity<?> request) {
+        ResponseEntity<BatchResult> response = testRestTemplate.exchange(customersBatchUrl,
+                HttpMethod.POST, request, BatchResult.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return response.getBody();
+    }
+
     private ResponseEntity<List<RestError>> createCustomerExpectingError(Customer customer) {
         return testRestTemplate.exchange(customersUrl,
                 HttpMethod.POST, new HttpEntity<>(customer), new ParameterizedTypeReference<List<RestError>>() {
@@ -321,14 +1166,21 @@ class ApplicationIntTest {
     }
 
     private List<Customer> searchCustomers(Customer customer) {
-        ResponseEntity<List<Customer>> response = testRestTemplate.exchange(customerSearchesUrl,
-                HttpMethod.POST, new HttpEntity<>(customer), new ParameterizedTypeReference<List<Customer>>() {
-                });
+        return searchCustomers(customer, "");
+    }
 
+    private List<Customer> searchCustomers(Object search, String queryString) {
+        ResponseEntity<List<Customer>> response = searchCustomersPage(search, queryString);
         assertEquals(HttpStatus.OK, response.getStatusCode());
         return response.getBody();
     }
 
+    private ResponseEntity<List<Customer>> searchCustomersPage(Object search, String queryString) {
+        return testRestTemplate.exchange(customerSearchesUrl + queryString,
+                HttpMethod.POST, new HttpEntity<>(search), new ParameterizedTypeReference<List<Customer>>() {
+                });
+    }
+
     private ResponseEntity<Customer> getCustomerById(String customerId) {
         return testRestTemplate.exchange(customersUrl + "/" + customerId,
                 HttpMethod.GET, null, Customer.class);
@@ -350,7 +1202,11 @@ class ApplicationIntTest {
     }
 
     private List<Account> searchAccounts(Account account) {
-        ResponseEntity<List<Account>> response = testRestTemplate.exchange(accountSearchesUrl,
+        return searchAccounts(account, "");
+    }
+
+    private List<Account> searchAccounts(Account account, String queryString) {
+        ResponseEntity<List<Account>> response = testRestTemplate.exchange(accountSearchesUrl + queryString,
                 HttpMethod.POST, new HttpEntity<>(account), new ParameterizedTypeReference<List<Account>>() {
                 });
         assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -374,6 +1230,66 @@ class ApplicationIntTest {
         assertEquals(expected.getCustomerIds(), expected.getCustomerIds());
     }
 
+    private void link(Customer customer, Account account) {
+        createCustomerAccountLink(CustomerAccountLink.builder()
+                .customerId(customer.getCustomerId())
+                .accountId(account.getAccountId())
+                .build());
+    }
+
+    private ChangeBatch getChanges(String queryString) {
+        ResponseEntity<ChangeBatch> response = testRestTemplate.getForEntity(changesUrl + queryString, ChangeBatch.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return response.getBody();
+    }
+
+    private long latestChangeOffset() {
+        ChangeBatch batch = getChanges("?limit=1000");
+        while (!batch.getEvents().isEmpty()) {
+            batch = getChanges("?limit=1000&after=" + batch.getNextOffset());
+        }
+        return batch.getNextOffset();
+    }
+
+    /**
+     * Reads the first {@code count} server-sent events from the stream, then disconnects
+     */
+    private List<SentEvent> streamChanges(String queryString, String lastEventId, int count) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(changesUrl + queryString).openConnection();
+        connection.setRequestProperty(HttpHeaders.ACCEPT, MediaType.TEXT_EVENT_STREAM_VALUE);
+        connection.setReadTimeout(10_000);
+        if (lastEventId != null) {
+            connection.setRequestProperty("Last-Event-ID", lastEventId);
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            List<SentEvent> events = new ArrayList<>();
+            SentEvent event = new SentEvent();
+            while (events.size() < count) {
+                String line = reader.readLine();
+                if (line.startsWith("id:")) {
+                    event.id = line.substring(3);
+                } else if (line.startsWith("event:")) {
+                    event.name = line.substring(6);
+                } else if (line.startsWith("data:")) {
+                    event.data = objectMapper.readValue(line.substring(5), ChangeEvent.class);
+                } else if (line.isEmpty() && event.data != null) {
+                    events.add(event);
+                    event = new SentEvent();
+                }
+            }
+            return events;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static class SentEvent {
+        private String id;
+        private String name;
+        private ChangeEvent data;
+    }
+
     private CustomerAccountLink createCustomerAccountLink(CustomerAccountLink link) {
         ResponseEntity<CustomerAccountLink> response = testRestTemplate.exchange(customerAccountLinksUrl,
                 HttpMethod.POST, new HttpEntity<>(link), CustomerAccountLink.class);
@@ -0,0 +1,77 @@
+package uk.co.phoebus;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import uk.co.phoebus.model.CustomerAccountLink;
+import uk.co.phoebus.web.RestError;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static uk.co.phoebus.web.GlobalExceptionHandler.SERVICE_UNAVAILABLE_ERROR_MESSAGE;
+
+/**
+ * Checks requests fail fast with a 503 while every pooled connection is checked out
+ */
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = {
+        "spring.datasource.hikari.maximum-pool-size=2",
+        "spring.datasource.hikari.minimum-idle=2",
+        "spring.datasource.hikari.connection-timeout=250"})
+class PoolExhaustionIntTest {
+
+    private static final List<RestError> SERVICE_UNAVAILABLE = newArrayList(RestError.builder()
+            .message(SERVICE_UNAVAILABLE_ERROR_MESSAGE)
+            .build());
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate testRestTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    public void exhaustedPool_readFailsFast() throws Exception {
+        try (Connection first = dataSource.getConnection(); Connection second = dataSource.getConnection()) {
+            ResponseEntity<List<RestError>> response = testRestTemplate.exchange(
+                    String.format("http://localhost:%s/customers/does-not-exist", port),
+                    HttpMethod.GET, null, new ParameterizedTypeReference<List<RestError>>() {});
+
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+            assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+            assertEquals(SERVICE_UNAVAILABLE, response.getBody());
+        }
+    }
+
+    @Test
+    public void exhaustedPool_transactionalWriteFailsFast() throws Exception {
+        List<CustomerAccountLink> links = newArrayList(CustomerAccountLink.builder()
+                .customerId("customer")
+                .accountId("account")
+                .build());
+        try (Connection first = dataSource.getConnection(); Connection second = dataSource.getConnection()) {
+            ResponseEntity<List<RestError>> response = testRestTemplate.exchange(
+                    String.format("http://localhost:%s/customer-account-links/batch", port),
+                    HttpMethod.POST, new HttpEntity<>(links), new ParameterizedTypeReference<List<RestError>>() {});
+
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+            assertEquals(SERVICE_UNAVAILABLE, response.getBody());
+        }
+    }
+
+}
@@ -0,0 +1,255 @@
+package uk.co.phoebus;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.Table;
+import org.jooq.TableRecord;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.util.FileSystemUtils;
+import uk.co.phoebus.config.ReplicaRoutingConnectionProvider;
+import uk.co.phoebus.db.ChangeEventRepository;
+import uk.co.phoebus.db.ReplicaReads;
+import uk.co.phoebus.model.ChangeEvent;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerSearch;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static nu.studer.sample.public_.tables.Account.ACCOUNT;
+import static nu.studer.sample.public_.tables.ChangeEvent.CHANGE_EVENT;
+import static nu.studer.sample.public_.tables.ChangeEventWatermark.CHANGE_EVENT_WATERMARK;
+import static nu.studer.sample.public_.tables.Customer.CUSTOMER;
+import static nu.studer.sample.public_.tables.CustomerAccount.CUSTOMER_ACCOUNT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static uk.co.phoebus.model.TestObjects.aDefaultCustomer;
+
+/**
+ * Runs against two file H2 databases, a primary and a replica the tests "replicate" to by copying the tables across.
+ * Customers inserted into the replica alone show which database served a read. The replica's health is checked when
+ * each test asks, rather than on a schedule.
+ */
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:file:" + ReplicaRoutingIntTest.DIRECTORY + "/primary",
+        "spring.datasource.username=sa",
+        "kyc.replicas.urls=" + ReplicaRoutingIntTest.REPLICA_URL,
+        "kyc.replicas.max-lag-changes=2",
+        "kyc.replicas.max-tracked-ids=2",
+        "kyc.replicas.health-check-interval-ms=3600000"})
+class ReplicaRoutingIntTest {
+
+    static final String DIRECTORY = "./build/replica-routing-int-test";
+    static final String REPLICA_URL = "jdbc:h2:file:" + DIRECTORY + "/replica";
+
+    // in the order they can be inserted in
+    private static final List<Table<? extends TableRecord<?>>> TABLES = newArrayList(CUSTOMER, ACCOUNT, CUSTOMER_ACCOUNT, CHANGE_EVENT,
+            CHANGE_EVENT_WATERMARK);
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate testRestTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ReplicaRoutingConnectionProvider connectionProvider;
+
+    @Autowired
+    private ReplicaReads replicaReads;
+
+    @Autowired
+    private ChangeEventRepository changeEventRepository;
+
+    @BeforeAll
+    static void createReplica() throws IOException {
+        FileSystemUtils.deleteRecursively(Paths.get(DIRECTORY));
+        Flyway.configure()
+                .dataSource(REPLICA_URL, "sa", "")
+                .locations("classpath:db/migration", "classpath:uk/co/phoebus/db/migration")
+                .load()
+                .migrate();
+    }
+
+    @BeforeEach
+    void catchUp() throws SQLException {
+        replicate();
+        connectionProvider.checkReplicas();
+    }
+
+    @Test
+    public void readById_isServedByACaughtUpReplica() throws SQLException {
+        String replicaOnly = insertIntoReplicaOnly();
+
+        assertEquals(HttpStatus.OK, getCustomer(replicaOnly).getStatusCode());
+    }
+
+    @Test
+    public void readById_ofACreatedCustomerStaysOnThePrimaryUntilTheReplicaHasIt() throws SQLException {
+        Customer created = testRestTemplate.postForObject(url("/customers"), aDefaultCustomer(), Customer.class);
+        String replicaOnly = insertIntoReplicaOnly();
+        connectionProvider.checkReplicas();
+
+        // the replica is one change behind, so still serves reads - but not of the customer it hasn't got yet
+        assertEquals(HttpStatus.OK, getCustomer(replicaOnly).getStatusCode());
+        assertEquals(HttpStatus.OK, getCustomer(created.getCustomerId()).getStatusCode());
+
+        replicate();
+        connectionProvider.checkReplicas();
+        assertEquals(0, replicaReads.getTrackedIds());
+    }
+
+    @Test
+    public void readById_ofACreatedCustomerStaysOnThePrimaryWhileTheReplicaOnlyHasLaterChanges() throws SQLException {
+        Customer created = testRestTemplate.postForObject(url("/customers"), aDefaultCustomer(), Customer.class);
+        // a change given a later offset, but committed (and replicated) first
+        onReplica(replica -> replica.insertInto(CHANGE_EVENT)
+                .set(CHANGE_EVENT.EVENT_ID, Long.MAX_VALUE)
+                .set(CHANGE_EVENT.EVENT_TYPE, ChangeEvent.Type.ACCOUNT_CREATED.name())
+                .set(CHANGE_EVENT.ACCOUNT_ID, UUID.randomUUID().toString())
+                .set(CHANGE_EVENT.PAYLOAD, "{}")
+                .set(CHANGE_EVENT.CREATED_AT, OffsetDateTime.now())
+                .execute());
+        connectionProvider.checkReplicas();
+
+        assertEquals(HttpStatus.OK, getCustomer(created.getCustomerId()).getStatusCode());
+        assertEquals(1, replicaReads.getTrackedIds());
+    }
+
+    @Test
+    public void readById_ofACreatedCustomerIsRememberedUntilEveryReplicaHasIt() throws SQLException {
+        Customer created = testRestTemplate.postForObject(url("/customers"), aDefaultCustomer(), Customer.class);
+        replicate();
+        ReplicaRoutingConnectionProvider twoReplicas = new ReplicaRoutingConnectionProvider(dataSource, newArrayList(
+                new ReplicaRoutingConnectionProvider.Replica("up", new DriverManagerDataSource(REPLICA_URL, "sa", "")),
+                new ReplicaRoutingConnectionProvider.Replica("down", new DriverManagerDataSource(
+                        "jdbc:h2:file:" + DIRECTORY + "/missing;IFEXISTS=TRUE", "sa", ""))),
+                replicaReads, new SimpleMeterRegistry(), 2, 3600000, 30000);
+
+        // the unavailable replica may come back without the customer
+        twoReplicas.checkReplicas();
+        assertEquals(1, replicaReads.getTrackedIds());
+
+        connectionProvider.checkReplicas();
+        assertEquals(0, replicaReads.getTrackedIds());
+        assertEquals(HttpStatus.OK, getCustomer(created.getCustomerId()).getStatusCode());
+    }
+
+    @Test
+    public void readById_onceTooManyIdsAreWrittenNeedsAReplicaWithEveryWrite() throws SQLException {
+        String replicaOnly = insertIntoReplicaOnly();
+        try {
+            for (int i = 0; i < 3; i++) {
+                replicaReads.written(UUID.randomUUID().toString(), Long.MAX_VALUE - i);
+            }
+            assertTrue(replicaReads.getTrackedIds() <= 2);
+            assertEquals(HttpStatus.NOT_FOUND, getCustomer(replicaOnly).getStatusCode());
+        } finally {
+            replicaReads.replicatedUpTo(Long.MAX_VALUE);
+        }
+        assertEquals(HttpStatus.OK, getCustomer(replicaOnly).getStatusCode());
+    }
+
+    @Test
+    public void customerSearch_isServedByACaughtUpReplica() throws SQLException {
+        String replicaOnly = insertIntoReplicaOnly();
+
+        Customer[] customers = testRestTemplate.postForObject(url("/customer-searches"),
+                CustomerSearch.builder().customerId(replicaOnly).build(), Customer[].class);
+        assertEquals(1, customers.length);
+    }
+
+    @Test
+    public void reads_fallBackToThePrimaryWhileTheReplicaLagsOrFails() throws SQLException {
+        for (int i = 0; i < 3; i++) {
+            testRestTemplate.postForObject(url("/customers"), aDefaultCustomer(), Customer.class);
+        }
+        connectionProvider.checkReplicas();
+        assertEquals(HttpStatus.NOT_FOUND, getCustomer(insertIntoReplicaOnly()).getStatusCode());
+
+        replicate();
+        connectionProvider.checkReplicas();
+        assertEquals(HttpStatus.OK, getCustomer(insertIntoReplicaOnly()).getStatusCode());
+
+        onReplica(replica -> replica.execute("ALTER TABLE CHANGE_EVENT RENAME TO CHANGE_EVENT_OFFLINE"));
+        try {
+            connectionProvider.checkReplicas();
+            assertEquals(HttpStatus.NOT_FOUND, getCustomer(insertIntoReplicaOnly()).getStatusCode());
+        } finally {
+            onReplica(replica -> replica.execute("ALTER TABLE CHANGE_EVENT_OFFLINE RENAME TO CHANGE_EVENT"));
+        }
+    }
+
+    private ResponseEntity<String> getCustomer(String customerId) {
+        return testRestTemplate.getForEntity(url("/customers/" + customerId), String.class);
+    }
+
+    private String url(String path) {
+        return String.format("http://localhost:%s%s", port, path);
+    }
+
+    /**
+     * Replaces the replica's rows with the primary's, once the primary's watermark has been recorded (as it would be
+     * within an interval)
+     */
+    private void replicate() throws SQLException {
+        changeEventRepository.heartbeat();
+        DSLContext primary = DSL.using(dataSource, SQLDialect.H2);
+        onReplica(replica -> {
+            for (int i = TABLES.size() - 1; i >= 0; i--) {
+                replica.deleteFrom(TABLES.get(i)).execute();
+            }
+            for (Table<? extends TableRecord<?>> table : TABLES) {
+                Result<? extends TableRecord<?>> rows = primary.selectFrom(table).fetch();
+                // only changed values are inserted
+                rows.forEach(row -> row.changed(true));
+                replica.batchInsert(rows).execute();
+            }
+        });
+    }
+
+    private String insertIntoReplicaOnly() throws SQLException {
+        String customerId = UUID.randomUUID().toString();
+        onReplica(replica -> replica.insertInto(CUSTOMER)
+                .set(CUSTOMER.CUSTOMER_ID, customerId)
+                .set(CUSTOMER.FORENAME, "Replica")
+                .set(CUSTOMER.SURNAME, "Only")
+                .set(CUSTOMER.DATE_OF_BIRTH, LocalDate.parse("1980-01-01"))
+                .execute());
+        return customerId;
+    }
+
+    private static void onReplica(Consumer<DSLContext> work) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(REPLICA_URL, "sa", "")) {
+            work.accept(DSL.using(connection, SQLDialect.H2));
+        }
+    }
+
+}
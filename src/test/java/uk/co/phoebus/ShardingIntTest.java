@@ -0,0 +1,215 @@
+package uk.co.phoebus;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import uk.co.phoebus.db.AccountRepository;
+import uk.co.phoebus.db.CustomerAccountLinkRepository;
+import uk.co.phoebus.db.CustomerRepository;
+import uk.co.phoebus.db.Shards;
+import uk.co.phoebus.model.Account;
+import uk.co.phoebus.model.ChangeBatch;
+import uk.co.phoebus.model.ChangeEvent;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerAccountLink;
+import uk.co.phoebus.model.CustomerSearch;
+import uk.co.phoebus.web.KeysetPaging;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static nu.studer.sample.public_.tables.Account.ACCOUNT;
+import static nu.studer.sample.public_.tables.Customer.CUSTOMER;
+import static nu.studer.sample.public_.tables.CustomerAccount.CUSTOMER_ACCOUNT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static uk.co.phoebus.model.TestObjects.aDefaultAccount;
+import static uk.co.phoebus.model.TestObjects.aDefaultCustomer;
+
+/**
+ * Runs against three in-memory H2 shards, checking where rows are placed by reading each shard directly
+ */
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:sharding-int-test-0;DB_CLOSE_DELAY=-1",
+        "kyc.shards.urls=jdbc:h2:mem:sharding-int-test-1;DB_CLOSE_DELAY=-1,jdbc:h2:mem:sharding-int-test-2;DB_CLOSE_DELAY=-1"})
+class ShardingIntTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate testRestTemplate;
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+    @Autowired
+    private AccountRepository accountRepository;
+    @Autowired
+    private CustomerAccountLinkRepository linkRepository;
+
+    @BeforeEach
+    void beforeEach() {
+        customerRepository.deleteAll();
+        accountRepository.deleteAll();
+        linkRepository.deleteAll();
+    }
+
+    @Test
+    public void customers_arePlacedOnTheShardOfTheirIdAndReadFromIt() {
+        List<String> customerIds = createCustomers("Placed", 30);
+
+        int[] perShard = new int[shards.count()];
+        for (String customerId : customerIds) {
+            int shard = Shards.shardOf(customerId, shards.count());
+            perShard[shard]++;
+            for (int s = 0; s < shards.count(); s++) {
+                assertEquals(s == shard ? 1 : 0, shards.dsl(s).fetchCount(CUSTOMER, CUSTOMER.CUSTOMER_ID.eq(customerId)));
+            }
+            assertEquals(HttpStatus.OK, testRestTemplate.getForEntity(url("/customers/" + customerId), Customer.class)
+                    .getStatusCode());
+        }
+        for (int count : perShard) {
+            assertTrue(count > 0);
+        }
+    }
+
+    @Test
+    public void customers_aBatchReportsWhichShardsCommitted() {
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            customers.add(aDefaultCustomer().toBuilder().customerId(UUID.randomUUID().toString()).build());
+        }
+        // already on its shard, so that shard's batch fails
+        Customer existing = customers.get(0);
+        customerRepository.save(existing);
+        int failedShard = shards.shardOf(existing.getCustomerId());
+
+        List<Customer> saved = customerRepository.saveAll(customers);
+
+        List<Customer> expected = customers.stream()
+                .filter(customer -> shards.shardOf(customer.getCustomerId()) != failedShard)
+                .collect(Collectors.toList());
+        assertEquals(expected, saved);
+        for (Customer customer : expected) {
+            assertEquals(HttpStatus.OK, testRestTemplate.getForEntity(url("/customers/" + customer.getCustomerId()),
+                    Customer.class).getStatusCode());
+        }
+    }
+
+    @Test
+    public void accounts_numbersAreUniqueAcrossShards() {
+        Account account = aDefaultAccount().toBuilder().accountNumber(30000000).build();
+        assertEquals(HttpStatus.OK, testRestTemplate.postForEntity(url("/accounts"), account, String.class)
+                .getStatusCode());
+        // each new account is given its own id, so lands on any shard
+        for (int i = 0; i < 6; i++) {
+            assertEquals(HttpStatus.BAD_REQUEST, testRestTemplate.postForEntity(url("/accounts"), account, String.class)
+                    .getStatusCode());
+        }
+        int accounts = 0;
+        for (int s = 0; s < shards.count(); s++) {
+            accounts += shards.dsl(s).fetchCount(ACCOUNT, ACCOUNT.ACCOUNT_NUMBER.eq(30000000));
+        }
+        assertEquals(1, accounts);
+    }
+
+    @Test
+    public void customerSearch_pagesAreMergedInIdOrderAcrossShards() {
+        List<String> customerIds = createCustomers("Paged", 12);
+        customerIds.sort(Comparator.comparing(UUID::fromString));
+
+        List<String> paged = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            ResponseEntity<List<Customer>> page = testRestTemplate.exchange(url("/customer-searches?pageSize=5"
+                            + (continuationToken == null ? "" : "&continuationToken=" + continuationToken)),
+                    HttpMethod.POST, new HttpEntity<>(CustomerSearch.builder().surname("Paged").build()),
+                    new ParameterizedTypeReference<List<Customer>>() {
+                    });
+            page.getBody().forEach(customer -> paged.add(customer.getCustomerId()));
+            continuationToken = page.getHeaders().getFirst(KeysetPaging.CONTINUATION_TOKEN_HEADER);
+        } while (continuationToken != null);
+
+        assertEquals(customerIds, paged);
+    }
+
+    @Test
+    public void links_arePlacedWithTheirCustomer() {
+        String customerId = createCustomers("Linked", 1).get(0);
+        List<String> accountIds = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            accountIds.add(testRestTemplate.postForObject(url("/accounts"),
+                    aDefaultAccount().toBuilder().accountNumber(20000000 + i).build(), Account.class).getAccountId());
+        }
+        accountIds.sort(Comparator.comparing(UUID::fromString));
+        for (String accountId : accountIds.subList(0, 3)) {
+            assertEquals(HttpStatus.OK, testRestTemplate.postForEntity(url("/customer-account-links"),
+                    new CustomerAccountLink(customerId, accountId), String.class).getStatusCode());
+        }
+        testRestTemplate.postForObject(url("/customer-account-links/batch"), accountIds.subList(3, 6).stream()
+                .map(accountId -> new CustomerAccountLink(customerId, accountId))
+                .collect(Collectors.toList()), String.class);
+
+        int customerShard = Shards.shardOf(customerId, shards.count());
+        for (int s = 0; s < shards.count(); s++) {
+            assertEquals(s == customerShard ? 6 : 0, shards.dsl(s).fetchCount(CUSTOMER_ACCOUNT));
+        }
+        List<String> linked = testRestTemplate.getForObject(url("/customers/" + customerId), Customer.class)
+                .getAccountIds();
+        linked.sort(Comparator.comparing(UUID::fromString));
+        assertEquals(accountIds, linked);
+        for (String accountId : accountIds) {
+            assertEquals(newArrayList(customerId), testRestTemplate.getForObject(url("/accounts/" + accountId),
+                    Account.class).getCustomerIds());
+        }
+        List<Account> searched = testRestTemplate.exchange(url("/account-searches"), HttpMethod.POST,
+                new HttpEntity<>(Account.builder().customerIds(newArrayList(customerId)).build()),
+                new ParameterizedTypeReference<List<Account>>() {
+                }).getBody();
+        assertEquals(accountIds, searched.stream().map(Account::getAccountId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void changes_areReadInOffsetOrderAcrossShards() {
+        long after = testRestTemplate.getForObject(url("/changes?limit=1000"), ChangeBatch.class).getNextOffset();
+        List<String> customerIds = createCustomers("Changed", 10);
+
+        List<ChangeEvent> changes = testRestTemplate.getForObject(url("/changes?limit=1000&after=" + after),
+                ChangeBatch.class).getEvents();
+
+        assertEquals(customerIds, changes.stream().map(ChangeEvent::getCustomerId).collect(Collectors.toList()));
+        for (int i = 1; i < changes.size(); i++) {
+            assertTrue(changes.get(i).getOffset() > changes.get(i - 1).getOffset());
+        }
+    }
+
+    private List<String> createCustomers(String surname, int count) {
+        List<String> customerIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            customerIds.add(testRestTemplate.postForObject(url("/customers"),
+                    aDefaultCustomer().toBuilder().surname(surname).build(), Customer.class).getCustomerId());
+        }
+        return customerIds;
+    }
+
+    private String url(String path) {
+        return String.format("http://localhost:%s%s", port, path);
+    }
+
+}
@@ -0,0 +1,105 @@
+package uk.co.phoebus;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import uk.co.phoebus.config.BoundedDataSource;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+/**
+ * Checks requests run on virtual threads and database access is bounded when virtual threads are enabled - only runs
+ * on Java 21+ (the bound itself is covered by {@link uk.co.phoebus.config.BoundedDataSourceTest} on any version)
+ */
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = {
+        "kyc.virtual-threads.enabled=true",
+        "kyc.virtual-threads.max-concurrent-db-access=4",
+        "spring.datasource.url=jdbc:h2:mem:virtual-threads-int-test-0;DB_CLOSE_DELAY=-1",
+        "kyc.shards.urls=jdbc:h2:mem:virtual-threads-int-test-1;DB_CLOSE_DELAY=-1",
+        "kyc.shards.maximum-pool-size=3",
+        "kyc.replicas.urls=jdbc:h2:mem:virtual-threads-int-test-replica;DB_CLOSE_DELAY=-1",
+        "kyc.replicas.maximum-pool-size=2"})
+class VirtualThreadsIntTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate testRestTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeAll
+    public static void requireVirtualThreads() {
+        assumeTrue(Runtime.version().feature() >= 21, "virtual threads need Java 21+");
+    }
+
+    @Test
+    public void requestsRunOnVirtualThreads() {
+        ResponseEntity<Boolean> response = testRestTemplate.getForEntity(
+                String.format("http://localhost:%s/test/virtual-thread", port), Boolean.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody());
+    }
+
+    @Test
+    public void databaseAccessIsBounded() {
+        assertTrue(dataSource instanceof BoundedDataSource);
+        BoundedDataSource bounded = (BoundedDataSource) dataSource;
+        assertEquals(4, bounded.getMaxConcurrent());
+
+        ResponseEntity<String> response = testRestTemplate.getForEntity(
+                String.format("http://localhost:%s/customers/does-not-exist", port), String.class);
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        assertEquals(4, bounded.getAvailablePermits());
+    }
+
+    @Test
+    public void shardAndReplicaPoolsAreBoundedToTheirPoolSizes() {
+        assertEquals(4.0, permitsAvailable("primary"));
+        assertEquals(3.0, permitsAvailable("kyc-shard-1"));
+        assertEquals(2.0, permitsAvailable("kyc-replica-0"));
+    }
+
+    private double permitsAvailable(String pool) {
+        Gauge gauge = meterRegistry.find("kyc.db.permits.available").tag("pool", pool).gauge();
+        assertNotNull(gauge, pool);
+        return gauge.value();
+    }
+
+    @TestConfiguration
+    static class ThreadReportingController {
+
+        @RestController
+        static class Controller {
+
+            @GetMapping("/test/virtual-thread")
+            public boolean isVirtualThread() throws ReflectiveOperationException {
+                return (Boolean) Thread.class.getMethod("isVirtual").invoke(Thread.currentThread());
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+package uk.co.phoebus;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.web.RestError;
+
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static uk.co.phoebus.model.TestObjects.aDefaultCustomer;
+import static uk.co.phoebus.web.GlobalExceptionHandler.SERVICE_UNAVAILABLE_ERROR_MESSAGE;
+
+/**
+ * Checks customer creates with write-behind enabled. Groups wait long enough for more customers that every request
+ * in a test lands in the same group, so a queue of two fills deterministically.
+ */
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = {
+        "kyc.customers.write-behind.enabled=true",
+        "kyc.customers.write-behind.capacity=2",
+        "kyc.customers.write-behind.max-group-size=10",
+        "kyc.customers.write-behind.max-group-delay-ms=3000"})
+class WriteBehindIntTest {
+
+    private static final List<RestError> SERVICE_UNAVAILABLE = newArrayList(RestError.builder()
+            .message(SERVICE_UNAVAILABLE_ERROR_MESSAGE)
+            .build());
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate testRestTemplate;
+
+    @Test
+    public void createCustomer_respondsOnceCommitted() {
+        ResponseEntity<Customer> response = createCustomer(new HttpHeaders());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(HttpStatus.OK, getCustomer(response.getBody().getCustomerId()).getStatusCode());
+    }
+
+    @Test
+    public void createCustomer_respondAsyncIsAcceptedUntilTheQueueIsFull() throws Exception {
+        HttpHeaders respondAsync = new HttpHeaders();
+        respondAsync.set("Prefer", "respond-async");
+
+        ResponseEntity<Customer> first = createCustomer(respondAsync);
+        ResponseEntity<Customer> second = createCustomer(respondAsync);
+        ResponseEntity<List<RestError>> full = testRestTemplate.exchange(customersUrl(), HttpMethod.POST,
+                new HttpEntity<>(aDefaultCustomer(), respondAsync), new ParameterizedTypeReference<List<RestError>>() {
+                });
+
+        assertEquals(HttpStatus.ACCEPTED, first.getStatusCode());
+        assertEquals("respond-async", first.getHeaders().getFirst("Preference-Applied"));
+        assertNotNull(first.getBody().getCustomerId());
+        assertEquals(HttpStatus.ACCEPTED, second.getStatusCode());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, full.getStatusCode());
+        assertNotNull(full.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals(SERVICE_UNAVAILABLE, full.getBody());
+
+        awaitCustomer(first.getBody().getCustomerId());
+        awaitCustomer(second.getBody().getCustomerId());
+    }
+
+    private ResponseEntity<Customer> createCustomer(HttpHeaders headers) {
+        return testRestTemplate.exchange(customersUrl(), HttpMethod.POST, new HttpEntity<>(aDefaultCustomer(), headers),
+                Customer.class);
+    }
+
+    private ResponseEntity<Customer> getCustomer(String customerId) {
+        return testRestTemplate.getForEntity(customersUrl() + "/" + customerId, Customer.class);
+    }
+
+    private void awaitCustomer(String customerId) throws InterruptedException {
+        for (int attempt = 0; attempt < 100 && getCustomer(customerId).getStatusCode() == HttpStatus.NOT_FOUND; attempt++) {
+            Thread.sleep(100);
+        }
+        assertEquals(HttpStatus.OK, getCustomer(customerId).getStatusCode());
+    }
+
+    private String customersUrl() {
+        return String.format("http://localhost:%s/customers", port);
+    }
+
+}
@@ -0,0 +1,56 @@
+package uk.co.phoebus.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedDataSourceTest {
+
+    private HikariDataSource pool;
+    private BoundedDataSource bounded;
+
+    @BeforeEach
+    void beforeEach() {
+        pool = new HikariDataSource();
+        pool.setJdbcUrl("jdbc:h2:mem:bounded-data-source-test");
+        pool.setMaximumPoolSize(4);
+        bounded = new BoundedDataSource(pool, 2, 50);
+    }
+
+    @AfterEach
+    void afterEach() {
+        pool.close();
+    }
+
+    @Test
+    public void getConnection_timesOutOnceTheBoundIsReached() throws Exception {
+        try (Connection first = bounded.getConnection(); Connection second = bounded.getConnection()) {
+            assertEquals(0, bounded.getAvailablePermits());
+            assertThrows(SQLTransientConnectionException.class, bounded::getConnection);
+        }
+        assertEquals(2, bounded.getAvailablePermits());
+    }
+
+    @Test
+    public void close_releasesThePermitOnce() throws Exception {
+        Connection connection = bounded.getConnection();
+        connection.close();
+        connection.close();
+        assertEquals(2, bounded.getAvailablePermits());
+    }
+
+    @Test
+    public void close_closesThePool() throws Exception {
+        bounded.close();
+        assertTrue(pool.isClosed());
+    }
+
+}
@@ -0,0 +1,28 @@
+package uk.co.phoebus.config;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QueryMetricsListenerTest {
+
+    @Test
+    public void fingerprint_collapsesWhitespace() {
+        assertEquals("select * from CUSTOMER where ID = ?",
+                QueryMetricsListener.fingerprint("  select *\n  from CUSTOMER\twhere ID = ? "));
+    }
+
+    @Test
+    public void fingerprint_collapsesInLists() {
+        String fingerprint = "select * from CUSTOMER_ACCOUNT where CUSTOMER_ID in (?, ...)";
+        assertEquals(fingerprint, QueryMetricsListener.fingerprint("select * from CUSTOMER_ACCOUNT where CUSTOMER_ID in (?)"));
+        assertEquals(fingerprint, QueryMetricsListener.fingerprint("select * from CUSTOMER_ACCOUNT where CUSTOMER_ID in (?, ?, ?)"));
+    }
+
+    @Test
+    public void fingerprint_collapsesMultiRowValues() {
+        assertEquals("insert into CUSTOMER_ACCOUNT (CUSTOMER_ID, ACCOUNT_ID) values (?, ?), ...",
+                QueryMetricsListener.fingerprint("insert into CUSTOMER_ACCOUNT (CUSTOMER_ID, ACCOUNT_ID) values (?, ?), (?, ?), (?, ?)"));
+    }
+
+}
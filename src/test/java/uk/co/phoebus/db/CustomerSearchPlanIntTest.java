@@ -0,0 +1,114 @@
+package uk.co.phoebus.db;
+
+import org.jooq.DSLContext;
+import org.jooq.Select;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerSearch;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.NONE;
+
+/**
+ * EXPLAINs every supported search shape against a seeded table (large enough for H2 to have analysed it) and fails
+ * if any table is read without an index condition - a table scan, or a walk of the whole primary key in order
+ */
+@SpringBootTest(webEnvironment = NONE)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class CustomerSearchPlanIntTest {
+
+    private static final int CUSTOMERS = 5000;
+    private static final LocalDate FROM = LocalDate.parse("1980-01-01");
+    private static final LocalDate TO = LocalDate.parse("1980-12-31");
+
+    // e.g. "/* PUBLIC.IDX_CUSTOMER_DATE_OF_BIRTH: DATE_OF_BIRTH = ?1 */", "/* PUBLIC.CUSTOMER.tableScan */"
+    private static final Pattern INDEX_USAGE = Pattern.compile("/\\* PUBLIC\\.(\\w+)(:?)");
+
+    @Autowired
+    private DSLContext dsl;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @BeforeAll
+    public void seed() {
+        customerRepository.deleteAll();
+        List<Customer> customers = new ArrayList<>(CUSTOMERS);
+        for (int i = 0; i < CUSTOMERS; i++) {
+            customers.add(Customer.builder()
+                    .customerId(UUID.randomUUID().toString())
+                    .forename("Forename" + i % 300)
+                    .surname("Surname" + i % 1000)
+                    .dateOfBirth(LocalDate.parse("1940-01-01").plusDays(i * 5L))
+                    .build());
+        }
+        customerRepository.saveAll(customers);
+    }
+
+    @AfterAll
+    public void cleanUp() {
+        customerRepository.deleteAll();
+    }
+
+    static Stream<Arguments> searchShapes() {
+        return Stream.of(
+                arguments("surname", CustomerSearch.builder().surname("Surname1").build()),
+                arguments("forename", CustomerSearch.builder().forename("Forename1").build()),
+                arguments("surname and forename", CustomerSearch.builder().surname("Surname1").forename("Forename1").build()),
+                arguments("surname and date of birth", CustomerSearch.builder().surname("Surname1").dateOfBirth(FROM).build()),
+                arguments("forename and date of birth", CustomerSearch.builder().forename("Forename1").dateOfBirth(FROM).build()),
+                arguments("date of birth", CustomerSearch.builder().dateOfBirth(FROM).build()),
+                arguments("date of birth range", CustomerSearch.builder().dateOfBirthFrom(FROM).dateOfBirthTo(TO).build()),
+                arguments("born after", CustomerSearch.builder().dateOfBirthFrom(LocalDate.parse("2000-01-01")).build()),
+                arguments("surname and date of birth range",
+                        CustomerSearch.builder().surname("Surname1").dateOfBirthFrom(FROM).dateOfBirthTo(TO).build()),
+                arguments("surnames", CustomerSearch.builder().surnames(List.of("Surname1", "Surname2")).build()),
+                arguments("forenames and date of birth range", CustomerSearch.builder()
+                        .forenames(List.of("Forename1", "Forename2")).dateOfBirthFrom(FROM).dateOfBirthTo(TO).build()),
+                arguments("customer ids", CustomerSearch.builder().customerIds(List.of("a", "b")).build()),
+                arguments("customer id and surname", CustomerSearch.builder().customerId("a").surname("Surname1").build()),
+                arguments("account ids", CustomerSearch.builder().accountIds(List.of("a", "b")).build()));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("searchShapes")
+    public void searchShape_firstPageUsesAnIndex(String shape, CustomerSearch search) {
+        assertEveryTableReadThroughAnIndex(customerRepository.selectPageBySearch(search, null, 101));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("searchShapes")
+    public void searchShape_laterPageUsesAnIndex(String shape, CustomerSearch search) {
+        assertEveryTableReadThroughAnIndex(customerRepository.selectPageBySearch(search,
+                "80000000-0000-0000-0000-000000000000", 101));
+    }
+
+    private void assertEveryTableReadThroughAnIndex(Select<?> select) {
+        String plan = dsl.explain(select).plan();
+        Matcher indexUsage = INDEX_USAGE.matcher(plan);
+        int tables = 0;
+        while (indexUsage.find()) {
+            tables++;
+            assertEquals(":", indexUsage.group(2), () -> "No index condition on " + indexUsage.group(1) + " in\n" + plan);
+        }
+        assertTrue(tables > 0, () -> "Unrecognised plan\n" + plan);
+    }
+
+}
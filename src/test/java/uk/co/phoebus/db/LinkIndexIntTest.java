@@ -0,0 +1,189 @@
+package uk.co.phoebus.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import uk.co.phoebus.cache.KycViewCache;
+import uk.co.phoebus.event.CustomerAccountLinkCreatedEvent;
+import uk.co.phoebus.model.Account;
+import uk.co.phoebus.model.ChangeEvent;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.CustomerAccountLink;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static nu.studer.sample.public_.Sequences.CHANGE_EVENT_SEQ;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.NONE;
+import static uk.co.phoebus.db.CustomerAccountLinkRepository.TABLE;
+import static uk.co.phoebus.model.TestObjects.aDefaultAccount;
+import static uk.co.phoebus.model.TestObjects.aDefaultCustomer;
+
+@SpringBootTest(webEnvironment = NONE, properties = "kyc.link-index.enabled=true")
+class LinkIndexIntTest {
+
+    @Autowired
+    private LinkIndex linkIndex;
+    @Autowired
+    private DSLContext dsl;
+    @Autowired
+    private CustomerRepository customerRepository;
+    @Autowired
+    private AccountRepository accountRepository;
+    @Autowired
+    private CustomerAccountLinkRepository linkRepository;
+    @Autowired
+    private ChangeEventRepository changeEventRepository;
+    @Autowired
+    private KycViewCache kycViewCache;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private Customer customer;
+    private Account first;
+    private Account second;
+
+    @BeforeEach
+    public void beforeEach() {
+        deleteAll();
+        customer = customerRepository.save(aDefaultCustomer().toBuilder().customerId(UUID.randomUUID().toString()).build());
+        first = accountRepository.save(aDefaultAccount().toBuilder().accountId(UUID.randomUUID().toString()).build());
+        second = accountRepository.save(aDefaultAccount().toBuilder()
+                .accountId(UUID.randomUUID().toString())
+                .accountNumber(22222222)
+                .build());
+    }
+
+    @AfterEach
+    public void deleteAll() {
+        linkRepository.deleteAll();
+        customerRepository.deleteAll();
+        accountRepository.deleteAll();
+    }
+
+    @Test
+    public void savedLinksAreReadFromTheIndex() {
+        linkRepository.save(new CustomerAccountLink(customer.getCustomerId(), first.getAccountId()));
+        linkRepository.saveAll(newArrayList(new CustomerAccountLink(customer.getCustomerId(), second.getAccountId())));
+
+        assertTrue(linkRepository.indexed());
+        assertEquals(newArrayList(
+                new CustomerAccountLink(customer.getCustomerId(), first.getAccountId()),
+                new CustomerAccountLink(customer.getCustomerId(), second.getAccountId())),
+                linkRepository.findByCustomerId(customer.getCustomerId()));
+        assertEquals(newArrayList(new CustomerAccountLink(customer.getCustomerId(), second.getAccountId())),
+                linkRepository.findByAccountId(second.getAccountId()));
+        Map<String, List<String>> customerIds = linkRepository.findCustomerIdsByAccountIds(
+                newArrayList(first.getAccountId(), second.getAccountId(), "unknown"));
+        assertEquals(2, customerIds.size());
+        assertEquals(newArrayList(customer.getCustomerId()), customerIds.get(first.getAccountId()));
+    }
+
+    @Test
+    public void linksWrittenAroundTheRepositoryAppearOnReload() {
+        dsl.insertInto(TABLE, TABLE.CUSTOMER_ID, TABLE.ACCOUNT_ID)
+                .values(customer.getCustomerId(), first.getAccountId())
+                .execute();
+        assertEquals(newArrayList(), linkRepository.findByCustomerId(customer.getCustomerId()));
+
+        linkIndex.load();
+        assertEquals(newArrayList(first.getAccountId()), linkIndex.accountIdsOf(customer.getCustomerId()));
+    }
+
+    @Test
+    public void idsAreIndexedAsTheDatabaseReturnsThem() {
+        linkRepository.save(new CustomerAccountLink(customer.getCustomerId().toUpperCase(),
+                first.getAccountId().toUpperCase()));
+
+        assertEquals(newArrayList(first.getAccountId()), linkIndex.accountIdsOf(customer.getCustomerId()));
+        assertEquals(newArrayList(customer.getCustomerId()), linkIndex.customerIdsOf(first.getAccountId().toUpperCase()));
+        assertEquals(1, linkIndex.size());
+    }
+
+    @Test
+    public void linksCreatedThroughOtherInstancesAreCaughtUpFromTheChangeLog() throws Exception {
+        // written by another instance, so only seen through the change log
+        CustomerAccountLink link = new CustomerAccountLink(customer.getCustomerId(), first.getAccountId());
+        dsl.insertInto(TABLE, TABLE.CUSTOMER_ID, TABLE.ACCOUNT_ID)
+                .values(link.getCustomerId(), link.getAccountId())
+                .execute();
+        dsl.insertInto(ChangeEventRepository.TABLE)
+                .set(ChangeEventRepository.TABLE.EVENT_ID, dsl.select(CHANGE_EVENT_SEQ.nextval()).fetchOne().value1())
+                .set(ChangeEventRepository.TABLE.EVENT_TYPE, ChangeEvent.Type.LINK_CREATED.name())
+                .set(ChangeEventRepository.TABLE.CUSTOMER_ID, link.getCustomerId())
+                .set(ChangeEventRepository.TABLE.ACCOUNT_ID, link.getAccountId())
+                .set(ChangeEventRepository.TABLE.PAYLOAD, objectMapper.writeValueAsString(link))
+                .set(ChangeEventRepository.TABLE.CREATED_AT, OffsetDateTime.now())
+                .execute();
+        changeEventRepository.heartbeat();
+
+        List<CustomerAccountLink> links = linkRepository.findByCustomerId(customer.getCustomerId());
+        for (int i = 0; i < 50 && links.isEmpty(); i++) {
+            Thread.sleep(100);
+            links = linkRepository.findByCustomerId(customer.getCustomerId());
+        }
+        assertEquals(newArrayList(link), links);
+    }
+
+    /**
+     * Views are loaded continually while links are created - one loaded between the view being invalidated and the
+     * index being updated would be cached without the link
+     */
+    @Test
+    public void cachedViewsAreInvalidatedOnceTheIndexHasTheLink() throws Exception {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            accounts.add(accountRepository.save(aDefaultAccount().toBuilder()
+                    .accountId(UUID.randomUUID().toString())
+                    .accountNumber(30000000 + i)
+                    .build()));
+        }
+        Function<String, Optional<Customer>> loader = id -> Optional.of(customer.toBuilder()
+                .accountIds(linkIndex.accountIdsOf(id))
+                .build());
+        AtomicBoolean loading = new AtomicBoolean(true);
+        Thread views = new Thread(() -> {
+            while (loading.get()) {
+                kycViewCache.getCustomer(customer.getCustomerId(), loader);
+            }
+        });
+        views.start();
+        try {
+            for (Account account : accounts) {
+                linkRepository.save(new CustomerAccountLink(customer.getCustomerId(), account.getAccountId()));
+                assertTrue(kycViewCache.getCustomer(customer.getCustomerId(), loader).get().getAccountIds()
+                        .contains(account.getAccountId()));
+            }
+        } finally {
+            loading.set(false);
+            views.join();
+        }
+    }
+
+    @Test
+    public void duplicateAndDeletedLinksAreNotKept() {
+        CustomerAccountLink link = new CustomerAccountLink(customer.getCustomerId(), first.getAccountId());
+        linkRepository.save(link);
+        linkIndex.linkCreated(new CustomerAccountLinkCreatedEvent(link));
+        assertEquals(1, linkIndex.size());
+        assertTrue(linkIndex.estimatedBytes() > 0);
+
+        linkRepository.deleteAll();
+        assertEquals(0, linkIndex.size());
+        assertEquals(newArrayList(), linkIndex.customerIdsOf(first.getAccountId()));
+    }
+
+}
@@ -0,0 +1,113 @@
+package uk.co.phoebus.db;
+
+import org.flywaydb.core.Flyway;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static nu.studer.sample.public_.Sequences.CHANGE_EVENT_SEQ;
+import static nu.studer.sample.public_.tables.Account.ACCOUNT;
+import static nu.studer.sample.public_.tables.ChangeEvent.CHANGE_EVENT;
+import static nu.studer.sample.public_.tables.Customer.CUSTOMER;
+import static nu.studer.sample.public_.tables.CustomerAccount.CUSTOMER_ACCOUNT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Reshards two in-memory H2 databases into three
+ */
+class ResharderTest {
+
+    private static final List<String> FROM = newArrayList(
+            "jdbc:h2:mem:resharder-test-from-0;DB_CLOSE_DELAY=-1",
+            "jdbc:h2:mem:resharder-test-from-1;DB_CLOSE_DELAY=-1");
+    private static final List<String> TO = newArrayList(
+            "jdbc:h2:mem:resharder-test-to-0;DB_CLOSE_DELAY=-1",
+            "jdbc:h2:mem:resharder-test-to-1;DB_CLOSE_DELAY=-1",
+            "jdbc:h2:mem:resharder-test-to-2;DB_CLOSE_DELAY=-1");
+
+    @Test
+    public void reshard_placesEveryRowByTheNewShardCount() throws SQLException {
+        List<String> customerIds = new ArrayList<>();
+        long offset = 0;
+        for (int i = 0; i < FROM.size(); i++) {
+            Flyway.configure()
+                    .dataSource(FROM.get(i), "sa", "")
+                    .locations("classpath:db/migration", "classpath:uk/co/phoebus/db/migration")
+                    .load()
+                    .migrate();
+            for (int j = 0; j < 20; j++) {
+                String customerId = UUID.randomUUID().toString();
+                String accountId = UUID.randomUUID().toString();
+                long eventId = ++offset;
+                customerIds.add(customerId);
+                on(FROM.get(i), dsl -> {
+                    dsl.insertInto(CUSTOMER)
+                            .set(CUSTOMER.CUSTOMER_ID, customerId)
+                            .set(CUSTOMER.FORENAME, "Peter")
+                            .set(CUSTOMER.SURNAME, "Parker")
+                            .set(CUSTOMER.DATE_OF_BIRTH, LocalDate.parse("1980-07-06"))
+                            .execute();
+                    dsl.insertInto(ACCOUNT)
+                            .set(ACCOUNT.ACCOUNT_ID, accountId)
+                            .set(ACCOUNT.ACCOUNT_NUMBER, 10000000 + (int) eventId)
+                            .execute();
+                    dsl.insertInto(CUSTOMER_ACCOUNT)
+                            .set(CUSTOMER_ACCOUNT.CUSTOMER_ID, customerId)
+                            .set(CUSTOMER_ACCOUNT.ACCOUNT_ID, accountId)
+                            .execute();
+                    dsl.insertInto(CHANGE_EVENT)
+                            .set(CHANGE_EVENT.EVENT_ID, eventId)
+                            .set(CHANGE_EVENT.EVENT_TYPE, "LINK_CREATED")
+                            .set(CHANGE_EVENT.CUSTOMER_ID, customerId)
+                            .set(CHANGE_EVENT.ACCOUNT_ID, accountId)
+                            .set(CHANGE_EVENT.CREATED_AT, OffsetDateTime.now())
+                            .set(CHANGE_EVENT.PAYLOAD, "{}")
+                            .execute();
+                });
+            }
+        }
+
+        Map<String, Long> copied = new Resharder(FROM, TO, "sa", "", 7).reshard();
+
+        assertEquals(40L, (long) copied.get(CUSTOMER.getName()));
+        assertEquals(40L, (long) copied.get(ACCOUNT.getName()));
+        assertEquals(40L, (long) copied.get(CUSTOMER_ACCOUNT.getName()));
+        assertEquals(40L, (long) copied.get(CHANGE_EVENT.getName()));
+        for (String customerId : customerIds) {
+            int shard = Shards.shardOf(customerId, TO.size());
+            for (int s = 0; s < TO.size(); s++) {
+                int expected = s == shard ? 1 : 0;
+                on(TO.get(s), dsl -> {
+                    assertEquals(expected, dsl.fetchCount(CUSTOMER, CUSTOMER.CUSTOMER_ID.eq(customerId)));
+                    assertEquals(expected, dsl.fetchCount(CUSTOMER_ACCOUNT, CUSTOMER_ACCOUNT.CUSTOMER_ID.eq(customerId)));
+                    assertEquals(expected, dsl.fetchCount(CHANGE_EVENT, CHANGE_EVENT.CUSTOMER_ID.eq(customerId)));
+                });
+            }
+        }
+        on(TO.get(0), dsl -> assertEquals(41L, (long) dsl.select(CHANGE_EVENT_SEQ.nextval()).fetchOne().value1()));
+
+        // the new shards now hold rows, so can't be copied to again
+        assertThrows(IllegalStateException.class, () -> new Resharder(FROM, TO, "sa", "", 7).reshard());
+    }
+
+    private static void on(String url, Consumer<DSLContext> work) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "")) {
+            work.accept(DSL.using(connection, SQLDialect.H2));
+        }
+    }
+
+}
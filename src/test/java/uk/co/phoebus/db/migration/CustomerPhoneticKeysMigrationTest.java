@@ -0,0 +1,79 @@
+package uk.co.phoebus.db.migration;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationVersion;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Migrates a database holding customers saved before they had phonetic keys - the keys are the ones the migrations
+ * were written with, whatever the application's keys become
+ */
+class CustomerPhoneticKeysMigrationTest {
+
+    private static final String URL = "jdbc:h2:mem:phonetic-keys-migration;DB_CLOSE_DELAY=-1";
+    private static final Map<String, List<String>> SURNAME_KEYS = new HashMap<>();
+
+    static {
+        SURNAME_KEYS.put("Smith", Arrays.asList("SM0", "XMT"));
+        SURNAME_KEYS.put("Schmidt", Arrays.asList("XMT", "SMT"));
+        SURNAME_KEYS.put("Jones", Arrays.asList("JNS", "ANS"));
+        SURNAME_KEYS.put("Иванов", Arrays.asList(null, null));
+    }
+
+    @Test
+    public void keysAreFilledInForExistingCustomers() throws Exception {
+        flyway(MigrationVersion.fromVersion("1")).migrate();
+        try (Connection connection = DriverManager.getConnection(URL, "sa", "");
+             PreparedStatement customer = connection.prepareStatement(
+                     "INSERT INTO CUSTOMER (CUSTOMER_ID, DATE_OF_BIRTH, FORENAME, SURNAME) VALUES (?, DATE '1980-01-01', 'Stephen', ?)")) {
+            for (String surname : SURNAME_KEYS.keySet()) {
+                customer.setString(1, UUID.randomUUID().toString());
+                customer.setString(2, surname);
+                customer.addBatch();
+            }
+            customer.executeBatch();
+        }
+
+        flyway(MigrationVersion.LATEST).migrate();
+
+        try (Connection connection = DriverManager.getConnection(URL, "sa", "");
+             Statement statement = connection.createStatement()) {
+            int customers = 0;
+            try (ResultSet rows = statement.executeQuery("SELECT * FROM CUSTOMER")) {
+                while (rows.next()) {
+                    String surname = rows.getString("SURNAME");
+                    assertEquals("STFN", rows.getString("FORENAME_PHONETIC"), surname);
+                    assertNull(rows.getString("FORENAME_PHONETIC_ALT"), surname);
+                    assertEquals(SURNAME_KEYS.get(surname), Arrays.asList(rows.getString("SURNAME_PHONETIC"),
+                            rows.getString("SURNAME_PHONETIC_ALT")), surname);
+                    customers++;
+                }
+            }
+            assertEquals(SURNAME_KEYS.size(), customers);
+            statement.execute("DROP ALL OBJECTS");
+        }
+    }
+
+    private static Flyway flyway(MigrationVersion target) {
+        return Flyway.configure()
+                .dataSource(URL, "sa", "")
+                .locations("classpath:db/migration", "classpath:uk/co/phoebus/db/migration")
+                .target(target)
+                .load();
+    }
+
+}
@@ -0,0 +1,98 @@
+package uk.co.phoebus.db.migration;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationVersion;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Migrates a database holding VARCHAR ids (more than one backfill chunk of them) to UUID ids
+ */
+class UuidIdentifierMigrationTest {
+
+    private static final String URL = "jdbc:h2:mem:uuid-migration;DB_CLOSE_DELAY=-1";
+    private static final int CUSTOMERS = 12_000;
+
+    @Test
+    public void varcharIdsAreMigratedToUuidColumns() throws Exception {
+        flyway(MigrationVersion.fromVersion("4")).migrate();
+        Set<String> customerIds = new HashSet<>();
+        Set<String> linkedAccountIds = new HashSet<>();
+        try (Connection connection = DriverManager.getConnection(URL, "sa", "")) {
+            try (PreparedStatement customer = connection.prepareStatement(
+                    "INSERT INTO CUSTOMER (CUSTOMER_ID, DATE_OF_BIRTH, FORENAME, SURNAME) VALUES (?, DATE '1980-01-01', 'Forename', 'Surname')");
+                 PreparedStatement account = connection.prepareStatement(
+                         "INSERT INTO ACCOUNT (ACCOUNT_ID, ACCOUNT_NUMBER) VALUES (?, ?)");
+                 PreparedStatement link = connection.prepareStatement(
+                         "INSERT INTO CUSTOMER_ACCOUNT (CUSTOMER_ID, ACCOUNT_ID) VALUES (?, ?)")) {
+                for (int i = 0; i < CUSTOMERS; i++) {
+                    String customerId = UUID.randomUUID().toString();
+                    String accountId = UUID.randomUUID().toString();
+                    customer.setString(1, customerId);
+                    customer.addBatch();
+                    account.setString(1, accountId);
+                    account.setInt(2, i);
+                    account.addBatch();
+                    link.setString(1, customerId);
+                    link.setString(2, accountId);
+                    link.addBatch();
+                    customerIds.add(customerId);
+                    linkedAccountIds.add(accountId);
+                }
+                customer.executeBatch();
+                account.executeBatch();
+                link.executeBatch();
+            }
+        }
+
+        flyway(MigrationVersion.LATEST).migrate();
+
+        try (Connection connection = DriverManager.getConnection(URL, "sa", "");
+             Statement statement = connection.createStatement()) {
+            try (ResultSet types = statement.executeQuery("SELECT TABLE_NAME, COLUMN_NAME, TYPE_NAME FROM INFORMATION_SCHEMA.COLUMNS"
+                    + " WHERE COLUMN_NAME IN ('CUSTOMER_ID', 'ACCOUNT_ID', 'CUSTOMER_UUID', 'ACCOUNT_UUID') AND TABLE_SCHEMA = 'PUBLIC'"
+                    + " AND TABLE_NAME IN ('CUSTOMER', 'ACCOUNT', 'CUSTOMER_ACCOUNT')")) {
+                int columns = 0;
+                while (types.next()) {
+                    assertEquals("UUID", types.getString("TYPE_NAME"), types.getString("TABLE_NAME") + "." + types.getString("COLUMN_NAME"));
+                    columns++;
+                }
+                assertEquals(4, columns);
+            }
+            assertEquals(customerIds, ids(statement, "SELECT CUSTOMER_ID FROM CUSTOMER"));
+            assertEquals(customerIds, ids(statement, "SELECT CUSTOMER_ID FROM CUSTOMER_ACCOUNT"));
+            assertEquals(linkedAccountIds, ids(statement, "SELECT ACCOUNT_ID FROM CUSTOMER_ACCOUNT"));
+            assertEquals(linkedAccountIds, ids(statement, "SELECT ACCOUNT_ID FROM ACCOUNT"));
+            statement.execute("DROP ALL OBJECTS");
+        }
+    }
+
+    private static Set<String> ids(Statement statement, String sql) throws Exception {
+        Set<String> ids = new HashSet<>();
+        try (ResultSet rows = statement.executeQuery(sql)) {
+            while (rows.next()) {
+                ids.add(rows.getString(1));
+            }
+        }
+        return ids;
+    }
+
+    private static Flyway flyway(MigrationVersion target) {
+        return Flyway.configure()
+                .dataSource(URL, "sa", "")
+                .locations("classpath:db/migration", "classpath:uk/co/phoebus/db/migration")
+                .target(target)
+                .load();
+    }
+
+}
@@ -0,0 +1,76 @@
+package uk.co.phoebus.id;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimeOrderedIdGeneratorTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    public void newId_isAVersion7UuidLedByTheTimestamp() {
+        UUID id = UUID.fromString(new TimeOrderedIdGenerator(() -> NOW).newId());
+
+        assertEquals(7, id.version());
+        assertEquals(2, id.variant());
+        assertEquals(NOW, id.getMostSignificantBits() >>> 16);
+    }
+
+    @Test
+    public void newId_keepsIncreasingWhenTheCounterRunsOutOrTheClockGoesBack() {
+        AtomicLong clock = new AtomicLong(NOW);
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(clock::get);
+
+        String previous = generator.newId();
+        for (int i = 0; i < 10_000; i++) {
+            if (i == 5000) {
+                clock.set(NOW - 1000);
+            }
+            String next = generator.newId();
+            assertTrue(next.compareTo(previous) > 0, next + " should sort after " + previous);
+            previous = next;
+        }
+        // 10,001 ids at (or before) NOW, 4096 a millisecond
+        assertEquals(NOW + 2, UUID.fromString(previous).getMostSignificantBits() >>> 16);
+    }
+
+    @Test
+    public void newId_isUniqueAcrossThreadsAndIncreasingWithinEach() throws Exception {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> threads = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                threads.add(executor.submit(() -> {
+                    String previous = "";
+                    for (int i = 0; i < 20_000; i++) {
+                        String next = generator.newId();
+                        assertTrue(next.compareTo(previous) > 0);
+                        ids.add(next);
+                        previous = next;
+                    }
+                }));
+            }
+            for (Future<?> thread : threads) {
+                thread.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(160_000, ids.size());
+    }
+
+}
@@ -0,0 +1,83 @@
+package uk.co.phoebus.search;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.co.phoebus.event.CustomersCreatedEvent;
+import uk.co.phoebus.model.Customer;
+import uk.co.phoebus.model.MatchMode;
+
+import java.util.Collections;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NameMatchIndexTest {
+
+    private NameMatchIndex index;
+
+    @BeforeEach
+    public void beforeEach() {
+        index = new NameMatchIndex(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(index, "maxEdits", 2);
+        index.customersCreated(new CustomersCreatedEvent(newArrayList(
+                customer("1", "John", "Smith"),
+                customer("2", "Jon", "Smyth"),
+                customer("3", "Jane", "Smithson"),
+                customer("4", "Zoë", "Øster-Groß"),
+                customer("5", "John", "Jones"))));
+    }
+
+    @Test
+    public void normalize_foldsCaseAccentsAndPunctuation() {
+        assertEquals("ostergross", NameNormalizer.normalize("Øster-Groß"));
+        assertEquals("zoe", NameNormalizer.normalize(" ZOË "));
+        assertEquals("obrien", NameNormalizer.normalize("O'Brien"));
+    }
+
+    @Test
+    public void editDistance_countsTranspositionsAsOneEdit() {
+        assertEquals(0, NameMatchIndex.editDistance("smith", "smith", 2));
+        assertEquals(1, NameMatchIndex.editDistance("smith", "smyth", 2));
+        assertEquals(1, NameMatchIndex.editDistance("smith", "smtih", 2));
+        assertEquals(3, NameMatchIndex.editDistance("smith", "jones", 2));
+    }
+
+    @Test
+    public void fuzzy_ranksClosestFirst() {
+        assertEquals(newArrayList("1", "2"), index.match(null, "Smith", MatchMode.FUZZY, 10));
+        assertEquals(newArrayList("2", "1"), index.match(null, "smyth", MatchMode.FUZZY, 10));
+    }
+
+    @Test
+    public void fuzzy_matchesEveryGivenName() {
+        assertEquals(newArrayList("1", "2"), index.match("john", "smith", MatchMode.FUZZY, 10));
+        assertEquals(newArrayList("5"), index.match("John", "Jonse", MatchMode.FUZZY, 10));
+    }
+
+    @Test
+    public void fuzzy_respectsLimit() {
+        assertEquals(newArrayList("1"), index.match(null, "Smith", MatchMode.FUZZY, 1));
+    }
+
+    @Test
+    public void prefix_ignoresCaseAndAccents() {
+        assertEquals(newArrayList("1", "3"), index.match(null, "SMIT", MatchMode.PREFIX, 10));
+        assertEquals(newArrayList("4"), index.match("zoe", "oster", MatchMode.PREFIX, 10));
+    }
+
+    @Test
+    public void match_withoutLettersMatchesNothing() {
+        assertEquals(Collections.emptyList(), index.match(null, "--", MatchMode.FUZZY, 10));
+    }
+
+    private static Customer customer(String customerId, String forename, String surname) {
+        return Customer.builder()
+                .customerId(customerId)
+                .forename(forename)
+                .surname(surname)
+                .build();
+    }
+
+}